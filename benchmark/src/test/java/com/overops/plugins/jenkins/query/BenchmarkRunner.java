@@ -0,0 +1,39 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+//BenchmarkRunner runs the JMH benchmarks of this module from surefire, so they run offline
+//with the same classpath as the tests. Results, including allocation rates, are written to
+//target/jmh-result.json. Set -Dbenchmark.include to a regular expression to run a subset.
+
+public class BenchmarkRunner {
+
+	@Test
+	public void runBenchmarks() throws Exception {
+		new File("target").mkdirs();
+
+		ChainedOptionsBuilder options = new OptionsBuilder()
+			.include(System.getProperty("benchmark.include", getClass().getPackage().getName() + "\\..*Benchmark"))
+			.forks(Integer.getInteger("benchmark.forks", 1))
+			.warmupIterations(Integer.getInteger("benchmark.warmupIterations", 3))
+			.warmupTime(TimeValue.seconds(2))
+			.measurementIterations(Integer.getInteger("benchmark.iterations", 5))
+			.measurementTime(TimeValue.seconds(2))
+			.timeUnit(TimeUnit.MICROSECONDS)
+			.addProfiler(GCProfiler.class)
+			.shouldFailOnError(true)
+			.resultFormat(ResultFormatType.JSON)
+			.result("target/jmh-result.json");
+
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,40 @@
+package com.overops.plugins.jenkins.query;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import hudson.util.XStream2;
+
+//Writing and reading the build action as part of build.xml, done on every build save and
+//every time a build is loaded
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class BuildActionXStreamBenchmark {
+
+	private XStream2 xstream;
+	private OverOpsBuildAction action;
+	private String xml;
+
+	@Setup
+	public void setUp() {
+		xstream = new XStream2();
+		action = new OverOpsBuildAction(SyntheticReports.summary(SyntheticReports.failedReport(1000)),
+			"0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef", "0123abcd", null);
+		xml = xstream.toXML(action);
+	}
+
+	@Benchmark
+	public String serialize() {
+		return xstream.toXML(action);
+	}
+
+	@Benchmark
+	public Object deserialize() {
+		return xstream.fromXML(xml);
+	}
+}
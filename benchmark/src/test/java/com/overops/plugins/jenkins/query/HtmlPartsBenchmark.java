@@ -0,0 +1,47 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.overops.report.service.model.HtmlParts;
+import com.overops.report.service.model.QualityReport;
+
+//Rendering and summarizing a failed quality report of a growing number of events
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class HtmlPartsBenchmark {
+
+	@Param({ "10", "1000", "10000", "100000" })
+	public int eventCount;
+
+	private QualityReport report;
+
+	@Setup
+	public void setUp() {
+		report = SyntheticReports.failedReport(eventCount);
+	}
+
+	@Benchmark
+	public HtmlParts htmlParts() {
+		return report.getHtmlParts(true);
+	}
+
+	@Benchmark
+	public ReportSummary summarize() {
+		return SyntheticReports.summary(report);
+	}
+
+	@Benchmark
+	public Map<String, List<ReportEvent>> events() {
+		return QualityReports.events(report, QualityReports.MAX_EVENTS_PER_GATE);
+	}
+}
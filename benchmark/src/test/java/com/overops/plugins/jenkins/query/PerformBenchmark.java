@@ -0,0 +1,81 @@
+package com.overops.plugins.jenkins.query;
+
+import org.jvnet.hudson.test.JenkinsRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.tasks.LogRotator;
+import net.sf.json.JSONObject;
+
+//A freestyle build running the OverOps post-build step against the in-process API simulator
+//with 1000 events, with and without the report cache. Jenkins scheduling is part of every
+//measurement and is the same across plugin versions.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class PerformBenchmark {
+
+	private static final String DEPLOYMENT = "bench";
+
+	@Param({ "0", "60" })
+	public int reportCacheTtl;
+
+	private JenkinsRule rule;
+	private OverOpsApiSimulator api;
+	private FreeStyleProject project;
+
+	@Setup
+	public void setUp() throws Throwable {
+		rule = new JenkinsRule();
+		rule.before();
+
+		api = new OverOpsApiSimulator();
+		api.addDeployment(DEPLOYMENT);
+		api.setEventCount(1000);
+
+		JSONObject settings = new JSONObject();
+		settings.put("overOpsAppURL", api.getUrl());
+		settings.put("overOpsURL", api.getUrl());
+		settings.put("overOpsSID", "S1");
+		settings.put("overOpsAPIKey", "benchmark");
+		settings.put("reportCacheTtl", reportCacheTtl);
+
+		JSONObject form = new JSONObject();
+		form.put("QueryOverOps", settings);
+
+		rule.jenkins.getDescriptorByType(DescriptorImpl.class).configure(null, form);
+
+		QueryOverOps queryOverOps = new QueryOverOps();
+		queryOverOps.setApplicationName("benchmark");
+		queryOverOps.setDeploymentName(DEPLOYMENT);
+		queryOverOps.setNewEvents(true);
+		queryOverOps.setResurfacedErrors(true);
+		queryOverOps.setMaxErrorVolume(100);
+		queryOverOps.setMaxUniqueErrors(10);
+		queryOverOps.setCriticalExceptionTypes("NullPointerException");
+		queryOverOps.setErrorSuccess(true);
+
+		project = rule.createFreeStyleProject();
+		project.getPublishersList().add(queryOverOps);
+		project.setBuildDiscarder(new LogRotator(-1, 20, -1, -1));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		api.close();
+		rule.after();
+	}
+
+	@Benchmark
+	public FreeStyleBuild build() throws Exception {
+		return rule.buildAndAssertSuccess(project);
+	}
+}
@@ -0,0 +1,53 @@
+package com.overops.plugins.jenkins.query;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.overops.report.service.QualityReportParams;
+
+import hudson.EnvVars;
+
+//Expanding a job configuration into a quality gate request and report-service parameters,
+//done once per build
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class QualityReportParamsBenchmark {
+
+	private QueryOverOps queryOverOps;
+	private EnvVars env;
+
+	@Setup
+	public void setUp() {
+		queryOverOps = new QueryOverOps();
+		queryOverOps.setApplicationName("${JOB_NAME}");
+		queryOverOps.setDeploymentName("${JOB_NAME}-${BUILD_NUMBER}");
+		queryOverOps.setServiceId("s12345");
+		queryOverOps.setRegexFilter("\"type\":\\\"*(Timer|Logged Warning)");
+		queryOverOps.setMarkUnstable(true);
+		queryOverOps.setPrintTopIssues(10);
+		queryOverOps.setNewEvents(true);
+		queryOverOps.setResurfacedErrors(true);
+		queryOverOps.setMaxErrorVolume(500);
+		queryOverOps.setMaxUniqueErrors(50);
+		queryOverOps.setCriticalExceptionTypes("NullPointerException,IndexOutOfBoundsException,InvalidCastException,AssertionError");
+
+		env = new EnvVars();
+		env.put("JOB_NAME", "checkout-service");
+		env.put("BUILD_NUMBER", "1234");
+	}
+
+	@Benchmark
+	public QualityGateRequest createRequest() {
+		return queryOverOps.createRequest(env);
+	}
+
+	@Benchmark
+	public QualityReportParams qualityReportParams() {
+		return queryOverOps.createRequest(env).toQualityReportParams();
+	}
+}
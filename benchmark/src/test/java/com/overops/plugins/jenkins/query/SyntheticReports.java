@@ -0,0 +1,61 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+import com.overops.plugins.jenkins.query.QualityGateEvaluator.GateGroup;
+import com.overops.report.service.model.QualityGateEvent;
+import com.overops.report.service.model.QualityGateTestResults;
+import com.overops.report.service.model.QualityReport;
+import com.overops.report.service.model.QualityReport.ReportStatus;
+
+//SyntheticReports builds quality report models of a given size without an OverOps backend
+
+final class SyntheticReports {
+
+	private SyntheticReports() {
+	}
+
+	/**
+	 * A failed report whose events are spread over the new, resurfaced and critical gates.
+	 */
+	static QualityReport failedReport(int eventCount) {
+		QualityReport report = new QualityReport();
+		report.setStatusCode(ReportStatus.FAILED);
+
+		int perGate = Math.max(1, eventCount / 3);
+
+		report.setNewErrorsTestResults(gateResults("New Error Gate", 0, perGate));
+		report.setResurfacedErrorsTestResults(gateResults("Resurfaced Error Gate", perGate, perGate));
+		report.setCriticalErrorsTestResults(gateResults("Critical Error Gate", 2 * perGate, eventCount - 2 * perGate));
+
+		return report;
+	}
+
+	private static QualityGateTestResults gateResults(String message, int firstId, int count) {
+		List<QualityGateEvent> events = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			int id = firstId + i;
+
+			QualityGateEvent event = new QualityGateEvent();
+			event.setEventId(String.valueOf(id));
+			event.setEventSummary("NullPointerException in com.example.service.Handler" + (id % 500) + ".handle");
+			event.setHits(String.valueOf(1 + (id * 31L) % 10000));
+			events.add(event);
+		}
+
+		QualityGateTestResults results = new QualityGateTestResults();
+		results.setPassed(count == 0);
+		results.setErrorCount(count);
+		results.setMessage(message + ": " + count + " errors");
+		results.setEvents(events);
+
+		return results;
+	}
+
+	static ReportSummary summary(QualityReport report) {
+		return QualityReports.summarize(report, new EnumMap<>(GateGroup.class));
+	}
+}
@@ -0,0 +1,271 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+//AgentQueryContext is the QualityGateContext of a build agent that runs quality gate queries for
+//the controller. The agent keeps its own API clients, report cache and query scheduler, built from
+//the controller's global settings, and shares them between the builds it runs until the settings
+//change. Limits such as Max Concurrent Queries therefore apply per agent.
+//Each query holds a context for the time it runs. The shared state is only shut down once the
+//settings changed and the last query using it released it. The API key is passed with each query
+//rather than kept with the settings; only the API clients created with it hold on to it, until
+//they are idle.
+
+public class AgentQueryContext implements QualityGateContext, AutoCloseable {
+	// guarded by AgentQueryContext.class
+	private static Shared current;
+
+	// kept across settings changes, like the controller's
+	private static final ApiCallMetrics METRICS = new ApiCallMetrics();
+	private static final GateCosts GATE_COSTS = new GateCosts();
+
+	private final Shared shared;
+	private final String apiKey;
+
+	// guarded by AgentQueryContext.class
+	private boolean closed;
+
+	private AgentQueryContext(Shared shared, String apiKey) {
+		this.shared = shared;
+		this.apiKey = apiKey;
+	}
+
+	/**
+	 * A context of this agent JVM for the controller's settings, sharing its state with the other
+	 * queries until the settings change. It must be closed when the query completes.
+	 * @param baselineDir where this agent keeps regression baselines
+	 */
+	static AgentQueryContext acquire(Settings settings, File baselineDir, String apiKey) {
+		synchronized (AgentQueryContext.class) {
+			if ((current == null) || (!current.settings.equals(settings)) || (!current.baselineDir.equals(baselineDir))) {
+				Shared previous = current;
+				current = new Shared(settings, baselineDir);
+
+				// queries still running keep the previous state until they release it
+				if (previous != null) {
+					previous.retire();
+				}
+			} else {
+				current.clientRegistry.evictIdle();
+			}
+
+			current.users++;
+
+			return new AgentQueryContext(current, apiKey);
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (AgentQueryContext.class) {
+			if (!closed) {
+				closed = true;
+				shared.release();
+			}
+		}
+	}
+
+	@Override
+	public String getOverOpsURL() {
+		return shared.settings.overOpsURL;
+	}
+
+	@Override
+	public String getOverOpsAppURL() {
+		return shared.settings.overOpsAppURL;
+	}
+
+	@Override
+	public String apiKey() {
+		return apiKey;
+	}
+
+	@Override
+	public int getGateWorkerThreads() {
+		return shared.settings.gateWorkerThreads;
+	}
+
+	@Override
+	public int getReadinessTimeout() {
+		return shared.settings.readinessTimeout;
+	}
+
+	@Override
+	public ExecutorService getGatePool() {
+		return shared.gatePool;
+	}
+
+	@Override
+	public ExecutorService getBatchPool() {
+		return shared.batchPool;
+	}
+
+	@Override
+	public ReportCache getReportCache() {
+		return shared.reportCache;
+	}
+
+	@Override
+	public ApiClientRegistry getClientRegistry() {
+		return shared.clientRegistry;
+	}
+
+	@Override
+	public ApiCallMetrics getApiCallMetrics() {
+		return METRICS;
+	}
+
+	@Override
+	public GateCosts getGateCosts() {
+		return GATE_COSTS;
+	}
+
+	// notifications reach the controller only, so an agent polls
+	@Override
+	public ReadinessNotifier getReadinessNotifier() {
+		return null;
+	}
+
+	@Override
+	public RetryPolicy getRetryPolicy() {
+		return new RetryPolicy(shared.settings.queryRetries, TimeUnit.SECONDS.toMillis(shared.settings.queryRetryDelay));
+	}
+
+	@Override
+	public QueryScheduler getQueryScheduler() {
+		return shared.queryScheduler;
+	}
+
+	@Override
+	public EnvironmentIndex getEnvironmentIndex() {
+		return shared.environmentIndex;
+	}
+
+	@Override
+	public File getBaselineDir() {
+		return shared.baselineDir;
+	}
+
+	// the clients, caches and pools of the agent for one version of the settings
+	private static final class Shared {
+		private final Settings settings;
+		private final File baselineDir;
+		private final ExecutorService gatePool;
+		private final ExecutorService batchPool;
+		private final ReportCache reportCache;
+		private final ApiClientRegistry clientRegistry;
+		private final EnvironmentIndex environmentIndex;
+		private final QueryScheduler queryScheduler;
+
+		// guarded by AgentQueryContext.class
+		private int users;
+		private boolean retired;
+
+		private Shared(Settings settings, File baselineDir) {
+			this.settings = settings;
+			this.baselineDir = baselineDir;
+			this.gatePool = QualityGateRunner.newGatePool(settings.gateWorkerThreads);
+			this.batchPool = QualityGateRunner.newBatchPool(settings.gateWorkerThreads);
+			this.reportCache = new ReportCache(settings.reportCacheSize, settings.reportCacheTtl);
+			this.clientRegistry = new ApiClientRegistry(settings.maxRequestsPerClient, settings.clientIdleTimeout, METRICS,
+				new ApiRateLimiter(settings.apiRequestsPerMinute, settings.apiBurst));
+			this.environmentIndex = new EnvironmentIndex(clientRegistry, EnvironmentIndex.DEFAULT_TTL_MILLIS, gatePool);
+			this.queryScheduler = new QueryScheduler(settings.maxConcurrentQueries, settings.maxQueriesPerEnvironment);
+		}
+
+		private void retire() {
+			retired = true;
+			shutdownIfUnused();
+		}
+
+		private void release() {
+			users--;
+			shutdownIfUnused();
+		}
+
+		private void shutdownIfUnused() {
+			if ((retired) && (users == 0)) {
+				gatePool.shutdown();
+				batchPool.shutdown();
+				clientRegistry.close();
+			}
+		}
+	}
+
+	/**
+	 * The controller's global settings, as sent to the agent with each query. The API key is
+	 * sent next to them, so it does not outlive the query on the agent.
+	 */
+	public static final class Settings implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String overOpsURL;
+		private final String overOpsAppURL;
+		private final int maxRequestsPerClient;
+		private final int clientIdleTimeout;
+		private final int readinessTimeout;
+		private final int gateWorkerThreads;
+		private final int reportCacheSize;
+		private final int reportCacheTtl;
+		private final int queryRetries;
+		private final int queryRetryDelay;
+		private final int maxConcurrentQueries;
+		private final int maxQueriesPerEnvironment;
+		private final int apiRequestsPerMinute;
+		private final int apiBurst;
+
+		Settings(String overOpsURL, String overOpsAppURL, int maxRequestsPerClient, int clientIdleTimeout,
+				int readinessTimeout, int gateWorkerThreads, int reportCacheSize, int reportCacheTtl, int queryRetries,
+				int queryRetryDelay, int maxConcurrentQueries, int maxQueriesPerEnvironment, int apiRequestsPerMinute,
+				int apiBurst) {
+			this.overOpsURL = overOpsURL;
+			this.overOpsAppURL = overOpsAppURL;
+			this.maxRequestsPerClient = maxRequestsPerClient;
+			this.clientIdleTimeout = clientIdleTimeout;
+			this.readinessTimeout = readinessTimeout;
+			this.gateWorkerThreads = gateWorkerThreads;
+			this.reportCacheSize = reportCacheSize;
+			this.reportCacheTtl = reportCacheTtl;
+			this.queryRetries = queryRetries;
+			this.queryRetryDelay = queryRetryDelay;
+			this.maxConcurrentQueries = maxConcurrentQueries;
+			this.maxQueriesPerEnvironment = maxQueriesPerEnvironment;
+			this.apiRequestsPerMinute = apiRequestsPerMinute;
+			this.apiBurst = apiBurst;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Settings)) {
+				return false;
+			}
+
+			Settings other = (Settings) o;
+
+			return Objects.equals(overOpsURL, other.overOpsURL) && Objects.equals(overOpsAppURL, other.overOpsAppURL) &&
+				(maxRequestsPerClient == other.maxRequestsPerClient) &&
+				(clientIdleTimeout == other.clientIdleTimeout) && (readinessTimeout == other.readinessTimeout) &&
+				(gateWorkerThreads == other.gateWorkerThreads) && (reportCacheSize == other.reportCacheSize) &&
+				(reportCacheTtl == other.reportCacheTtl) && (queryRetries == other.queryRetries) &&
+				(queryRetryDelay == other.queryRetryDelay) && (maxConcurrentQueries == other.maxConcurrentQueries) &&
+				(maxQueriesPerEnvironment == other.maxQueriesPerEnvironment) &&
+				(apiRequestsPerMinute == other.apiRequestsPerMinute) && (apiBurst == other.apiBurst);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(overOpsURL, overOpsAppURL, maxRequestsPerClient, clientIdleTimeout, readinessTimeout,
+				gateWorkerThreads, reportCacheSize, reportCacheTtl, queryRetries, queryRetryDelay, maxConcurrentQueries,
+				maxQueriesPerEnvironment, apiRequestsPerMinute, apiBurst);
+		}
+
+		@Override
+		public String toString() {
+			return "Settings[" + overOpsURL + "]";
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+//ApiCallMetrics records the latency, errors and bytes of OverOps API calls in fixed bucket
+//histograms, per operation and URL template. Ids in URLs are replaced by placeholders so
+//calls for different environments and events share a template.
+
+public class ApiCallMetrics {
+
+	// bucket upper bounds in milliseconds, the last bucket is unbounded
+	static final long[] BUCKETS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+	private static final Pattern SERVICE_ID = Pattern.compile("[Ss]\\d+");
+	private static final Pattern NUMERIC_ID = Pattern.compile("\\d+");
+	private static final Pattern OPAQUE_ID = Pattern.compile("(?=.*\\d)[0-9A-Za-z_-]{16,}");
+
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+	public void record(String operation, String url, long millis, boolean error, long requestBytes, long responseBytes) {
+		String template = urlTemplate(url);
+		Histogram histogram = histograms.computeIfAbsent(operation + " " + template,
+			key -> new Histogram(operation, template));
+
+		histogram.record(millis, error, requestBytes, responseBytes);
+	}
+
+	/**
+	 * Strips scheme, host and query and replaces id path segments with placeholders.
+	 */
+	static String urlTemplate(String url) {
+		if (url == null) {
+			return "";
+		}
+
+		String path = url;
+		int scheme = path.indexOf("://");
+
+		if (scheme >= 0) {
+			int slash = path.indexOf('/', scheme + 3);
+			path = slash >= 0 ? path.substring(slash) : "/";
+		}
+
+		int query = path.indexOf('?');
+
+		if (query >= 0) {
+			path = path.substring(0, query);
+		}
+
+		StringBuilder template = new StringBuilder();
+
+		for (String segment : path.split("/")) {
+			if (segment.isEmpty()) {
+				continue;
+			}
+
+			template.append('/');
+
+			if (SERVICE_ID.matcher(segment).matches()) {
+				template.append("{serviceId}");
+			} else if ((NUMERIC_ID.matcher(segment).matches()) || (OPAQUE_ID.matcher(segment).matches())) {
+				template.append("{id}");
+			} else {
+				template.append(segment);
+			}
+		}
+
+		return template.length() > 0 ? template.toString() : "/";
+	}
+
+	public List<Histogram> getHistograms() {
+		return new ArrayList<>(new TreeMap<>(histograms).values());
+	}
+
+	// Prometheus text exposition format
+	public void writePrometheus(PrintWriter out) {
+		Map<String, Histogram> sorted = new TreeMap<>(histograms);
+
+		out.println("# HELP overops_api_call_duration_seconds OverOps API call latency.");
+		out.println("# TYPE overops_api_call_duration_seconds histogram");
+
+		for (Histogram histogram : sorted.values()) {
+			String labels = histogram.labels();
+			long cumulative = 0;
+
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += histogram.buckets[i].sum();
+				out.println("overops_api_call_duration_seconds_bucket{" + labels + ",le=\"" + seconds(BUCKETS[i]) + "\"} " +
+					cumulative);
+			}
+
+			out.println("overops_api_call_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} " + histogram.getCount());
+			out.println("overops_api_call_duration_seconds_sum{" + labels + "} " + seconds(histogram.totalMillis.sum()));
+			out.println("overops_api_call_duration_seconds_count{" + labels + "} " + histogram.getCount());
+		}
+
+		out.println("# HELP overops_api_call_errors_total OverOps API calls that failed.");
+		out.println("# TYPE overops_api_call_errors_total counter");
+
+		for (Histogram histogram : sorted.values()) {
+			out.println("overops_api_call_errors_total{" + histogram.labels() + "} " + histogram.getErrors());
+		}
+
+		out.println("# HELP overops_api_call_bytes_total Bytes sent to and received from the OverOps API.");
+		out.println("# TYPE overops_api_call_bytes_total counter");
+
+		for (Histogram histogram : sorted.values()) {
+			out.println("overops_api_call_bytes_total{" + histogram.labels() + ",direction=\"request\"} " +
+				histogram.getRequestBytes());
+			out.println("overops_api_call_bytes_total{" + histogram.labels() + ",direction=\"response\"} " +
+				histogram.getResponseBytes());
+		}
+	}
+
+	private static String seconds(long millis) {
+		return String.format(Locale.ROOT, "%.3f", millis / 1000d);
+	}
+
+	public static class Histogram {
+		private final String operation;
+		private final String urlTemplate;
+
+		private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+		private final LongAdder totalMillis = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder requestBytes = new LongAdder();
+		private final LongAdder responseBytes = new LongAdder();
+
+		Histogram(String operation, String urlTemplate) {
+			this.operation = operation;
+			this.urlTemplate = urlTemplate;
+
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long millis, boolean error, long requestBytes, long responseBytes) {
+			buckets[bucketOf(millis)].increment();
+			totalMillis.add(millis);
+			this.requestBytes.add(requestBytes);
+			this.responseBytes.add(responseBytes);
+
+			if (error) {
+				errors.increment();
+			}
+		}
+
+		private static int bucketOf(long millis) {
+			for (int i = 0; i < BUCKETS.length; i++) {
+				if (millis <= BUCKETS[i]) {
+					return i;
+				}
+			}
+
+			return BUCKETS.length;
+		}
+
+		/**
+		 * Estimates a percentile as the upper bound of the bucket it falls in.
+		 * @param quantile between 0 and 1
+		 * @return milliseconds, or -1 when the percentile is beyond the last bounded bucket
+		 */
+		public long getPercentile(double quantile) {
+			long count = getCount();
+
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = (long) Math.ceil(quantile * count);
+			long cumulative = 0;
+
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += buckets[i].sum();
+
+				if (cumulative >= rank) {
+					return BUCKETS[i];
+				}
+			}
+
+			return -1;
+		}
+
+		private String labels() {
+			return "operation=\"" + operation + "\",url=\"" + urlTemplate.replace("\"", "\\\"") + "\"";
+		}
+
+		public String getOperation() {
+			return operation;
+		}
+
+		public String getUrlTemplate() {
+			return urlTemplate;
+		}
+
+		public long getCount() {
+			long count = 0;
+
+			for (LongAdder bucket : buckets) {
+				count += bucket.sum();
+			}
+
+			return count;
+		}
+
+		public long getP50() {
+			return getPercentile(0.50);
+		}
+
+		public long getP95() {
+			return getPercentile(0.95);
+		}
+
+		public long getP99() {
+			return getPercentile(0.99);
+		}
+
+		public long getErrors() {
+			return errors.sum();
+		}
+
+		public long getRequestBytes() {
+			return requestBytes.sum();
+		}
+
+		public long getResponseBytes() {
+			return responseBytes.sum();
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.RemoteApiClient;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+//ApiClientRegistry shares OverOps API clients across builds, keyed by (API host, API key).
+//Reusing a client keeps its HTTP keep-alive connections warm instead of paying connection
+//setup and TLS handshakes on every build. Leases are paced by the ApiRateLimiter bucket of the
+//key. The registry is owned by DescriptorImpl and is rebuilt whenever the global settings change.
+//Only the plugin's own API calls (deployment readiness, environment lookups) go through it: the
+//report service builds its own client for every quality report, so report generation is neither
+//pooled nor limited here, but by the QueryScheduler. The lease limit bounds the callers using a
+//client at once, not the HTTP connections the client opens.
+
+public class ApiClientRegistry {
+	private volatile int maxRequestsPerClient;
+	private volatile long idleTimeoutMillis;
+	private final ApiCallMetrics metrics;
+	private final ApiRateLimiter rateLimiter;
+
+	private final ConcurrentMap<ClientKey, PooledClient> clients = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public ApiClientRegistry(int maxRequestsPerClient, int idleTimeoutMinutes, ApiCallMetrics metrics) {
+		this(maxRequestsPerClient, idleTimeoutMinutes, metrics, new ApiRateLimiter(0, DescriptorImpl.DEFAULT_API_BURST));
+	}
+
+	public ApiClientRegistry(int maxRequestsPerClient, int idleTimeoutMinutes, ApiCallMetrics metrics,
+			ApiRateLimiter rateLimiter) {
+		this.maxRequestsPerClient = Math.max(1, maxRequestsPerClient);
+		this.idleTimeoutMillis = TimeUnit.MINUTES.toMillis(Math.max(1, idleTimeoutMinutes));
+		this.metrics = metrics;
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Changes the limits of the registry. Clients are only dropped when the number of requests per
+	 * client changes, to be created again with the new number; leases in flight are unaffected.
+	 */
+	public synchronized void configure(int maxRequestsPerClient, int idleTimeoutMinutes) {
+		int maxRequests = Math.max(1, maxRequestsPerClient);
+		idleTimeoutMillis = TimeUnit.MINUTES.toMillis(Math.max(1, idleTimeoutMinutes));
+
+		if (maxRequests != this.maxRequestsPerClient) {
+			this.maxRequestsPerClient = maxRequests;
+			clients.clear();
+		}
+	}
+
+	/**
+	 * Leases the shared client for the given host and key, creating it on first use.
+	 * Blocks while the client already has maxRequestsPerClient leases in flight, and while the
+	 * key's rate limit bucket is empty. The lease must be closed when the caller is done with the client.
+	 */
+	public Lease acquire(String hostname, String apiKey) throws InterruptedException {
+		ClientKey key = new ClientKey(hostname, apiKey);
+		PooledClient pooled = clients.get(key);
+
+		if (pooled == null) {
+			PooledClient created = new PooledClient(newClient(hostname, apiKey), maxRequestsPerClient);
+			pooled = clients.putIfAbsent(key, created);
+
+			if (pooled == null) {
+				pooled = created;
+				misses.incrementAndGet();
+			} else {
+				hits.incrementAndGet();
+			}
+		} else {
+			hits.incrementAndGet();
+		}
+
+		pooled.permits.acquire();
+
+		try {
+			rateLimiter.bucket(hostname, apiKey).acquire();
+		} catch (InterruptedException e) {
+			pooled.permits.release();
+			throw e;
+		}
+
+		pooled.touch();
+
+		return new Lease(pooled);
+	}
+
+	// drop clients that have not been leased for longer than the idle timeout
+	public void evictIdle() {
+		long now = System.currentTimeMillis();
+
+		for (Iterator<Map.Entry<ClientKey, PooledClient>> it = clients.entrySet().iterator(); it.hasNext();) {
+			PooledClient pooled = it.next().getValue();
+
+			if ((pooled.isIdle()) && (now - pooled.lastUsed > idleTimeoutMillis)) {
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	public void close() {
+		clients.clear();
+	}
+
+	public ApiRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	public int getMaxRequestsPerClient() {
+		return maxRequestsPerClient;
+	}
+
+	public int getSize() {
+		return clients.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "clients=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() +
+			", evictions=" + getEvictions();
+	}
+
+	protected ApiClient newClient(String hostname, String apiKey) {
+		ApiClient client = RemoteApiClient.newBuilder().setHostname(hostname).setApiKey(apiKey).build();
+		client.addObserver(new QueryOverOps.ApiClientObserver(metrics, rateLimiter.bucket(hostname, apiKey), null, false));
+
+		return client;
+	}
+
+	public static final class Lease implements AutoCloseable {
+		private final PooledClient pooled;
+		private boolean released;
+
+		private Lease(PooledClient pooled) {
+			this.pooled = pooled;
+		}
+
+		public ApiClient getClient() {
+			return pooled.client;
+		}
+
+		@Override
+		public void close() {
+			if (!released) {
+				released = true;
+				pooled.touch();
+				pooled.permits.release();
+			}
+		}
+	}
+
+	private static final class PooledClient {
+		private final ApiClient client;
+		private final Semaphore permits;
+		private final int maxPermits;
+		private volatile long lastUsed;
+
+		private PooledClient(ApiClient client, int maxPermits) {
+			this.client = client;
+			this.permits = new Semaphore(maxPermits, true);
+			this.maxPermits = maxPermits;
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		private void touch() {
+			lastUsed = System.currentTimeMillis();
+		}
+
+		private boolean isIdle() {
+			return permits.availablePermits() == maxPermits;
+		}
+	}
+
+	private static final class ClientKey {
+		private final String hostname;
+		private final String apiKey;
+
+		private ClientKey(String hostname, String apiKey) {
+			this.hostname = hostname;
+			this.apiKey = apiKey;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ClientKey)) {
+				return false;
+			}
+
+			ClientKey other = (ClientKey) o;
+			return Objects.equals(hostname, other.hostname) && Objects.equals(apiKey, other.apiKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(hostname, apiKey);
+		}
+
+		// never expose the api key
+		@Override
+		public String toString() {
+			return hostname;
+		}
+	}
+
+	@Extension
+	public static class IdleClientEviction extends PeriodicWork {
+
+		@Override
+		public long getRecurrencePeriod() {
+			return MIN;
+		}
+
+		@Override
+		protected void doRun() {
+			DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+
+			if (descriptor != null) {
+				descriptor.getClientRegistry().evictIdle();
+			}
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.PrintWriter;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import hudson.Util;
+
+//ApiRateLimiter keeps the plugin's OverOps API requests within a quota, with a token bucket per
+//(API host, API key). A request waits while its bucket is empty and takes its token when it may go;
+//requests sent beyond the tokens taken, e.g. by a lease that issues many, take theirs when recorded
+//and delay the next ones. HTTP 429 and 503 responses pause the bucket for their Retry-After, or with
+//exponential backoff until a request succeeds again. Budget counters are kept per bucket.
+
+public class ApiRateLimiter {
+	static final long INITIAL_BACKOFF_MILLIS = 1000;
+	static final long MAX_BACKOFF_MILLIS = 60000;
+
+	// a server asking for a longer pause is not waited on for more than this
+	static final long MAX_RETRY_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	// the status line or code of a 429 or 503, not any number in the message
+	private static final Pattern RATE_LIMITED = Pattern.compile(
+		"(response code|status|status code|http(/[\\d.]+)?)\\W{0,3}(429|503)\\b|too many requests|service unavailable",
+		Pattern.CASE_INSENSITIVE);
+
+	// read by the buckets on each request, so new limits apply to the buckets already in use
+	private volatile int requestsPerMinute;
+	private volatile int burst;
+
+	private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+	/**
+	 * @param requestsPerMinute the sustained request rate per API key, 0 for no limit
+	 * @param burst the number of requests that may be sent at once after a quiet period
+	 */
+	public ApiRateLimiter(int requestsPerMinute, int burst) {
+		setLimits(requestsPerMinute, burst);
+	}
+
+	/**
+	 * Changes the limits, keeping the tokens, pauses and counters of each bucket.
+	 */
+	public void setLimits(int requestsPerMinute, int burst) {
+		this.requestsPerMinute = Math.max(0, requestsPerMinute);
+		this.burst = Math.max(1, burst);
+	}
+
+	public Bucket bucket(String apiHost, String apiKey) {
+		String digest = Util.getDigestOf(apiKey != null ? apiKey : "");
+		return buckets.computeIfAbsent(apiHost + "|" + digest, key -> new Bucket(apiHost, digest.substring(0, 8)));
+	}
+
+	/**
+	 * Whether a failure message reports an HTTP 429 or 503 status, for report-service queries whose
+	 * responses are not seen by the plugin and fail with a message only.
+	 */
+	static boolean isRateLimited(String message) {
+		return (message != null) && (RATE_LIMITED.matcher(message).find());
+	}
+
+	/**
+	 * The pause a Retry-After header asks for, in delay-seconds or HTTP-date form.
+	 * @return -1 when the header is missing or invalid
+	 */
+	static long retryAfterMillis(String retryAfter, long now) {
+		if ((retryAfter == null) || (retryAfter.trim().isEmpty())) {
+			return -1;
+		}
+
+		String value = retryAfter.trim();
+		long millis;
+
+		try {
+			millis = TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			try {
+				millis = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - now;
+			} catch (DateTimeParseException dateException) {
+				return -1;
+			}
+		}
+
+		return Math.min(MAX_RETRY_AFTER_MILLIS, Math.max(0, millis));
+	}
+
+	public int getRequestsPerMinute() {
+		return requestsPerMinute;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	public List<Bucket> getBuckets() {
+		List<Bucket> sorted = new ArrayList<>(buckets.values());
+		sorted.sort(Comparator.comparing(Bucket::getLabel));
+
+		return sorted;
+	}
+
+	@Override
+	public String toString() {
+		long requests = 0;
+		long throttled = 0;
+		long rateLimited = 0;
+
+		for (Bucket bucket : buckets.values()) {
+			requests += bucket.getRequests();
+			throttled += bucket.getThrottled();
+			rateLimited += bucket.getRateLimited();
+		}
+
+		return "limit=" + (requestsPerMinute > 0 ? requestsPerMinute + "/min" : "none") + ", requests=" + requests +
+			", throttled=" + throttled + ", rateLimited=" + rateLimited;
+	}
+
+	// Prometheus text exposition format
+	public void writePrometheus(PrintWriter out) {
+		List<Bucket> sorted = getBuckets();
+
+		out.println("# HELP overops_api_requests_total OverOps API requests sent, per API key.");
+		out.println("# TYPE overops_api_requests_total counter");
+
+		for (Bucket bucket : sorted) {
+			out.println("overops_api_requests_total{" + bucket.labels() + "} " + bucket.getRequests());
+		}
+
+		out.println("# HELP overops_api_throttled_total OverOps API requests delayed by the client-side rate limit.");
+		out.println("# TYPE overops_api_throttled_total counter");
+
+		for (Bucket bucket : sorted) {
+			out.println("overops_api_throttled_total{" + bucket.labels() + "} " + bucket.getThrottled());
+		}
+
+		out.println("# HELP overops_api_rate_limited_total OverOps API responses with status 429 or 503.");
+		out.println("# TYPE overops_api_rate_limited_total counter");
+
+		for (Bucket bucket : sorted) {
+			out.println("overops_api_rate_limited_total{" + bucket.labels() + "} " + bucket.getRateLimited());
+		}
+
+		out.println("# HELP overops_api_tokens Requests that can be sent now without waiting.");
+		out.println("# TYPE overops_api_tokens gauge");
+
+		for (Bucket bucket : sorted) {
+			out.println("overops_api_tokens{" + bucket.labels() + "} " + bucket.getAvailableTokens());
+		}
+	}
+
+	public final class Bucket {
+		private final String apiHost;
+
+		// a prefix of the api key digest, enough to tell keys apart without exposing them
+		private final String keyId;
+
+		private double tokens = burst;
+		private long refilledAt = System.nanoTime();
+		private long pausedUntil;
+		private int consecutiveRateLimits;
+
+		// tokens taken by acquire for requests not recorded yet
+		private int prepaid;
+
+		private long requests;
+		private long throttled;
+		private long throttledMillis;
+		private long rateLimited;
+
+		private Bucket(String apiHost, String keyId) {
+			this.apiHost = apiHost;
+			this.keyId = keyId;
+		}
+
+		/**
+		 * Waits until a request may be sent, the bucket has a token and is not paused by a 429, and
+		 * takes the token.
+		 */
+		public void acquire() throws InterruptedException {
+			acquire(1);
+		}
+
+		/**
+		 * Waits until the bucket has the tokens for the requests and takes them all at once, so
+		 * concurrent callers never share a token. Requests beyond the burst wait for a full bucket
+		 * and take it below zero.
+		 */
+		public void acquire(int permits) throws InterruptedException {
+			boolean waited = false;
+			long start = System.nanoTime();
+
+			while (true) {
+				long waitMillis;
+
+				synchronized (this) {
+					waitMillis = waitMillis(permits);
+
+					if (waitMillis <= 0) {
+						if (requestsPerMinute > 0) {
+							tokens -= permits;
+							prepaid = Math.min(burst, prepaid + permits);
+						}
+
+						if (waited) {
+							throttled++;
+							throttledMillis += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+						}
+
+						return;
+					}
+				}
+
+				waited = true;
+				Thread.sleep(waitMillis);
+			}
+		}
+
+		private long waitMillis(int permits) {
+			refill();
+
+			long pause = TimeUnit.NANOSECONDS.toMillis(pausedUntil - System.nanoTime());
+
+			if (pause > 0) {
+				return pause;
+			}
+
+			double needed = Math.min(permits, burst);
+
+			if ((requestsPerMinute == 0) || (tokens >= needed)) {
+				return 0;
+			}
+
+			return (long) Math.ceil((needed - tokens) * TimeUnit.MINUTES.toMillis(1) / requestsPerMinute);
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+
+			if (requestsPerMinute > 0) {
+				double minutes = (double) (now - refilledAt) / TimeUnit.MINUTES.toNanos(1);
+				tokens = Math.min(burst, tokens + minutes * requestsPerMinute);
+			}
+
+			refilledAt = now;
+		}
+
+		/**
+		 * Records requests that were sent. Requests paid for by an acquire take no token, only the
+		 * requests beyond them do, e.g. when a caller sends several requests after one acquire.
+		 */
+		public synchronized void record(int count) {
+			refill();
+
+			if (requestsPerMinute > 0) {
+				int paid = Math.min(prepaid, count);
+				prepaid -= paid;
+				tokens -= count - paid;
+			}
+
+			requests += count;
+		}
+
+		public void onResponse(int responseCode) {
+			onResponse(responseCode, null);
+		}
+
+		/**
+		 * Backs off after a 429 or 503: for as long as its Retry-After header asks, or else doubling
+		 * the pause with each consecutive one.
+		 * @param responseCode the HTTP status of a request that was sent
+		 * @param retryAfter the Retry-After header of the response, null when there is none or it is not known
+		 */
+		public synchronized void onResponse(int responseCode, String retryAfter) {
+			if ((responseCode == 429) || (responseCode == 503)) {
+				long pause = retryAfterMillis(retryAfter, System.currentTimeMillis());
+
+				if (pause < 0) {
+					pause = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(consecutiveRateLimits, 16));
+				}
+
+				pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pause));
+				consecutiveRateLimits++;
+				rateLimited++;
+			} else if ((responseCode >= 200) && (responseCode < 400)) {
+				consecutiveRateLimits = 0;
+			}
+		}
+
+		private String labels() {
+			return "host=\"" + apiHost.replace("\"", "\\\"") + "\",key=\"" + keyId + "\"";
+		}
+
+		public String getLabel() {
+			return apiHost + " (" + keyId + ")";
+		}
+
+		public synchronized long getAvailableTokens() {
+			if (requestsPerMinute == 0) {
+				return burst;
+			}
+
+			refill();
+			return (long) Math.floor(tokens);
+		}
+
+		public synchronized long getRequests() {
+			return requests;
+		}
+
+		public synchronized long getThrottled() {
+			return throttled;
+		}
+
+		public synchronized long getThrottledMillis() {
+			return throttledMillis;
+		}
+
+		public synchronized long getRateLimited() {
+			return rateLimited;
+		}
+
+		public synchronized boolean isPaused() {
+			return pausedUntil - System.nanoTime() > 0;
+		}
+	}
+}
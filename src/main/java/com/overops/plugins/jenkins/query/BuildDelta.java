@@ -0,0 +1,204 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.overops.report.service.model.HtmlParts;
+
+import hudson.Util;
+import hudson.model.Result;
+import hudson.model.Run;
+
+//BuildDelta compares the events of a build's deployment with those of the last successful
+//build, the last build with a SUCCESS result: events added, no longer seen and grown in volume. The comparison is shown at the end of
+//the report and, with a maximum number of added events set, evaluated as the New Since Last
+//Success gate. It runs on the controller, where the builds' event sets are stored.
+
+public final class BuildDelta {
+	private static final Logger LOGGER = Logger.getLogger(BuildDelta.class.getName());
+
+	// events of each kind listed in the report
+	static final int LISTED_EVENTS = 10;
+
+	private BuildDelta() {
+	}
+
+	/**
+	 * Stores the build's event set and adds its delta to the result. The delta is taken from the
+	 * report of the same gate in the last successful build.
+	 * @param reportKey the key of the build's report, reserved with ReportFiles.reserveKey
+	 * @param request null when the request could not be created
+	 * @return the result with the delta section and gate, or the result as is when there is nothing to compare
+	 */
+	public static QualityGateResult apply(Run<?, ?> run, String reportKey, QualityGateRequest request,
+			QualityGateResult result, PrintStream console) {
+		EventSet current = result.getEventSet();
+
+		if ((request == null) || (current == null)) {
+			return result;
+		}
+
+		try {
+			current.write(run.getRootDir(), reportKey);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to store OverOps events of " + run, e);
+		}
+
+		Run<?, ?> baselineBuild = lastSuccess(run);
+		EventSet baseline = null;
+
+		if (baselineBuild != null) {
+			try {
+				baseline = EventSet.read(baselineBuild.getRootDir(), reportKey);
+
+				// a build from before reports had keys has a single set
+				if (baseline == null) {
+					baseline = EventSet.read(baselineBuild.getRootDir(), null);
+				}
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Unable to read OverOps events of " + baselineBuild, e);
+			}
+		}
+
+		Integer maxAddedEvents = request.getMaxAddedEvents();
+
+		if (baseline == null) {
+			if (maxAddedEvents == null) {
+				return result;
+			}
+
+			console.println("OverOps " + QualityReports.NEW_SINCE_SUCCESS + ": no earlier successful build with OverOps events");
+
+			// the first build has nothing to compare with, so the gate passes
+			return evaluate(result, request, null, null, maxAddedEvents, 0);
+		}
+
+		long start = System.nanoTime();
+		EventSet.Delta delta = current.diff(baseline);
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+
+		console.println("OverOps events since build #" + baselineBuild.getNumber() + ": " + delta.getAdded().size() +
+			" new, " + delta.getRemoved().size() + " no longer seen, " + delta.getGrown().size() + " increased, compared in " +
+			String.format(Locale.ROOT, "%.3f", micros / 1000d) + "ms");
+
+		return evaluate(result, request, baselineBuild, delta, maxAddedEvents, TimeUnit.MICROSECONDS.toMillis(micros));
+	}
+
+	// getPreviousSuccessfulBuild would also return an unstable build
+	static Run<?, ?> lastSuccess(Run<?, ?> run) {
+		Run<?, ?> previous = run.getPreviousBuild();
+
+		while ((previous != null) && (previous.getResult() != Result.SUCCESS)) {
+			previous = previous.getPreviousBuild();
+		}
+
+		return previous;
+	}
+
+	private static QualityGateResult evaluate(QualityGateResult result, QualityGateRequest request, Run<?, ?> baselineBuild,
+			EventSet.Delta delta, Integer maxAddedEvents, long durationMillis) {
+		ReportSummary summary = result.getSummary();
+		Result buildResult = result.getResult();
+
+		if (maxAddedEvents != null) {
+			long added = delta != null ? delta.getAdded().size() : 0;
+			boolean passed = added <= maxAddedEvents;
+			String message = delta == null ? QualityReports.NEW_SINCE_SUCCESS + ": no earlier successful build to compare" :
+				QualityReports.NEW_SINCE_SUCCESS + ": " + added + " events not seen in build #" + baselineBuild.getNumber() +
+				(passed ? "" : ", more than the " + maxAddedEvents + " allowed");
+
+			summary = summary.withGate(new ReportSummary.GateSummary(QualityReports.NEW_SINCE_SUCCESS, passed, added, message,
+				durationMillis, delta != null ? volume(delta.getAdded()) : 0), passed ? "PASSED" :
+				request.getMarkUnstable() ? "FAILED" : "WARNING");
+
+			if ((!passed) && (request.getMarkUnstable())) {
+				buildResult = buildResult.combine(Result.UNSTABLE);
+			}
+		}
+
+		HtmlParts htmlParts = result.getHtmlParts();
+		String html = delta != null ? htmlParts.getHtml() + render(baselineBuild, delta, result.getEvents()) : htmlParts.getHtml();
+
+		return new QualityGateResult(new HtmlParts(html, htmlParts.getCss()), buildResult, summary, result.getEvents(),
+			result.getEventArchive(), result.getEventSet());
+	}
+
+	static String render(Run<?, ?> baselineBuild, EventSet.Delta delta, Map<String, List<ReportEvent>> events) {
+		Map<String, String> names = new HashMap<>();
+
+		for (List<ReportEvent> gateEvents : events.values()) {
+			for (ReportEvent event : gateEvents) {
+				names.put(event.getId(), event.getName());
+			}
+		}
+
+		StringBuilder html = new StringBuilder();
+
+		html.append("<div class=\"overops-delta\"><h2>Changes since build #").append(baselineBuild.getNumber()).append("</h2>");
+		html.append("<p>").append(delta.getAdded().size()).append(" new events, ").append(delta.getRemoved().size())
+			.append(" no longer seen, ").append(delta.getGrown().size()).append(" increased in volume</p>");
+
+		renderEvents(html, "New since build #" + baselineBuild.getNumber(), delta.getAdded(), names);
+		renderEvents(html, "Increased in volume", delta.getGrown(), names);
+
+		return html.append("</div>").toString();
+	}
+
+	private static void renderEvents(StringBuilder html, String title, EventSet events, Map<String, String> names) {
+		if (events.isEmpty()) {
+			return;
+		}
+
+		html.append("<h3>").append(Util.escape(title)).append("</h3><table><tr><th>Event</th><th>Volume</th></tr>");
+
+		for (int index : top(events, LISTED_EVENTS)) {
+			String id = String.valueOf(events.getId(index));
+			String name = names.get(id);
+
+			html.append("<tr><td>").append(Util.escape(name != null ? name : "Event " + id)).append("</td><td>")
+				.append(events.getVolume(index)).append("</td></tr>");
+		}
+
+		html.append("</table>");
+	}
+
+	// indexes of the highest volume events, highest first
+	static int[] top(EventSet events, int limit) {
+		PriorityQueue<Integer> heap = new PriorityQueue<>((a, b) -> Long.compare(events.getVolume(a), events.getVolume(b)));
+
+		for (int i = 0; i < events.size(); i++) {
+			if (heap.size() < limit) {
+				heap.add(i);
+			} else if (events.getVolume(i) > events.getVolume(heap.peek())) {
+				heap.poll();
+				heap.add(i);
+			}
+		}
+
+		int[] top = new int[heap.size()];
+
+		for (int i = top.length - 1; i >= 0; i--) {
+			top[i] = heap.poll();
+		}
+
+		return top;
+	}
+
+	private static long volume(EventSet events) {
+		long volume = 0;
+
+		for (int i = 0; i < events.size(); i++) {
+			volume += events.getVolume(i);
+		}
+
+		return volume;
+	}
+}
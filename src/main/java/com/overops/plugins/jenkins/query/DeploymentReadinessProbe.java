@@ -0,0 +1,281 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.takipi.api.client.util.client.ClientUtil;
+
+//DeploymentReadinessProbe replaces the fixed ingestion wait before a quality report.
+//It polls OverOps for the deployment with exponential backoff and jitter, and returns as
+//soon as OverOps has events of the deployment or the configured upper bound is reached.
+//A deployment is first listed by OverOps and then receives its events, so a listed deployment
+//is polled for its event volumes as well. A deployment that is listed but shows no events within
+//a grace period is taken as ready, as a deployment without errors has no events to wait for;
+//the build log names such deployments, as their report may still miss late events.
+//A batched quality gate waits for all of its deployments in one combined wait.
+//With a ReadinessNotifier the probe also wakes when a deployment is reported ready through the
+//webhook, and polls only as a fallback, at a longer interval.
+
+public class DeploymentReadinessProbe {
+	static final long DEFAULT_INITIAL_DELAY_MILLIS = 1000;
+	static final long DEFAULT_MAX_DELAY_MILLIS = 15000;
+
+	// fallback polling when notifications are expected
+	static final long NOTIFIED_INITIAL_DELAY_MILLIS = 15000;
+	static final long NOTIFIED_MAX_DELAY_MILLIS = 60000;
+
+	// how long a listed deployment may show no events before it is taken as ready
+	static final long DEFAULT_EVENT_GRACE_MILLIS = 30000;
+
+	// the events of the deployment looked for
+	private static final long EVENT_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private final ApiClientRegistry clientRegistry;
+	private final String apiHost;
+	private final String apiKey;
+	private final long timeoutMillis;
+	private final long initialDelayMillis;
+	private final long maxDelayMillis;
+	private final long eventGraceMillis;
+	private final ReadinessNotifier notifier;
+
+	public DeploymentReadinessProbe(ApiClientRegistry clientRegistry, String apiHost, String apiKey, long timeoutMillis) {
+		this(clientRegistry, apiHost, apiKey, timeoutMillis, null);
+	}
+
+	/**
+	 * @param notifier wakes the probe when a deployment is reported ready, null to only poll
+	 */
+	public DeploymentReadinessProbe(ApiClientRegistry clientRegistry, String apiHost, String apiKey, long timeoutMillis,
+			ReadinessNotifier notifier) {
+		this(clientRegistry, apiHost, apiKey, timeoutMillis,
+			notifier != null ? NOTIFIED_INITIAL_DELAY_MILLIS : DEFAULT_INITIAL_DELAY_MILLIS,
+			notifier != null ? NOTIFIED_MAX_DELAY_MILLIS : DEFAULT_MAX_DELAY_MILLIS, notifier);
+	}
+
+	DeploymentReadinessProbe(ApiClientRegistry clientRegistry, String apiHost, String apiKey, long timeoutMillis,
+			long initialDelayMillis, long maxDelayMillis) {
+		this(clientRegistry, apiHost, apiKey, timeoutMillis, initialDelayMillis, maxDelayMillis, null);
+	}
+
+	DeploymentReadinessProbe(ApiClientRegistry clientRegistry, String apiHost, String apiKey, long timeoutMillis,
+			long initialDelayMillis, long maxDelayMillis, ReadinessNotifier notifier) {
+		this(clientRegistry, apiHost, apiKey, timeoutMillis, initialDelayMillis, maxDelayMillis,
+			Math.min(DEFAULT_EVENT_GRACE_MILLIS, 2 * maxDelayMillis), notifier);
+	}
+
+	DeploymentReadinessProbe(ApiClientRegistry clientRegistry, String apiHost, String apiKey, long timeoutMillis,
+			long initialDelayMillis, long maxDelayMillis, long eventGraceMillis, ReadinessNotifier notifier) {
+		this.clientRegistry = clientRegistry;
+		this.apiHost = apiHost;
+		this.apiKey = apiKey;
+		this.timeoutMillis = timeoutMillis;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+		this.eventGraceMillis = eventGraceMillis;
+		this.notifier = notifier;
+	}
+
+	/**
+	 * Waits until OverOps has events of the deployment, or the timeout elapses.
+	 * @param serviceId
+	 * @param deploymentName
+	 * @param console build log to report wall-clock time and poll count to
+	 * @return true if the deployment has events or was listed for the grace period, false if the wait timed out
+	 */
+	public boolean awaitReady(String serviceId, String deploymentName, PrintStream console) throws InterruptedException {
+		return awaitReady(serviceId, Collections.singleton(deploymentName), console).contains(deploymentName);
+	}
+
+	/**
+	 * Waits until OverOps has events of all the deployments, or the timeout elapses.
+	 * Each poll lists the deployments with a single request, and checks the events of each listed one.
+	 * @return the deployments that were found
+	 */
+	public Set<String> awaitReady(String serviceId, Collection<String> deploymentNames, PrintStream console)
+			throws InterruptedException {
+		if (notifier == null) {
+			return awaitReady(serviceId, deploymentNames, null, console);
+		}
+
+		try (ReadinessNotifier.Waiter waiter = notifier.register(serviceId, deploymentNames)) {
+			return awaitReady(serviceId, deploymentNames, waiter, console);
+		}
+	}
+
+	private Set<String> awaitReady(String serviceId, Collection<String> deploymentNames, ReadinessNotifier.Waiter waiter,
+			PrintStream console) throws InterruptedException {
+		Set<String> pending = new LinkedHashSet<>(deploymentNames);
+		// when each pending deployment was first listed
+		Map<String, Long> listed = new HashMap<>();
+		Set<String> withoutEvents = new LinkedHashSet<>();
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		long delay = initialDelayMillis;
+		int polls = 0;
+		int notifications = 0;
+		boolean poll = true;
+
+		// deployments reported ready before the wait need no poll
+		if (waiter != null) {
+			notifications += removeNotified(pending, waiter.drain());
+		}
+
+		while (true) {
+			if ((poll) && (!pending.isEmpty())) {
+				polls++;
+
+				List<String> deployments = getDeployments(serviceId, console);
+
+				if (deployments != null) {
+					for (String deploymentName : pending) {
+						if (deployments.contains(deploymentName)) {
+							listed.putIfAbsent(deploymentName, System.nanoTime());
+						}
+					}
+				}
+
+				removeWithEvents(serviceId, pending, listed, withoutEvents, console);
+			}
+
+			if (pending.isEmpty()) {
+				console.println("OverOps has data for " + describe(deploymentNames) + " after " +
+					elapsedMillis(start) + "ms (" + describePolls(polls, notifications) + ")");
+				describeWithoutEvents(withoutEvents, console);
+				return new LinkedHashSet<>(deploymentNames);
+			}
+
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+			if (remaining <= 0) {
+				console.println("Timed out waiting for OverOps data for " + describe(pending) + " after " +
+					elapsedMillis(start) + "ms (" + describePolls(polls, notifications) + "), continuing with report");
+				describeWithoutEvents(withoutEvents, console);
+
+				Set<String> ready = new LinkedHashSet<>(deploymentNames);
+				ready.removeAll(pending);
+
+				return ready;
+			}
+
+			long wait = Math.min(withJitter(delay), remaining);
+			delay = Math.min(delay * 2, maxDelayMillis);
+
+			if (waiter == null) {
+				Thread.sleep(wait);
+				continue;
+			}
+
+			// a notification ends the wait early, only an environment notification or the timeout leads to a poll
+			Set<String> notified = waiter.await(wait);
+
+			notifications += removeNotified(pending, notified);
+			poll = notified.isEmpty();
+		}
+	}
+
+	// removes the listed deployments that have events, or have been listed for the grace period
+	private void removeWithEvents(String serviceId, Set<String> pending, Map<String, Long> listed,
+			Set<String> withoutEvents, PrintStream console) throws InterruptedException {
+		for (Iterator<String> iterator = pending.iterator(); iterator.hasNext();) {
+			String deploymentName = iterator.next();
+			Long listedAt = listed.get(deploymentName);
+
+			if (listedAt == null) {
+				continue;
+			}
+
+			if (hasEvents(serviceId, deploymentName, console)) {
+				iterator.remove();
+			} else if (System.nanoTime() - listedAt >= TimeUnit.MILLISECONDS.toNanos(eventGraceMillis)) {
+				iterator.remove();
+				withoutEvents.add(deploymentName);
+			}
+		}
+	}
+
+	private static void describeWithoutEvents(Set<String> withoutEvents, PrintStream console) {
+		if (!withoutEvents.isEmpty()) {
+			console.println("OverOps has no events of " + describe(withoutEvents) + " yet, continuing after " +
+				"the grace period; the report may miss events that are still being received");
+		}
+	}
+
+	private static int removeNotified(Set<String> pending, Set<String> notified) {
+		int removed = 0;
+
+		for (String deploymentName : notified) {
+			if (pending.remove(deploymentName)) {
+				removed++;
+			}
+		}
+
+		return removed;
+	}
+
+	private static String describePolls(int polls, int notifications) {
+		return polls + " polls" + (notifications > 0 ? ", " + notifications + " notified" : "");
+	}
+
+	// null when the poll failed
+	List<String> getDeployments(String serviceId, PrintStream console) throws InterruptedException {
+		try (ApiClientRegistry.Lease lease = clientRegistry.acquire(apiHost, apiKey)) {
+			return ClientUtil.getDeployments(lease.getClient(), serviceId);
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			// a failed poll is treated as not ready yet, the report itself surfaces real errors
+			console.println("OverOps readiness check failed: " + e.getMessage());
+			return null;
+		}
+	}
+
+	// false when the check failed
+	boolean hasEvents(String serviceId, String deploymentName, PrintStream console) throws InterruptedException {
+		long now = System.currentTimeMillis();
+
+		try (ApiClientRegistry.Lease lease = clientRegistry.acquire(apiHost, apiKey)) {
+			OverOpsVolumes volumes = new OverOpsVolumes(lease.getClient(), serviceId, null, deploymentName);
+
+			for (RegressionBaseline.EventVolume volume : volumes.fetch(now - EVENT_WINDOW_MILLIS, now).values()) {
+				if (volume.getHits() > 0) {
+					return true;
+				}
+			}
+
+			return false;
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			console.println("OverOps readiness check failed: " + e.getMessage());
+			return false;
+		}
+	}
+
+	private static String describe(Collection<String> deploymentNames) {
+		if (deploymentNames.size() == 1) {
+			return "deployment " + deploymentNames.iterator().next();
+		}
+
+		return deploymentNames.size() + " deployments " + deploymentNames;
+	}
+
+	// equal jitter: keep half of the delay and randomize the other half
+	private static long withJitter(long delay) {
+		long half = delay / 2;
+		return half + ThreadLocalRandom.current().nextLong(half + 1);
+	}
+
+	private static long elapsedMillis(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+}
@@ -1,40 +1,124 @@
 package com.overops.plugins.jenkins.query;
 
-import java.util.List;
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.verb.POST;
 
-import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.RemoteApiClient;
-import com.takipi.api.client.data.service.SummarizedService;
-import com.takipi.api.client.util.client.ClientUtil;
 import com.takipi.api.core.url.UrlClient.Response;
 
 import hudson.Extension;
 import hudson.model.AbstractProject;
+import hudson.model.Item;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Publisher;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import net.sf.json.JSONObject;
 
 //DescriptorImpl governs the global config settings
 
 @Extension
 @Symbol("OverOpsQuery")
-public final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
+public final class DescriptorImpl extends BuildStepDescriptor<Publisher> implements QualityGateContext {
+	private static final Logger LOGGER = Logger.getLogger(DescriptorImpl.class.getName());
+
+	static final int DEFAULT_MAX_REQUESTS_PER_CLIENT = 20;
+	static final int DEFAULT_CLIENT_IDLE_TIMEOUT = 10;
+	static final int DEFAULT_READINESS_TIMEOUT = 120;
+	static final int DEFAULT_GATE_WORKER_THREADS = 10;
+	static final int DEFAULT_REPORT_CACHE_SIZE = 100;
+	static final int DEFAULT_REPORT_CACHE_TTL = 60;
+	static final int DEFAULT_QUERY_RETRIES = 2;
+	static final int DEFAULT_QUERY_RETRY_DELAY = 2;
+	static final int DEFAULT_MAX_CONCURRENT_QUERIES = 20;
+	static final int DEFAULT_MAX_QUERIES_PER_ENVIRONMENT = 10;
+	static final int DEFAULT_API_REQUESTS_PER_MINUTE = 0;
+	static final int DEFAULT_API_BURST = 20;
+
+	// quality gate steps queued per gate worker thread, beyond which further steps fail to start
+	static final int GATE_QUEUE_PER_THREAD = 100;
+
+	// simple or fully qualified class name
+	private static final Pattern EXCEPTION_TYPE = Pattern.compile("[\\p{L}_$][\\p{L}\\p{N}_$]*(\\.[\\p{L}_$][\\p{L}\\p{N}_$]*)*");
+
 	private String overOpsAppURL;
 	private String overOpsURL;
 	private String overOpsSID;
 	private Secret overOpsAPIKey;
 
+	// api client pool settings
+	private int maxRequestsPerClient;
+	private int clientIdleTimeout;
+
+	// renamed to maxRequestsPerClient, read from older configurations only
+	@Deprecated
+	private Integer maxConnectionsPerHost;
+
+	// upper bound in seconds for waiting on OverOps to ingest a deployment
+	private int readinessTimeout;
+
+	// threads shared by all Pipeline quality gate steps
+	private int gateWorkerThreads;
+
+	// report results shared by builds querying the same deployment, a ttl of 0 disables the cache
+	private int reportCacheSize;
+	private Integer reportCacheTtl;
+
+	// retries of a quality report query that failed for a transient reason, and the first delay in seconds
+	private Integer queryRetries;
+	private int queryRetryDelay;
+
+	// quality gate queries running at once, controller-wide and per environment
+	private int maxConcurrentQueries;
+	private int maxQueriesPerEnvironment;
+
+	// client-side OverOps API quota per api key, 0 requests per minute for no limit
+	private int apiRequestsPerMinute;
+	private int apiBurst;
+
+	// run the post-build step's queries on the build agent instead of the controller
+	private boolean runOnAgent;
+
+	// shared secret of the readiness webhook, which is disabled without one
+	private Secret webhookToken;
+
+	private transient volatile ApiClientRegistry clientRegistry;
+	private transient volatile EnvironmentIndex environmentIndex;
+
+	// kept for the lifetime of the controller, so latency history survives config changes
+	private final transient ApiCallMetrics apiCallMetrics = new ApiCallMetrics();
+	private final transient GateCosts gateCosts = new GateCosts();
+	private final transient ReadinessNotifier readinessNotifier = new ReadinessNotifier();
+	private transient volatile ReportCache reportCache;
+	private transient volatile QueryScheduler queryScheduler;
+	private transient ThreadPoolExecutor gateWorkers;
+	private transient ThreadPoolExecutor gatePool;
+	private transient ThreadPoolExecutor batchPool;
+
 	public DescriptorImpl() {
 		super(QueryOverOps.class);
 		load();
+		migrateSettings();
+		configureClientRegistry();
+		rebuildReportCache();
+		rebuildQueryScheduler();
 	}
 
 	@Override
@@ -55,10 +139,137 @@ public final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 		overOpsURL = QueryOverOpsJson.getString("overOpsURL");
 		overOpsSID = QueryOverOpsJson.getString("overOpsSID");
 		overOpsAPIKey = Secret.fromString(QueryOverOpsJson.getString("overOpsAPIKey"));
+		maxRequestsPerClient = QueryOverOpsJson.optInt("maxRequestsPerClient", DEFAULT_MAX_REQUESTS_PER_CLIENT);
+		clientIdleTimeout = QueryOverOpsJson.optInt("clientIdleTimeout", DEFAULT_CLIENT_IDLE_TIMEOUT);
+		readinessTimeout = QueryOverOpsJson.optInt("readinessTimeout", DEFAULT_READINESS_TIMEOUT);
+		gateWorkerThreads = QueryOverOpsJson.optInt("gateWorkerThreads", DEFAULT_GATE_WORKER_THREADS);
+		reportCacheSize = QueryOverOpsJson.optInt("reportCacheSize", DEFAULT_REPORT_CACHE_SIZE);
+		reportCacheTtl = QueryOverOpsJson.optInt("reportCacheTtl", DEFAULT_REPORT_CACHE_TTL);
+		queryRetries = QueryOverOpsJson.optInt("queryRetries", DEFAULT_QUERY_RETRIES);
+		queryRetryDelay = QueryOverOpsJson.optInt("queryRetryDelay", DEFAULT_QUERY_RETRY_DELAY);
+		maxConcurrentQueries = QueryOverOpsJson.optInt("maxConcurrentQueries", DEFAULT_MAX_CONCURRENT_QUERIES);
+		maxQueriesPerEnvironment = QueryOverOpsJson.optInt("maxQueriesPerEnvironment", DEFAULT_MAX_QUERIES_PER_ENVIRONMENT);
+		apiRequestsPerMinute = QueryOverOpsJson.optInt("apiRequestsPerMinute", DEFAULT_API_REQUESTS_PER_MINUTE);
+		apiBurst = QueryOverOpsJson.optInt("apiBurst", DEFAULT_API_BURST);
+		runOnAgent = QueryOverOpsJson.optBoolean("runOnAgent", false);
+		webhookToken = Secret.fromString(QueryOverOpsJson.optString("webhookToken", ""));
 		save();
+		configureClientRegistry();
+		rebuildReportCache();
+		rebuildQueryScheduler();
+		resizePools();
 		return false;
 	}
 
+	@SuppressWarnings("deprecation")
+	private void migrateSettings() {
+		if (maxConnectionsPerHost != null) {
+			maxRequestsPerClient = maxConnectionsPerHost;
+			maxConnectionsPerHost = null;
+		}
+	}
+
+	// bounded pool the Pipeline step runs its queries on, so waiting gates hold no executors;
+	// the queue is bounded too, a step submitted to a full queue fails
+	public synchronized ExecutorService getGateWorkers() {
+		if (gateWorkers == null) {
+			int threads = getGateWorkerThreads();
+			gateWorkers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(threads * GATE_QUEUE_PER_THREAD),
+				new NamingThreadFactory(new DaemonThreadFactory(), "OverOps quality gate"));
+			gateWorkers.allowCoreThreadTimeOut(true);
+		}
+
+		return gateWorkers;
+	}
+
+	// pool independent gate groups of a single report are evaluated on
+	public synchronized ExecutorService getGatePool() {
+		if (gatePool == null) {
+			gatePool = QualityGateRunner.newGatePool(getGateWorkerThreads());
+		}
+
+		return gatePool;
+	}
+
+	// pool the pairs of batched requests are evaluated on, resized with the gate workers
+	public synchronized ExecutorService getBatchPool() {
+		if (batchPool == null) {
+			batchPool = QualityGateRunner.newBatchPool(getGateWorkerThreads());
+		}
+
+		return batchPool;
+	}
+
+	private synchronized void resizePools() {
+		resize(gateWorkers, getGateWorkerThreads());
+		resize(gatePool, getGateWorkerThreads());
+		resize(batchPool, getGateWorkerThreads());
+	}
+
+	private static void resize(ThreadPoolExecutor pool, int threads) {
+		if (pool == null) {
+			return;
+		}
+
+		// keep core <= max while resizing in either direction
+		if (threads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		}
+	}
+
+	// clients are keyed by host and api key, so those of previous settings are evicted once idle;
+	// the registry and the rate limit buckets are kept, only their limits follow the settings
+	private void configureClientRegistry() {
+		if (clientRegistry == null) {
+			clientRegistry = new ApiClientRegistry(getMaxRequestsPerClient(), getClientIdleTimeout(), apiCallMetrics,
+				new ApiRateLimiter(getApiRequestsPerMinute(), getApiBurst()));
+			environmentIndex = new EnvironmentIndex(clientRegistry, EnvironmentIndex.DEFAULT_TTL_MILLIS, Timer.get());
+			return;
+		}
+
+		clientRegistry.configure(getMaxRequestsPerClient(), getClientIdleTimeout());
+		clientRegistry.getRateLimiter().setLimits(getApiRequestsPerMinute(), getApiBurst());
+	}
+
+	// cached reports may have been produced with the previous settings
+	private void rebuildReportCache() {
+		reportCache = new ReportCache(getReportCacheSize(), getReportCacheTtl());
+	}
+
+	// queries already running or queued keep their slot in the previous scheduler
+	private void rebuildQueryScheduler() {
+		queryScheduler = new QueryScheduler(getMaxConcurrentQueries(), getMaxQueriesPerEnvironment());
+	}
+
+	public QueryScheduler getQueryScheduler() {
+		return queryScheduler;
+	}
+
+	public ReportCache getReportCache() {
+		return reportCache;
+	}
+
+	public ApiCallMetrics getApiCallMetrics() {
+		return apiCallMetrics;
+	}
+
+	public GateCosts getGateCosts() {
+		return gateCosts;
+	}
+
+	public ApiClientRegistry getClientRegistry() {
+		return clientRegistry;
+	}
+
+	public EnvironmentIndex getEnvironmentIndex() {
+		return environmentIndex;
+	}
+
 	public String getOverOpsAppURL() {
 		return overOpsAppURL;
 	}
@@ -74,29 +285,200 @@ public final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 	public Secret getOverOpsAPIKey() {
 		return overOpsAPIKey;
 	}
+
+	public int getMaxRequestsPerClient() {
+		return maxRequestsPerClient > 0 ? maxRequestsPerClient : DEFAULT_MAX_REQUESTS_PER_CLIENT;
+	}
+
+	public int getClientIdleTimeout() {
+		return clientIdleTimeout > 0 ? clientIdleTimeout : DEFAULT_CLIENT_IDLE_TIMEOUT;
+	}
+
+	public int getReadinessTimeout() {
+		return readinessTimeout > 0 ? readinessTimeout : DEFAULT_READINESS_TIMEOUT;
+	}
+
+	public int getGateWorkerThreads() {
+		return gateWorkerThreads > 0 ? gateWorkerThreads : DEFAULT_GATE_WORKER_THREADS;
+	}
+
+	public int getReportCacheSize() {
+		return reportCacheSize > 0 ? reportCacheSize : DEFAULT_REPORT_CACHE_SIZE;
+	}
+
+	public int getReportCacheTtl() {
+		return reportCacheTtl != null ? Math.max(0, reportCacheTtl) : DEFAULT_REPORT_CACHE_TTL;
+	}
+
+	public int getQueryRetries() {
+		return queryRetries != null ? Math.max(0, queryRetries) : DEFAULT_QUERY_RETRIES;
+	}
+
+	public int getQueryRetryDelay() {
+		return queryRetryDelay > 0 ? queryRetryDelay : DEFAULT_QUERY_RETRY_DELAY;
+	}
+
+	public int getMaxConcurrentQueries() {
+		return maxConcurrentQueries > 0 ? maxConcurrentQueries : DEFAULT_MAX_CONCURRENT_QUERIES;
+	}
+
+	public int getMaxQueriesPerEnvironment() {
+		return maxQueriesPerEnvironment > 0 ? maxQueriesPerEnvironment : DEFAULT_MAX_QUERIES_PER_ENVIRONMENT;
+	}
+
+	public int getApiRequestsPerMinute() {
+		return Math.max(0, apiRequestsPerMinute);
+	}
+
+	public int getApiBurst() {
+		return apiBurst > 0 ? apiBurst : DEFAULT_API_BURST;
+	}
+
+	public boolean getRunOnAgent() {
+		return runOnAgent;
+	}
+
+	public Secret getWebhookToken() {
+		return webhookToken;
+	}
+
+	// not a getter, like apiKey
+	String webhookToken() {
+		return Secret.toString(webhookToken);
+	}
+
+	// null while no webhook token is set, builds then only poll
+	public ReadinessNotifier getReadinessNotifier() {
+		return webhookToken().isEmpty() ? null : readinessNotifier;
+	}
+
+	public String getReadinessNotifierStats() {
+		return webhookToken().isEmpty() ? "webhook disabled" : readinessNotifier.toString();
+	}
+
+	// the settings an agent needs to run queries with the controller's configuration
+	AgentQueryContext.Settings getAgentSettings() {
+		return new AgentQueryContext.Settings(overOpsURL, overOpsAppURL, getMaxRequestsPerClient(),
+			getClientIdleTimeout(), getReadinessTimeout(), getGateWorkerThreads(), getReportCacheSize(), getReportCacheTtl(),
+			getQueryRetries(), getQueryRetryDelay(), getMaxConcurrentQueries(), getMaxQueriesPerEnvironment(),
+			getApiRequestsPerMinute(), getApiBurst());
+	}
+
+	@Override
+	public String apiKey() {
+		return Secret.toString(overOpsAPIKey);
+	}
+
+	@Override
+	public File getBaselineDir() {
+		return RegressionBaseline.getDefaultDir();
+	}
+
+	public ApiRateLimiter getRateLimiter() {
+		return clientRegistry.getRateLimiter();
+	}
+
+	public String getRateLimiterStats() {
+		return clientRegistry.getRateLimiter().toString();
+	}
+
+	public String getQuerySchedulerStats() {
+		return queryScheduler.toString();
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return new RetryPolicy(getQueryRetries(), TimeUnit.SECONDS.toMillis(getQueryRetryDelay()));
+	}
+
+	public String getGateCostStats() {
+		return gateCosts.toString();
+	}
+
+	public String getReportCacheStats() {
+		return reportCache.toString();
+	}
+
+	public String getClientPoolStats() {
+		return clientRegistry.toString();
+	}
+
+	public String getEnvironmentIndexStats() {
+		return environmentIndex.toString();
+	}
 	
-	private boolean hasAccessToService(ApiClient apiClient, String serviceId) {
-		
-		List<SummarizedService> services;
-		
+	private boolean hasAccessToService(String apiHost, String apiKey, String serviceId) {
 		try {
-			services = ClientUtil.getEnvironments(apiClient);
+			return environmentIndex.hasAccess(apiHost, apiKey, serviceId);
 		} catch (Exception e) {
-			System.err.println(e);
+			LOGGER.log(Level.WARNING, "Unable to list the OverOps environments of " + apiHost, e);
 			return false;
 		}
-		
+	}
+
+	@POST
+	public FormValidation doCheckServiceId(@AncestorInPath Item item, @QueryParameter String value) {
+		return checkServiceId(item, value);
+	}
+
+	public FormValidation doCheckRegexFilter(@QueryParameter String value) {
+		return checkRegexFilter(value);
+	}
+
+	public FormValidation doCheckCriticalExceptionTypes(@QueryParameter String value) {
+		return checkCriticalExceptionTypes(value);
+	}
 
-		for (SummarizedService service : services) {
-			if (service.id.equals(serviceId)) {
-				return true;
+	// checked against the global api key, builds fall back to the global environment id when empty
+	static FormValidation checkServiceId(Item item, String value) {
+		// the check uses the global api key, so only those who may configure the job may run it
+		if (item != null) {
+			item.checkPermission(Item.CONFIGURE);
+		} else {
+			Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		}
+
+		if ((value == null) || (value.trim().isEmpty()) || (value.contains("$"))) {
+			return FormValidation.ok();
+		}
+
+		DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+
+		if ((descriptor == null) || (descriptor.getOverOpsURL() == null) || (descriptor.getOverOpsAPIKey() == null)) {
+			return FormValidation.ok();
+		}
+
+		try {
+			if (descriptor.getEnvironmentIndex().hasAccess(descriptor.getOverOpsURL(),
+					Secret.toString(descriptor.getOverOpsAPIKey()), value)) {
+				return FormValidation.ok();
 			}
+
+			return FormValidation.error("API key has no access to environment " + value.trim());
+		} catch (Exception e) {
+			return FormValidation.warning("Unable to verify environment " + value.trim() + ": " + e.getMessage());
 		}
-		
-		return false;
+	}
 
+	static FormValidation checkRegexFilter(String value) {
+		try {
+			EventMatcher.compileFilter(value);
+			return FormValidation.ok();
+		} catch (PatternSyntaxException e) {
+			return FormValidation.error("Invalid regular expression: " + e.getDescription() + " near index " + e.getIndex() +
+				" of " + e.getPattern());
+		}
 	}
-	
+
+	static FormValidation checkCriticalExceptionTypes(String value) {
+		for (String type : EventMatcher.parseTypes(value)) {
+			if (!EXCEPTION_TYPE.matcher(type).matches()) {
+				return FormValidation.warning("\"" + type + "\" does not look like an exception class name");
+			}
+		}
+
+		return FormValidation.ok();
+	}
+
 	/**
 	 * Tests to make sure the global settings for the Jenkins plugin pass checks
 	 * 1st check is the URL for the APIs
@@ -123,14 +505,18 @@ public final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 		// Admin permission check
 		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
 
+		String apiKey = Secret.toString(overOpsAPIKey);
+
 		try {
-			String apiKey = Secret.toString(overOpsAPIKey);
-			RemoteApiClient apiClient = (RemoteApiClient) RemoteApiClient.newBuilder().setHostname(overOpsURL).setApiKey(apiKey).build();
-			
-			Response<String> response = apiClient.testConnection();
-			    
+			Response<String> response;
+
+			// release the client before the environment lookup, which leases one of its own
+			try (ApiClientRegistry.Lease lease = clientRegistry.acquire(overOpsURL, apiKey)) {
+				RemoteApiClient apiClient = (RemoteApiClient) lease.getClient();
+				response = apiClient.testConnection();
+			}
+
 			boolean testConnection = (response == null) || (response.isBadResponse());
-			boolean testService = ((overOpsSID == null) || (hasAccessToService(apiClient, overOpsSID))); 
 			
 			if (testConnection) {
 				int code;
@@ -144,6 +530,8 @@ public final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 				return FormValidation.error("Unable to connect to API server. Code: " + code);
 			}
 			
+			boolean testService = ((overOpsSID == null) || (hasAccessToService(overOpsURL, apiKey, overOpsSID)));
+
 			if (!testService) {
 				return FormValidation.error("API key has no access to environment " + overOpsSID);
 			}	
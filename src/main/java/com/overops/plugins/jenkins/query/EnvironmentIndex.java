@@ -0,0 +1,211 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.takipi.api.client.data.service.SummarizedService;
+import com.takipi.api.client.util.client.ClientUtil;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+//EnvironmentIndex caches the ids of the OverOps environments each API key has access to, so the
+//connection test, the job config form and every build check an environment id with a set lookup
+//instead of listing all environments from OverOps. Entries expire after a TTL and are reloaded in
+//the background while in use; a lookup of an unknown id reloads a stale-enough entry once.
+
+public class EnvironmentIndex {
+	private static final Logger LOGGER = Logger.getLogger(EnvironmentIndex.class.getName());
+
+	static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	// an id missing from the index is looked up again at most this often, it may have been added since
+	static final long MISS_RELOAD_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	// entries not looked up for this long are dropped instead of refreshed
+	static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+	private final ApiClientRegistry clientRegistry;
+	private final long ttlMillis;
+	private final Executor refresher;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+
+	public EnvironmentIndex(ApiClientRegistry clientRegistry, long ttlMillis, Executor refresher) {
+		this.clientRegistry = clientRegistry;
+		this.ttlMillis = ttlMillis;
+		this.refresher = refresher;
+	}
+
+	/**
+	 * Whether the API key has access to the environment. Loads the key's environments on first
+	 * use, and schedules a background reload when they are older than the TTL.
+	 * @throws Exception when the environments could not be listed
+	 */
+	public boolean hasAccess(String apiHost, String apiKey, String serviceId) throws Exception {
+		String id = normalize(serviceId);
+		Entry entry = entries.get(key(apiHost, apiKey));
+		long now = System.currentTimeMillis();
+
+		if (entry == null) {
+			entry = load(apiHost, apiKey);
+		} else if ((!entry.serviceIds.contains(id)) && (now - entry.loadedAt > MISS_RELOAD_MILLIS)) {
+			entry = load(apiHost, apiKey);
+		} else {
+			hits.incrementAndGet();
+
+			if (now - entry.loadedAt > ttlMillis) {
+				refreshAsync(entry);
+			}
+		}
+
+		entry.lastUsed = now;
+
+		return entry.serviceIds.contains(id);
+	}
+
+	// the cached answer only, null when the key's environments are not loaded yet
+	public Boolean getCachedAccess(String apiHost, String apiKey, String serviceId) {
+		Entry entry = entries.get(key(apiHost, apiKey));
+		return entry != null ? entry.serviceIds.contains(normalize(serviceId)) : null;
+	}
+
+	/**
+	 * Reloads stale entries that are still in use and drops idle ones.
+	 */
+	public void refreshStale() {
+		long now = System.currentTimeMillis();
+
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			Entry entry = it.next();
+
+			if (now - entry.lastUsed > IDLE_MILLIS) {
+				it.remove();
+			} else if (now - entry.loadedAt > ttlMillis) {
+				refresh(entry);
+			}
+		}
+	}
+
+	private void refreshAsync(Entry entry) {
+		if (entry.refreshing.compareAndSet(false, true)) {
+			refresher.execute(() -> {
+				try {
+					refresh(entry);
+				} finally {
+					entry.refreshing.set(false);
+				}
+			});
+		}
+	}
+
+	private void refresh(Entry entry) {
+		try {
+			load(entry.apiHost, entry.apiKey);
+		} catch (Exception e) {
+			// keep serving the previous list, the next lookup or refresh tries again
+			LOGGER.log(Level.FINE, "Unable to refresh OverOps environments of " + entry.apiHost, e);
+		}
+	}
+
+	private Entry load(String apiHost, String apiKey) throws Exception {
+		Set<String> serviceIds = new HashSet<>();
+
+		try (ApiClientRegistry.Lease lease = clientRegistry.acquire(apiHost, apiKey)) {
+			List<SummarizedService> services = ClientUtil.getEnvironments(lease.getClient());
+
+			if (services != null) {
+				for (SummarizedService service : services) {
+					serviceIds.add(normalize(service.id));
+				}
+			}
+		}
+
+		loads.incrementAndGet();
+
+		Entry entry = new Entry(apiHost, apiKey, Collections.unmodifiableSet(serviceIds));
+		Entry previous = entries.put(key(apiHost, apiKey), entry);
+
+		if (previous != null) {
+			entry.lastUsed = previous.lastUsed;
+		}
+
+		return entry;
+	}
+
+	public int getSize() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getLoads() {
+		return loads.get();
+	}
+
+	@Override
+	public String toString() {
+		return "keys=" + getSize() + ", hits=" + getHits() + ", loads=" + getLoads();
+	}
+
+	private static String key(String apiHost, String apiKey) {
+		return apiHost + "|" + Util.getDigestOf(apiKey != null ? apiKey : "");
+	}
+
+	private static String normalize(String serviceId) {
+		return serviceId != null ? serviceId.trim().toUpperCase(Locale.ROOT) : "";
+	}
+
+	private static final class Entry {
+		private final String apiHost;
+		private final String apiKey;
+		private final Set<String> serviceIds;
+		private final long loadedAt = System.currentTimeMillis();
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+		private volatile long lastUsed = loadedAt;
+
+		private Entry(String apiHost, String apiKey, Set<String> serviceIds) {
+			this.apiHost = apiHost;
+			this.apiKey = apiKey;
+			this.serviceIds = serviceIds;
+		}
+	}
+
+	@Extension
+	public static class StaleEnvironmentRefresh extends PeriodicWork {
+
+		@Override
+		public long getRecurrencePeriod() {
+			return MIN;
+		}
+
+		@Override
+		protected void doRun() {
+			DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+
+			if (descriptor != null) {
+				descriptor.getEnvironmentIndex().refreshStale();
+			}
+		}
+	}
+}
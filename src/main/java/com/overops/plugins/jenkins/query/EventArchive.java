@@ -0,0 +1,151 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import net.sf.json.util.JSONUtils;
+
+//EventArchive holds every event of each gate of a report, compressed, as the event objects the
+//ReportJson file stores. The event lists of a QualityGateResult keep only the highest volume events
+//in memory, the archive keeps the rest at some tens of bytes per event for the report page to page
+//over. The archives of the pairs of a batched gate are joined without inflating them.
+
+public final class EventArchive implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	static final EventArchive EMPTY = new EventArchive(Collections.emptyMap());
+
+	// compressed, comma separated event objects of each gate, one chunk per report
+	private final Map<String, List<byte[]>> chunks;
+
+	private EventArchive(Map<String, List<byte[]>> chunks) {
+		this.chunks = chunks;
+	}
+
+	public static EventArchive of(Map<String, List<ReportEvent>> events) {
+		Builder builder = new Builder();
+
+		for (Map.Entry<String, List<ReportEvent>> gateEvents : events.entrySet()) {
+			builder.gate(gateEvents.getKey());
+
+			for (ReportEvent event : gateEvents.getValue()) {
+				builder.add(event);
+			}
+		}
+
+		return builder.build();
+	}
+
+	// the events of each gate of all archives, in archive order
+	static EventArchive join(List<EventArchive> archives) {
+		Map<String, List<byte[]>> chunks = new LinkedHashMap<>();
+
+		for (EventArchive archive : archives) {
+			for (Map.Entry<String, List<byte[]>> gateChunks : archive.chunks.entrySet()) {
+				chunks.computeIfAbsent(gateChunks.getKey(), key -> new ArrayList<>()).addAll(gateChunks.getValue());
+			}
+		}
+
+		return new EventArchive(chunks);
+	}
+
+	/**
+	 * Writes the events of the gate as the elements of a JSON array, without the brackets.
+	 */
+	void write(Writer writer, String gate) throws IOException {
+		boolean first = true;
+
+		for (byte[] chunk : chunks.getOrDefault(gate, Collections.emptyList())) {
+			if (!first) {
+				writer.write(',');
+			}
+
+			first = false;
+
+			try (Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(chunk)),
+					StandardCharsets.UTF_8)) {
+				IOUtils.copy(reader, writer);
+			}
+		}
+	}
+
+	static final class Builder {
+		private final Map<String, List<byte[]>> chunks = new LinkedHashMap<>();
+
+		private String gate;
+		private ByteArrayOutputStream bytes;
+		private Writer writer;
+
+		// starts the events of the next gate
+		Builder gate(String name) {
+			finish();
+			gate = name;
+			return this;
+		}
+
+		Builder add(ReportEvent event) {
+			try {
+				if (writer == null) {
+					bytes = new ByteArrayOutputStream();
+					writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8);
+				} else {
+					writer.write(',');
+				}
+
+				writer.write("{\"id\":");
+				writer.write(JSONUtils.quote(event.getId()));
+				writer.write(",\"name\":");
+				writer.write(JSONUtils.quote(event.getName()));
+				writer.write(",\"volume\":");
+				writer.write(String.valueOf(event.getVolume()));
+				writer.write('}');
+			} catch (IOException e) {
+				// written to memory
+				throw new UncheckedIOException(e);
+			}
+
+			return this;
+		}
+
+		EventArchive build() {
+			finish();
+			return new EventArchive(chunks);
+		}
+
+		private void finish() {
+			if (writer == null) {
+				return;
+			}
+
+			try {
+				writer.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			List<byte[]> gateChunks = new ArrayList<>(1);
+			gateChunks.add(bytes.toByteArray());
+			chunks.put(gate, gateChunks);
+
+			writer = null;
+			bytes = null;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+//EventMatcher is the compiled form of a job's regex filter and critical exception types.
+//It is built once per configuration: the filter lines are validated and merged into a single
+//alternation, and the exception types are de-duplicated. Both are handed to report-service,
+//which applies them to the event gates; the plugin matches events itself only in the
+//increasing errors gate, with one regex pass per event however many lines the filter has.
+
+public final class EventMatcher {
+
+	static final EventMatcher NONE = new EventMatcher(null, Collections.emptySet());
+
+	private final Pattern filter;
+	private final Set<String> criticalTypes;
+
+	private EventMatcher(Pattern filter, Set<String> criticalTypes) {
+		this.filter = filter;
+		this.criticalTypes = criticalTypes;
+	}
+
+	/**
+	 * @param regexFilter one pattern per line, an event matching any of them is filtered out
+	 * @param criticalExceptionTypes comma separated exception class names
+	 * @throws PatternSyntaxException if a filter line is not a valid regular expression
+	 */
+	public static EventMatcher compile(String regexFilter, String criticalExceptionTypes) {
+		Pattern filter = compileFilter(regexFilter);
+		Set<String> criticalTypes = parseTypes(criticalExceptionTypes);
+
+		if ((filter == null) && (criticalTypes.isEmpty())) {
+			return NONE;
+		}
+
+		return new EventMatcher(filter, criticalTypes);
+	}
+
+	static Pattern compileFilter(String regexFilter) {
+		List<String> patterns = lines(regexFilter);
+
+		if (patterns.isEmpty()) {
+			return null;
+		}
+
+		if (patterns.size() == 1) {
+			return Pattern.compile(patterns.get(0));
+		}
+
+		StringBuilder alternation = new StringBuilder();
+
+		for (String pattern : patterns) {
+			// compile each line on its own first, so an error points at the line rather than the merged pattern
+			Pattern.compile(pattern);
+
+			if (alternation.length() > 0) {
+				alternation.append('|');
+			}
+
+			alternation.append("(?:").append(pattern).append(')');
+		}
+
+		return Pattern.compile(alternation.toString());
+	}
+
+	static Set<String> parseTypes(String criticalExceptionTypes) {
+		if (criticalExceptionTypes == null) {
+			return Collections.emptySet();
+		}
+
+		Set<String> types = new LinkedHashSet<>();
+
+		for (String type : criticalExceptionTypes.split(",")) {
+			String trimmed = type.trim();
+
+			if (!trimmed.isEmpty()) {
+				types.add(trimmed);
+			}
+		}
+
+		return Collections.unmodifiableSet(types);
+	}
+
+	private static List<String> lines(String value) {
+		List<String> lines = new ArrayList<>();
+
+		if (value == null) {
+			return lines;
+		}
+
+		for (String line : value.split("\\r?\\n")) {
+			if (!line.trim().isEmpty()) {
+				lines.add(line);
+			}
+		}
+
+		return lines;
+	}
+
+	public boolean isFiltered(CharSequence event) {
+		return (filter != null) && (filter.matcher(event).find());
+	}
+
+	// the merged filter handed to report-service, or null for no filter
+	public String getRegexFilter() {
+		return filter != null ? filter.pattern() : null;
+	}
+
+	// the de-duplicated types handed to report-service
+	public String getCriticalExceptionTypes() {
+		return String.join(",", criticalTypes);
+	}
+}
@@ -0,0 +1,365 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//EventSet is the compact form of the events a build's quality report saw: their ids, sorted, and
+//their volumes in parallel arrays of primitives. It is stored in the build directory, and the
+//delta between two builds is a single merge pass over both sets.
+
+public final class EventSet implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	static final String EVENTS_FILE = "overops-events.bin.gz";
+
+	static final EventSet EMPTY = new EventSet(new long[0], new long[0]);
+
+	private static final int VERSION = 1;
+
+	// below this size a range is sorted by insertion
+	private static final int INSERTION_SORT_SIZE = 16;
+
+	private final long[] ids;
+	private final long[] volumes;
+
+	private EventSet(long[] ids, long[] volumes) {
+		this.ids = ids;
+		this.volumes = volumes;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public boolean isEmpty() {
+		return ids.length == 0;
+	}
+
+	public long getId(int index) {
+		return ids[index];
+	}
+
+	public long getVolume(int index) {
+		return volumes[index];
+	}
+
+	// -1 when the set does not have the event
+	public long volumeOf(long id) {
+		int index = Arrays.binarySearch(ids, id);
+		return index >= 0 ? volumes[index] : -1;
+	}
+
+	/**
+	 * The events of either set, with the highest volume seen for each.
+	 */
+	public static EventSet union(List<EventSet> sets) {
+		EventSet union = EMPTY;
+
+		for (EventSet set : sets) {
+			union = union.merge(set);
+		}
+
+		return union;
+	}
+
+	private EventSet merge(EventSet other) {
+		if (other.isEmpty()) {
+			return this;
+		}
+
+		if (isEmpty()) {
+			return other;
+		}
+
+		long[] mergedIds = new long[ids.length + other.ids.length];
+		long[] mergedVolumes = new long[mergedIds.length];
+		int i = 0;
+		int j = 0;
+		int size = 0;
+
+		while ((i < ids.length) || (j < other.ids.length)) {
+			if ((j == other.ids.length) || ((i < ids.length) && (ids[i] < other.ids[j]))) {
+				mergedIds[size] = ids[i];
+				mergedVolumes[size++] = volumes[i++];
+			} else if ((i == ids.length) || (other.ids[j] < ids[i])) {
+				mergedIds[size] = other.ids[j];
+				mergedVolumes[size++] = other.volumes[j++];
+			} else {
+				mergedIds[size] = ids[i];
+				mergedVolumes[size++] = Math.max(volumes[i++], other.volumes[j++]);
+			}
+		}
+
+		return new EventSet(Arrays.copyOf(mergedIds, size), Arrays.copyOf(mergedVolumes, size));
+	}
+
+	/**
+	 * The events added, no longer seen and grown in volume since the previous set.
+	 */
+	public Delta diff(EventSet previous) {
+		Builder added = new Builder(ids.length);
+		Builder removed = new Builder(previous.ids.length);
+		Builder grown = new Builder(ids.length);
+		int i = 0;
+		int j = 0;
+
+		while ((i < ids.length) || (j < previous.ids.length)) {
+			if ((j == previous.ids.length) || ((i < ids.length) && (ids[i] < previous.ids[j]))) {
+				added.add(ids[i], volumes[i++]);
+			} else if ((i == ids.length) || (previous.ids[j] < ids[i])) {
+				removed.add(previous.ids[j], previous.volumes[j++]);
+			} else {
+				if (volumes[i] > previous.volumes[j]) {
+					grown.add(ids[i], volumes[i]);
+				}
+
+				i++;
+				j++;
+			}
+		}
+
+		// the builders are filled in id order, so no sort is needed
+		return new Delta(added.toSortedSet(), removed.toSortedSet(), grown.toSortedSet());
+	}
+
+	/**
+	 * @param reportKey the key of the report the set belongs to, null for a report stored without one
+	 */
+	public static EventSet read(File buildDir, String reportKey) throws IOException {
+		File file = ReportFiles.file(buildDir, EVENTS_FILE, reportKey);
+
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+				Files.newInputStream(file.toPath()))))) {
+			if (in.readInt() != VERSION) {
+				return null;
+			}
+
+			int size = in.readInt();
+			long[] ids = new long[size];
+			long[] volumes = new long[size];
+			long id = 0;
+
+			for (int i = 0; i < size; i++) {
+				id += readVarLong(in);
+				ids[i] = id;
+				volumes[i] = readVarLong(in);
+			}
+
+			return new EventSet(ids, volumes);
+		}
+	}
+
+	// ids are written as gaps from the previous id, so most of them take a byte or two
+	public void write(File buildDir, String reportKey) throws IOException {
+		File file = ReportFiles.file(buildDir, EVENTS_FILE, reportKey);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+				Files.newOutputStream(file.toPath()))))) {
+			out.writeInt(VERSION);
+			out.writeInt(ids.length);
+
+			long previous = 0;
+
+			for (int i = 0; i < ids.length; i++) {
+				writeVarLong(out, ids[i] - previous);
+				writeVarLong(out, volumes[i]);
+				previous = ids[i];
+			}
+		}
+	}
+
+	// unsigned LEB128, ids are positive and sorted so gaps are never negative
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Malformed event set");
+	}
+
+	/**
+	 * Collects events in any order. An event added more than once keeps its highest volume.
+	 */
+	public static final class Builder {
+		private long[] ids;
+		private long[] volumes;
+		private int size;
+
+		public Builder() {
+			this(16);
+		}
+
+		public Builder(int capacity) {
+			ids = new long[Math.max(1, capacity)];
+			volumes = new long[ids.length];
+		}
+
+		public Builder add(long id, long volume) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				volumes = Arrays.copyOf(volumes, size * 2);
+			}
+
+			ids[size] = id;
+			volumes[size++] = Math.max(0, volume);
+
+			return this;
+		}
+
+		public EventSet build() {
+			long[] sortedIds = Arrays.copyOf(ids, size);
+			long[] sortedVolumes = Arrays.copyOf(volumes, size);
+
+			sort(sortedIds, sortedVolumes, 0, size - 1);
+
+			// collapse duplicates in place
+			int unique = 0;
+
+			for (int i = 0; i < size; i++) {
+				if ((unique > 0) && (sortedIds[unique - 1] == sortedIds[i])) {
+					sortedVolumes[unique - 1] = Math.max(sortedVolumes[unique - 1], sortedVolumes[i]);
+				} else {
+					sortedIds[unique] = sortedIds[i];
+					sortedVolumes[unique++] = sortedVolumes[i];
+				}
+			}
+
+			return unique == 0 ? EMPTY : new EventSet(Arrays.copyOf(sortedIds, unique), Arrays.copyOf(sortedVolumes, unique));
+		}
+
+		private EventSet toSortedSet() {
+			return size == 0 ? EMPTY : new EventSet(Arrays.copyOf(ids, size), Arrays.copyOf(volumes, size));
+		}
+	}
+
+	// quicksort of the ids, moving the volumes along, without boxing either
+	static void sort(long[] keys, long[] values, int low, int high) {
+		while (high - low >= INSERTION_SORT_SIZE) {
+			int middle = (low + high) >>> 1;
+
+			// median of three as the pivot
+			if (keys[middle] < keys[low]) {
+				swap(keys, values, middle, low);
+			}
+
+			if (keys[high] < keys[low]) {
+				swap(keys, values, high, low);
+			}
+
+			if (keys[high] < keys[middle]) {
+				swap(keys, values, high, middle);
+			}
+
+			long pivot = keys[middle];
+			int i = low;
+			int j = high;
+
+			while (i <= j) {
+				while (keys[i] < pivot) {
+					i++;
+				}
+
+				while (keys[j] > pivot) {
+					j--;
+				}
+
+				if (i <= j) {
+					swap(keys, values, i++, j--);
+				}
+			}
+
+			// recurse into the smaller half, loop on the larger one
+			if (j - low < high - i) {
+				sort(keys, values, low, j);
+				low = i;
+			} else {
+				sort(keys, values, i, high);
+				high = j;
+			}
+		}
+
+		for (int i = low + 1; i <= high; i++) {
+			long key = keys[i];
+			long value = values[i];
+			int j = i - 1;
+
+			while ((j >= low) && (keys[j] > key)) {
+				keys[j + 1] = keys[j];
+				values[j + 1] = values[j];
+				j--;
+			}
+
+			keys[j + 1] = key;
+			values[j + 1] = value;
+		}
+	}
+
+	private static void swap(long[] keys, long[] values, int i, int j) {
+		long key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+
+		long value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+	/**
+	 * The change in events between two builds, each part sorted by id.
+	 */
+	public static final class Delta implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final EventSet added;
+		private final EventSet removed;
+		private final EventSet grown;
+
+		private Delta(EventSet added, EventSet removed, EventSet grown) {
+			this.added = added;
+			this.removed = removed;
+			this.grown = grown;
+		}
+
+		public EventSet getAdded() {
+			return added;
+		}
+
+		public EventSet getRemoved() {
+			return removed;
+		}
+
+		public EventSet getGrown() {
+			return grown;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.overops.plugins.jenkins.query.QualityGateEvaluator.GateGroup;
+
+//GateCosts keeps the measured cost of each gate group: a moving average of the time its OverOps
+//query took when it was actually run, not answered from the report cache or a checkpoint.
+//Fail-fast evaluation uses it to run the cheapest groups first. A group not measured yet is
+//ordered by a fixed estimate, so the first builds already run the event gates first.
+
+public class GateCosts {
+	// weight of the latest run in the average
+	private static final double WEIGHT = 0.2;
+
+	// estimates before a group is measured: the event gates are one report-service run, the
+	// regression gate reads the volumes of the whole baseline window on its first run
+	private static final long EVENTS_PRIOR_MILLIS = 2000;
+	private static final long REGRESSION_PRIOR_MILLIS = 10000;
+
+	private final Map<GateGroup, Cost> costs = new ConcurrentHashMap<>();
+
+	public void record(GateGroup group, long millis) {
+		costs.computeIfAbsent(group, key -> new Cost()).add(millis);
+	}
+
+	// -1 when the group was not run yet
+	public long getAverageMillis(GateGroup group) {
+		Cost cost = costs.get(group);
+		return cost != null ? cost.getAverageMillis() : -1;
+	}
+
+	/**
+	 * The groups ordered by measured cost, cheapest first. Groups not measured yet are ordered
+	 * by their estimated cost.
+	 */
+	public List<GateGroup> order(List<GateGroup> groups) {
+		List<GateGroup> ordered = new ArrayList<>(groups);
+
+		ordered.sort(Comparator.comparingLong(group -> {
+			long millis = getAverageMillis(group);
+			return millis >= 0 ? millis : priorMillis(group);
+		}));
+
+		return ordered;
+	}
+
+	static long priorMillis(GateGroup group) {
+		return group == GateGroup.EVENTS ? EVENTS_PRIOR_MILLIS : REGRESSION_PRIOR_MILLIS;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		for (GateGroup group : GateGroup.values()) {
+			Cost cost = costs.get(group);
+
+			if (cost == null) {
+				continue;
+			}
+
+			if (result.length() > 0) {
+				result.append(", ");
+			}
+
+			result.append(group.name().toLowerCase()).append(' ').append(cost.getAverageMillis()).append("ms (")
+				.append(cost.getRuns()).append(" runs)");
+		}
+
+		return result.length() > 0 ? result.toString() : "no gates run yet";
+	}
+
+	private static final class Cost {
+		private double averageMillis;
+		private long runs;
+
+		private synchronized void add(long millis) {
+			averageMillis = runs == 0 ? millis : averageMillis + WEIGHT * (millis - averageMillis);
+			runs++;
+		}
+
+		private synchronized long getAverageMillis() {
+			return Math.round(averageMillis);
+		}
+
+		private synchronized long getRuns() {
+			return runs;
+		}
+	}
+}
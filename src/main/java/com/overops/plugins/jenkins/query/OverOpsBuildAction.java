@@ -1,20 +1,92 @@
 package com.overops.plugins.jenkins.query;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
 import com.overops.report.service.model.HtmlParts;
 
-import hudson.model.Action;
 import hudson.model.Run;
+import jenkins.model.RunAction2;
+import jenkins.util.Timer;
+
+//OverOpsBuildAction shows a quality report of a build.
+//Only the report summary is kept in build.xml; the rendered report is written once, compressed,
+//to the build directory under the report's key and streamed back when the report page is rendered. The report CSS is
+//shared by all builds and referenced by its content hash.
+//The report page renders the gate summary and fetches event rows a page at a time from doEvents,
+//so its weight does not grow with the report; the full rendered report has a page of its own.
+
+@ExportedBean
+public class OverOpsBuildAction implements RunAction2 {
+	private static final Logger LOGGER = Logger.getLogger(OverOpsBuildAction.class.getName());
+
+	static final String HTML_FILE = "overops-report.html.gz";
+
+	private transient Run<?, ?> build;
+
+	// event rows of the stored report, read on first use and dropped under memory pressure
+	private transient volatile SoftReference<ReportEventTable> eventTable;
+	private ReportSummary summary;
+	private String cssHash;
+
+	// names the report's files, see ReportFiles; null for reports stored before reports had keys
+	private String reportKey;
 
-public class OverOpsBuildAction implements Action {
-	
-	private final Run<?, ?> build;
-	private final HtmlParts htmlParts;
+	// reports of builds created before the report moved to the build directory, migrated on load
+	private HtmlParts htmlParts;
 
-	OverOpsBuildAction(HtmlParts htmlParts, Run<?, ?> build) {
-		this.htmlParts = htmlParts;
+	OverOpsBuildAction(ReportSummary summary, String cssHash, String reportKey, Run<?, ?> build) {
+		this.summary = summary;
+		this.cssHash = cssHash;
+		this.reportKey = reportKey;
 		this.build = build;
 	}
 
+	/**
+	 * Writes the report to the build directory and attaches its action to the build.
+	 * @param reportKey reserved with ReportFiles.reserveKey
+	 */
+	static OverOpsBuildAction addTo(Run<?, ?> run, String reportKey, QualityGateResult gateResult) throws IOException {
+		HtmlParts htmlParts = gateResult.getHtmlParts();
+
+		writeReport(run.getRootDir(), reportKey, htmlParts.getHtml());
+		ReportJson.write(run.getRootDir(), reportKey, gateResult.getSummary(), gateResult.getEventArchive());
+		String cssHash = ReportStylesheetAction.store(htmlParts.getCss());
+
+		OverOpsBuildAction buildAction = new OverOpsBuildAction(gateResult.getSummary(), cssHash, reportKey, run);
+		run.addAction(buildAction);
+
+		// the trend is informational, never fail the build over it
+		try {
+			TrendIndex.append(run, gateResult.getSummary());
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to add " + run + " to the OverOps trend", e);
+		}
+
+		return buildAction;
+	}
+
 	@Override
 	public String getIconFileName() {
 		return "/plugin/overops-query/images/OverOps.png";
@@ -30,15 +102,206 @@ public class OverOpsBuildAction implements Action {
 		return "OverOpsReport";
 	}
 
+	@Override
+	public void onAttached(Run<?, ?> run) {
+		this.build = run;
+	}
+
+	@Override
+	public void onLoad(Run<?, ?> run) {
+		this.build = run;
+
+		boolean migrated = false;
+
+		// reports stored before reports had a summary, including those already moved to the build directory
+		if (summary == null) {
+			summary = ReportSummary.legacy(run.getResult());
+			migrated = true;
+		}
+
+		if (htmlParts != null) {
+			migrated |= migrate(run);
+		}
+
+		if (!migrated) {
+			return;
+		}
+
+		// saving from within onLoad is not safe, so persist the migrated build.xml afterwards
+		Timer.get().submit(() -> {
+			try {
+				run.save();
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Unable to save migrated OverOps report of " + run, e);
+			}
+		});
+	}
+
+	// move a report stored in build.xml to the build directory, under a key of its own as a build can have several
+	private boolean migrate(Run<?, ?> run) {
+		try {
+			String key = ReportFiles.reserveKey(run.getRootDir(), null);
+
+			writeReport(run.getRootDir(), key, htmlParts.getHtml());
+			cssHash = ReportStylesheetAction.store(htmlParts.getCss());
+			reportKey = key;
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to migrate OverOps report of " + run, e);
+			return false;
+		}
+
+		htmlParts = null;
+
+		return true;
+	}
+
 	public Run<?, ?> getBuild() {
 		return build;
 	}
-	
-	public String getHtml() {
-		return htmlParts.getHtml();
+
+	@Exported(inline = true)
+	public ReportSummary getSummary() {
+		return summary;
+	}
+
+	/**
+	 * Streams the JSON form of the report, including the events of each gate.
+	 * Served compressed as stored when the client accepts gzip.
+	 */
+	public void doReportJson(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		File file = ReportFiles.file(build.getRootDir(), ReportJson.JSON_FILE, reportKey);
+
+		if (!file.isFile()) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		rsp.setContentType("application/json;charset=UTF-8");
+		String acceptEncoding = req.getHeader("Accept-Encoding");
+
+		if ((acceptEncoding != null) && (acceptEncoding.contains("gzip"))) {
+			rsp.setHeader("Content-Encoding", "gzip");
+			Files.copy(file.toPath(), rsp.getOutputStream());
+		} else {
+			try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+				IOUtils.copy(in, rsp.getOutputStream());
+			}
+		}
+	}
+
+	/**
+	 * Serves one page of the report's events as JSON, filtered and sorted by the request parameters
+	 * gate, filter, sort (volume, name, id or gate), order (asc or desc), start and limit.
+	 */
+	public void doEvents(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		ReportEventTable table = getEventTable();
+
+		if (table == null) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		ReportEventTable.Page page = table.query(req.getParameter("gate"), req.getParameter("filter"),
+			req.getParameter("sort"), !"asc".equals(req.getParameter("order")), intParameter(req, "start", 0),
+			intParameter(req, "limit", ReportEventTable.DEFAULT_PAGE_SIZE));
+
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.setHeader("Cache-Control", "no-cache");
+
+		try (Writer writer = new OutputStreamWriter(rsp.getOutputStream(), StandardCharsets.UTF_8)) {
+			page.write(writer);
+		}
+	}
+
+	private static int intParameter(StaplerRequest req, String name, int defaultValue) {
+		String value = req.getParameter(name);
+
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	// reports that link to OverOps or failed to generate have no events to page through
+	public boolean isEventTableAvailable() {
+		return (summary != null) && (!ReportSummary.STATUS_LINK.equals(summary.getStatus())) &&
+			(!ReportSummary.STATUS_ERROR.equals(summary.getStatus())) &&
+			(ReportFiles.file(build.getRootDir(), ReportJson.JSON_FILE, reportKey).isFile());
 	}
-	
+
+	public ReportEventTable getEventTable() {
+		SoftReference<ReportEventTable> reference = eventTable;
+		ReportEventTable table = reference != null ? reference.get() : null;
+
+		if (table != null) {
+			return table;
+		}
+
+		try {
+			table = ReportEventTable.load(build.getRootDir(), reportKey);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to read OverOps events of " + build, e);
+			return null;
+		}
+
+		if (table != null) {
+			eventTable = new SoftReference<>(table);
+		}
+
+		return table;
+	}
+
+	/**
+	 * Streams the rendered report to the page, as it is inflated, without holding it in memory.
+	 */
+	public void writeHtml(Writer writer) throws IOException {
+		if (htmlParts != null) {
+			writer.write(htmlParts.getHtml());
+			return;
+		}
+
+		File file = ReportFiles.file(build.getRootDir(), HTML_FILE, reportKey);
+
+		if (!file.isFile()) {
+			return;
+		}
+
+		try (Reader reader = new InputStreamReader(new GZIPInputStream(Files.newInputStream(file.toPath())),
+				StandardCharsets.UTF_8)) {
+			IOUtils.copy(reader, writer);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to read OverOps report of " + build, e);
+		}
+
+		writer.flush();
+	}
+
+	public String getCssHash() {
+		return cssHash;
+	}
+
+	// inline css of a report that could not be migrated
 	public String getCss() {
-		return htmlParts.getCss();
+		return htmlParts != null ? htmlParts.getCss() : "";
+	}
+
+	public String getCssUrl() {
+		return cssHash != null ? ReportStylesheetAction.URL_NAME + "/" + cssHash + ".css" : null;
+	}
+
+	static void writeReport(File buildDir, String reportKey, String html) throws IOException {
+		writeReportFile(ReportFiles.file(buildDir, HTML_FILE, reportKey), html);
+	}
+
+	private static void writeReportFile(File file, String content) throws IOException {
+		try (OutputStream out = Files.newOutputStream(file.toPath());
+				Writer writer = new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8)) {
+			writer.write(content != null ? content : "");
+		}
 	}
 }
@@ -0,0 +1,91 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+
+import org.kohsuke.stapler.StaplerProxy;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+
+//OverOpsMetricsAction exposes the OverOps API call metrics, the query scheduler's queue and the
+//rate limit budget of each API key as a table and in the Prometheus text format, for scraping.
+//Only administrators can read them.
+
+@Extension
+public class OverOpsMetricsAction implements RootAction, StaplerProxy {
+	static final String URL_NAME = "overops-query-metrics";
+
+	// the metrics name the OverOps hosts and environments in use
+	@Override
+	public Object getTarget() {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		return this;
+	}
+
+	public List<ApiCallMetrics.Histogram> getHistograms() {
+		ApiCallMetrics metrics = getMetrics();
+		return metrics != null ? metrics.getHistograms() : Collections.emptyList();
+	}
+
+	public QueryScheduler getQueryScheduler() {
+		DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+		return descriptor != null ? descriptor.getQueryScheduler() : null;
+	}
+
+	public List<ApiRateLimiter.Bucket> getRateLimits() {
+		DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+		return descriptor != null ? descriptor.getRateLimiter().getBuckets() : Collections.emptyList();
+	}
+
+	public void doPrometheus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		rsp.setContentType("text/plain; version=0.0.4;charset=UTF-8");
+		rsp.setHeader("Cache-Control", "no-cache");
+
+		ApiCallMetrics metrics = getMetrics();
+		PrintWriter out = rsp.getWriter();
+
+		if (metrics != null) {
+			metrics.writePrometheus(out);
+		}
+
+		QueryScheduler scheduler = getQueryScheduler();
+
+		if (scheduler != null) {
+			scheduler.writePrometheus(out);
+		}
+
+		DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+
+		if (descriptor != null) {
+			descriptor.getRateLimiter().writePrometheus(out);
+		}
+
+		out.flush();
+	}
+
+	private static ApiCallMetrics getMetrics() {
+		DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+		return descriptor != null ? descriptor.getApiCallMetrics() : null;
+	}
+
+	@Override
+	public String getIconFileName() {
+		return null;
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "OverOps API Metrics";
+	}
+
+	@Override
+	public String getUrlName() {
+		return URL_NAME;
+	}
+}
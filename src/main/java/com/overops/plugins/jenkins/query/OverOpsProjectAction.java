@@ -0,0 +1,194 @@
+package com.overops.plugins.jenkins.query;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.category.DefaultCategoryDataset;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.Graph;
+import jenkins.model.TransientActionFactory;
+import jenkins.util.Timer;
+
+//OverOpsProjectAction shows the quality gate trend of a job, read from its TrendIndex.
+//Builds that predate the index are added to it once, in the background, and the records of
+//builds deleted before the index was kept in step with them are dropped.
+
+public class OverOpsProjectAction implements Action {
+	private static final Logger LOGGER = Logger.getLogger(OverOpsProjectAction.class.getName());
+
+	static final String BACKFILL_MARKER = "overops-trend.backfilled";
+
+	private static final int TABLE_ROWS = 50;
+	private static final int CHART_BUILDS = 100;
+
+	// jobs with a backfill in progress
+	private static final Set<String> BACKFILLING = ConcurrentHashMap.newKeySet();
+
+	private final Job<?, ?> job;
+
+	OverOpsProjectAction(Job<?, ?> job) {
+		this.job = job;
+	}
+
+	@Override
+	public String getIconFileName() {
+		return "/plugin/overops-query/images/OverOps.png";
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "OverOps Quality Trend";
+	}
+
+	@Override
+	public String getUrlName() {
+		return "OverOpsTrend";
+	}
+
+	public Job<?, ?> getJob() {
+		return job;
+	}
+
+	public boolean isBackfilling() {
+		return BACKFILLING.contains(job.getFullName());
+	}
+
+	public List<TrendIndex.Record> getRecords() {
+		scheduleBackfill();
+		return TrendIndex.newestFirst(readIndex(), TABLE_ROWS);
+	}
+
+	private SortedMap<Integer, TrendIndex.Record> readIndex() {
+		try {
+			return TrendIndex.read(job);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to read OverOps trend of " + job, e);
+			return new TreeMap<>();
+		}
+	}
+
+	public void doTrend(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		SortedMap<Integer, TrendIndex.Record> records = readIndex();
+		List<TrendIndex.Record> recent = TrendIndex.newestFirst(records, CHART_BUILDS);
+		Collections.reverse(recent);
+
+		long timestamp = records.isEmpty() ? 0 : records.get(records.lastKey()).getTimestamp();
+
+		new Graph(timestamp, 500, 200) {
+			@Override
+			protected JFreeChart createGraph() {
+				DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+
+				for (TrendIndex.Record record : recent) {
+					String build = "#" + record.getBuildNumber();
+					dataset.addValue(record.getNewErrors(), "New", build);
+					dataset.addValue(record.getResurfacedErrors(), "Resurfaced", build);
+					dataset.addValue(record.getCriticalErrors(), "Critical", build);
+					dataset.addValue(record.getRegressionErrors(), "Increasing", build);
+				}
+
+				JFreeChart chart = ChartFactory.createLineChart(null, null, "Errors", dataset,
+					PlotOrientation.VERTICAL, true, true, false);
+				chart.setBackgroundPaint(Color.WHITE);
+
+				CategoryPlot plot = chart.getCategoryPlot();
+				plot.setBackgroundPaint(Color.WHITE);
+				plot.setRangeGridlinePaint(Color.LIGHT_GRAY);
+
+				return chart;
+			}
+		}.doPng(req, rsp);
+	}
+
+	// add builds that finished before the index existed, once per job
+	private void scheduleBackfill() {
+		File marker = new File(job.getRootDir(), BACKFILL_MARKER);
+
+		if ((marker.exists()) || (!BACKFILLING.add(job.getFullName()))) {
+			return;
+		}
+
+		Timer.get().submit(() -> {
+			try {
+				backfill();
+				marker.createNewFile();
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Unable to backfill OverOps trend of " + job, e);
+			} finally {
+				BACKFILLING.remove(job.getFullName());
+			}
+		});
+	}
+
+	void backfill() throws IOException {
+		Set<Integer> indexed = readIndex().keySet();
+		Set<Integer> existing = new HashSet<>();
+
+		for (Run<?, ?> run : job.getBuilds()) {
+			existing.add(run.getNumber());
+
+			if (indexed.contains(run.getNumber())) {
+				continue;
+			}
+
+			OverOpsBuildAction buildAction = run.getAction(OverOpsBuildAction.class);
+
+			if ((buildAction != null) && (buildAction.getSummary() != null)) {
+				TrendIndex.append(run, buildAction.getSummary());
+			}
+		}
+
+		// builds that finished while backfilling are not in the list but must stay
+		int newest = existing.stream().mapToInt(Integer::intValue).max().orElse(0);
+		TrendIndex.retain(job, number -> (existing.contains(number)) || (number > newest));
+	}
+
+	@Extension
+	public static class Factory extends TransientActionFactory<Job> {
+
+		@Override
+		public Class<Job> type() {
+			return Job.class;
+		}
+
+		@Nonnull
+		@Override
+		public Collection<? extends Action> createFor(@Nonnull Job target) {
+			if (TrendIndex.exists(target)) {
+				return Collections.singleton(new OverOpsProjectAction(target));
+			}
+
+			// jobs with reports from before the index existed, their trend is backfilled on first view
+			Run<?, ?> lastBuild = target.getLastCompletedBuild();
+
+			if ((lastBuild != null) && (lastBuild.getAction(OverOpsBuildAction.class) != null)) {
+				return Collections.singleton(new OverOpsProjectAction(target));
+			}
+
+			return Collections.emptySet();
+		}
+	}
+}
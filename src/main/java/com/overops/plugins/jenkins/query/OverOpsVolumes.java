@@ -0,0 +1,103 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.data.event.EventResult;
+import com.takipi.api.client.data.view.SummarizedView;
+import com.takipi.api.client.request.event.EventsVolumeRequest;
+import com.takipi.api.client.result.event.EventsVolumeResult;
+import com.takipi.api.client.util.validation.ValidationUtil.VolumeType;
+import com.takipi.api.client.util.view.ViewUtil;
+import com.takipi.api.core.url.UrlClient.Response;
+
+//OverOpsVolumes fetches the hits and invocations of each event of an application from the
+//OverOps API, as slices of the regression baseline. The volumes can be limited to a deployment.
+
+final class OverOpsVolumes implements RegressionBaseline.SliceSource {
+	private static final String ALL_EVENTS_VIEW = "All Events";
+
+	private static final DateTimeFormatter ISO_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+		.withZone(ZoneOffset.UTC);
+
+	private final ApiClient client;
+	private final String serviceId;
+	private final String applicationName;
+	private final String deploymentName;
+
+	private String viewId;
+
+	OverOpsVolumes(ApiClient client, String serviceId, String applicationName) {
+		this(client, serviceId, applicationName, null);
+	}
+
+	/**
+	 * @param applicationName null for all applications
+	 * @param deploymentName null for all deployments
+	 */
+	OverOpsVolumes(ApiClient client, String serviceId, String applicationName, String deploymentName) {
+		this.client = client;
+		this.serviceId = serviceId;
+		this.applicationName = applicationName;
+		this.deploymentName = deploymentName;
+	}
+
+	@Override
+	public Map<String, RegressionBaseline.EventVolume> fetch(long from, long to) throws IOException {
+		EventsVolumeRequest.Builder builder = EventsVolumeRequest.newBuilder()
+			.setServiceId(serviceId)
+			.setViewId(getViewId())
+			.setFrom(ISO_TIME.format(Instant.ofEpochMilli(from)))
+			.setTo(ISO_TIME.format(Instant.ofEpochMilli(to)))
+			.setVolumeType(VolumeType.all);
+
+		if ((applicationName != null) && (!applicationName.isEmpty())) {
+			builder.addApp(applicationName);
+		}
+
+		if ((deploymentName != null) && (!deploymentName.isEmpty())) {
+			builder.addDeployment(deploymentName);
+		}
+
+		Response<EventsVolumeResult> response = client.get(builder.build());
+
+		if ((response == null) || (response.isBadResponse()) || (response.data == null)) {
+			throw new IOException("Unable to fetch event volumes from OverOps. Code: " +
+				(response != null ? response.responseCode : -1));
+		}
+
+		Map<String, RegressionBaseline.EventVolume> volumes = new HashMap<>();
+
+		if (response.data.events == null) {
+			return volumes;
+		}
+
+		for (EventResult event : response.data.events) {
+			if (event.stats != null) {
+				volumes.put(event.id, new RegressionBaseline.EventVolume(event.summary, event.type, event.stats.hits,
+					event.stats.invocations));
+			}
+		}
+
+		return volumes;
+	}
+
+	private String getViewId() throws IOException {
+		if (viewId == null) {
+			SummarizedView view = ViewUtil.getServiceViewByName(client, serviceId, ALL_EVENTS_VIEW);
+
+			if (view == null) {
+				throw new IOException("OverOps view \"" + ALL_EVENTS_VIEW + "\" not found in " + serviceId);
+			}
+
+			viewId = view.id;
+		}
+
+		return viewId;
+	}
+}
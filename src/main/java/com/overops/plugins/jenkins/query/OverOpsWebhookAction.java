@@ -0,0 +1,181 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Locale;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.verb.POST;
+
+import hudson.Extension;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.csrf.CrumbExclusion;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+//OverOpsWebhookAction receives notifications that OverOps has data for a deployment, or new events
+//in an environment, and hands them to the ReadinessNotifier so waiting builds go on at once.
+//It is reachable without a Jenkins login, and instead authenticated by the Readiness Webhook Token
+//of the global configuration; without a token it does not exist.
+
+@Extension
+public class OverOpsWebhookAction implements UnprotectedRootAction {
+	static final String URL_NAME = "overops-query-webhook";
+	static final String TOKEN_HEADER = "X-OverOps-Token";
+
+	/**
+	 * Accepts a JSON body such as {"serviceId": "S12345", "deploymentName": "v1.2"}, with
+	 * "deployments" listing several deployments, or no deployment for new events anywhere in the
+	 * environment. Form parameters of the same names work as well.
+	 */
+	@POST
+	public void doNotify(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+		ReadinessNotifier notifier = descriptor != null ? descriptor.getReadinessNotifier() : null;
+
+		if (notifier == null) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		JSONObject payload;
+
+		try {
+			payload = payload(req);
+		} catch (JSONException e) {
+			rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON");
+			return;
+		}
+
+		Response response = notify(notifier, descriptor.webhookToken(), token(req), payload);
+
+		rsp.setStatus(response.status);
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.getWriter().write(response.body);
+	}
+
+	private static JSONObject payload(StaplerRequest req) throws IOException {
+		String contentType = req.getContentType();
+
+		if ((contentType != null) && (contentType.startsWith("application/json"))) {
+			return JSONObject.fromObject(IOUtils.toString(req.getReader()));
+		}
+
+		JSONObject payload = new JSONObject();
+		payload.element("serviceId", req.getParameter("serviceId"));
+		payload.element("deploymentName", req.getParameter("deploymentName"));
+
+		String[] deployments = req.getParameterValues("deployments");
+
+		if (deployments != null) {
+			payload.element("deployments", JSONArray.fromObject(deployments));
+		}
+
+		return payload;
+	}
+
+	// the token header, or a bearer token
+	static String token(HttpServletRequest req) {
+		String token = req.getHeader(TOKEN_HEADER);
+
+		if (token != null) {
+			return token;
+		}
+
+		String authorization = req.getHeader("Authorization");
+
+		if ((authorization != null) && (authorization.regionMatches(true, 0, "Bearer ", 0, 7))) {
+			return authorization.substring(7).trim();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Authenticates and applies a notification.
+	 * @param expectedToken the configured token
+	 * @param token the token the caller sent, may be null
+	 */
+	static Response notify(ReadinessNotifier notifier, String expectedToken, String token, JSONObject payload) {
+		if ((token == null) || (expectedToken == null) || (expectedToken.isEmpty()) ||
+				(!MessageDigest.isEqual(expectedToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8)))) {
+			return new Response(HttpServletResponse.SC_UNAUTHORIZED, "{\"error\":\"invalid token\"}");
+		}
+
+		// builds wait for the upper-cased environment id, see QueryOverOps
+		String serviceId = payload.optString("serviceId", "").trim().toUpperCase(Locale.ROOT);
+
+		if (serviceId.isEmpty()) {
+			return new Response(HttpServletResponse.SC_BAD_REQUEST, "{\"error\":\"missing serviceId\"}");
+		}
+
+		int woken = 0;
+		JSONArray deployments = payload.optJSONArray("deployments");
+		String deploymentName = payload.optString("deploymentName", "").trim();
+
+		if (deployments != null) {
+			for (int i = 0; i < deployments.size(); i++) {
+				woken += notifier.notifyReady(serviceId, deployments.getString(i).trim());
+			}
+		}
+
+		if ((!deploymentName.isEmpty()) || (deployments == null)) {
+			woken += notifier.notifyReady(serviceId, deploymentName);
+		}
+
+		return new Response(HttpServletResponse.SC_ACCEPTED, "{\"woken\":" + woken + "}");
+	}
+
+	@Override
+	public String getIconFileName() {
+		return null;
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "OverOps Readiness Webhook";
+	}
+
+	@Override
+	public String getUrlName() {
+		return URL_NAME;
+	}
+
+	static final class Response {
+		final int status;
+		final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	// the notifier authenticates with its token and cannot send a crumb
+	@Extension
+	public static class CrumbExclusionImpl extends CrumbExclusion {
+
+		@Override
+		public boolean process(HttpServletRequest req, HttpServletResponse rsp, FilterChain chain)
+				throws IOException, ServletException {
+			String pathInfo = req.getPathInfo();
+
+			if ((pathInfo != null) && (pathInfo.startsWith("/" + URL_NAME + "/"))) {
+				chain.doFilter(req, rsp);
+				return true;
+			}
+
+			return false;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.io.IOException;
+
+import hudson.model.TaskListener;
+import jenkins.security.MasterToSlaveCallable;
+
+//QualityGateCallable runs a quality gate on the build agent: the readiness wait, the OverOps
+//queries and the report rendering. Only the request, the settings and the API key are sent to the
+//agent, and only the QualityGateResult (the rendered report and its summary) comes back.
+
+public class QualityGateCallable extends MasterToSlaveCallable<QualityGateResult, IOException> {
+	private static final long serialVersionUID = 1L;
+
+	private final QualityGateRequest request;
+	private final AgentQueryContext.Settings settings;
+	private final String apiKey;
+	private final String agentRoot;
+	private final TaskListener listener;
+
+	/**
+	 * @param agentRoot the agent's root directory, regression baselines are kept below it
+	 */
+	public QualityGateCallable(QualityGateRequest request, AgentQueryContext.Settings settings, String apiKey,
+			String agentRoot, TaskListener listener) {
+		this.request = request;
+		this.settings = settings;
+		this.apiKey = apiKey;
+		this.agentRoot = agentRoot;
+		this.listener = listener;
+	}
+
+	@Override
+	public QualityGateResult call() throws IOException {
+		try (AgentQueryContext context = AgentQueryContext.acquire(settings,
+				new File(agentRoot, RegressionBaseline.BASELINE_DIR), apiKey)) {
+			listener.getLogger().println("Running OverOps quality gate on the agent");
+
+			// the build directory is on the controller, so the run is not checkpointed
+			return new QualityGateRunner(context).run(request, listener.getLogger());
+		}
+	}
+}
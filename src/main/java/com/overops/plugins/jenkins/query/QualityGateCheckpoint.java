@@ -0,0 +1,169 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.overops.report.service.model.QualityReport;
+
+import hudson.Util;
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+//QualityGateCheckpoint records the completed stages of a quality gate step in the build directory:
+//the deployments OverOps has data for, and the report of each gate group in a file of its own, so
+//recording a stage never rewrites the reports of the others. A step resumed after a controller
+//restart continues from the last completed stage instead of repeating its OverOps queries.
+//The checkpoint belongs to one step of the build and is removed once the step completes; each pair
+//of a batched step records its reports in a checkpoint of its own within the step's.
+
+public class QualityGateCheckpoint {
+	private static final Logger LOGGER = Logger.getLogger(QualityGateCheckpoint.class.getName());
+
+	static final String FILE_PREFIX = "overops-checkpoint-";
+
+	// a checkpoint that keeps nothing, for runs without a build directory
+	static final QualityGateCheckpoint NONE = new QualityGateCheckpoint(null, null);
+
+	private final File buildDir;
+	private final String name;
+	private final Stages stages;
+
+	// reports read or recorded so far, by stage key
+	private final Map<String, QualityReport> reports = new HashMap<>();
+
+	private QualityGateCheckpoint(File buildDir, String name) {
+		this.buildDir = buildDir;
+		this.name = name;
+		this.stages = load(stagesFile());
+	}
+
+	/**
+	 * The checkpoint of a step in a build. Keyed by the step as well as the request, so parallel
+	 * steps, or a later step with the same settings, do not share it.
+	 * @param stepId identifies the step within the build, and stays the same when it is resumed
+	 */
+	public static QualityGateCheckpoint forStep(File buildDir, String stepId, QualityGateRequest request) {
+		StringBuilder fingerprint = new StringBuilder(stepId).append('\n');
+
+		for (QualityGateRequest target : request.split()) {
+			fingerprint.append(QualityGateEvaluator.stageKey(QualityGateEvaluator.GateGroup.EVENTS, "", target)).append('\n');
+		}
+
+		return new QualityGateCheckpoint(buildDir, FILE_PREFIX + Util.getDigestOf(fingerprint.toString()));
+	}
+
+	/**
+	 * The checkpoint of one application/deployment pair of a batched step, in files of its own.
+	 * Its files are named after the step's, so deleting the step's checkpoint removes them too.
+	 */
+	public QualityGateCheckpoint forTarget(QualityGateRequest target) {
+		if (name == null) {
+			return NONE;
+		}
+
+		return new QualityGateCheckpoint(buildDir, name + "-" +
+			Util.getDigestOf(QualityGateEvaluator.stageKey(QualityGateEvaluator.GateGroup.EVENTS, "", target)));
+	}
+
+	private XmlFile stagesFile() {
+		return name != null ? new XmlFile(Jenkins.XSTREAM2, new File(buildDir, name + ".xml")) : null;
+	}
+
+	private XmlFile reportFile(String stageKey) {
+		return new XmlFile(Jenkins.XSTREAM2, new File(buildDir, name + "-" + Util.getDigestOf(stageKey) + ".xml"));
+	}
+
+	private static Stages load(XmlFile file) {
+		Object stages = read(file);
+		return stages instanceof Stages ? (Stages) stages : new Stages();
+	}
+
+	// an unreadable checkpoint only costs the queries it recorded
+	private static Object read(XmlFile file) {
+		if ((file != null) && (file.exists())) {
+			try {
+				return file.read();
+			} catch (IOException | RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Unable to read OverOps checkpoint " + file, e);
+			}
+		}
+
+		return null;
+	}
+
+	public synchronized boolean isReady(String serviceId, String deploymentName) {
+		return stages.readyDeployments.contains(serviceId + "|" + deploymentName);
+	}
+
+	public synchronized void markReady(String serviceId, String deploymentName) {
+		if (stages.readyDeployments.add(serviceId + "|" + deploymentName)) {
+			write(stagesFile(), stages);
+		}
+	}
+
+	public synchronized QualityReport getReport(String stageKey) {
+		if (name == null) {
+			return null;
+		}
+
+		QualityReport report = reports.get(stageKey);
+
+		if (report == null) {
+			Object stored = read(reportFile(stageKey));
+
+			if (stored instanceof QualityReport) {
+				report = (QualityReport) stored;
+				reports.put(stageKey, report);
+			}
+		}
+
+		return report;
+	}
+
+	// only reports that were generated are recorded, failed stages are run again
+	public synchronized void putReport(String stageKey, QualityReport report) {
+		if ((name != null) && (report != null) && (report.getExceptionDetails() == null)) {
+			reports.put(stageKey, report);
+			write(reportFile(stageKey), report);
+		}
+	}
+
+	public synchronized void delete() {
+		if (name != null) {
+			File[] files = buildDir.listFiles((dir, fileName) -> (fileName.equals(name + ".xml")) ||
+				(fileName.startsWith(name + "-")));
+
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+		}
+
+		stages.readyDeployments.clear();
+		reports.clear();
+	}
+
+	// write-ahead: each completed stage is on disk before the next one starts
+	private static void write(XmlFile file, Object stage) {
+		if (file == null) {
+			return;
+		}
+
+		try {
+			file.write(stage);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to write OverOps checkpoint " + file, e);
+		}
+	}
+
+	private static final class Stages {
+		private final Set<String> readyDeployments = new HashSet<>();
+	}
+}
@@ -0,0 +1,49 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+
+//QualityGateContext is what QualityGateRunner needs to run a gate: the OverOps connection settings
+//and the shared clients, caches and pools. DescriptorImpl provides them on the controller and
+//AgentQueryContext when the query runs on the build agent.
+
+public interface QualityGateContext {
+
+	String getOverOpsURL();
+
+	String getOverOpsAppURL();
+
+	// not a getter, so the key is not reachable through the descriptor's URL space
+	String apiKey();
+
+	int getGateWorkerThreads();
+
+	// seconds
+	int getReadinessTimeout();
+
+	ExecutorService getGatePool();
+
+	// the application/deployment pairs of batched requests run here, see QualityGateRunner.newBatchPool
+	ExecutorService getBatchPool();
+
+	ReportCache getReportCache();
+
+	ApiClientRegistry getClientRegistry();
+
+	ApiCallMetrics getApiCallMetrics();
+
+	RetryPolicy getRetryPolicy();
+
+	// measured cost of each gate group, for fail-fast ordering
+	GateCosts getGateCosts();
+
+	// wakes builds waiting for a deployment on a webhook notification, null when builds only poll
+	ReadinessNotifier getReadinessNotifier();
+
+	QueryScheduler getQueryScheduler();
+
+	EnvironmentIndex getEnvironmentIndex();
+
+	// where the increasing errors gate keeps its RegressionBaseline files
+	File getBaselineDir();
+}
@@ -0,0 +1,348 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.overops.report.service.QualityReportParams;
+import com.overops.report.service.ReportService;
+import com.overops.report.service.ReportService.Requestor;
+import com.overops.report.service.model.QualityReport;
+import com.overops.report.service.model.QualityReport.ReportStatus;
+
+import hudson.Util;
+
+//QualityGateEvaluator splits the enabled gates into groups that need independent OverOps data
+//and evaluates the groups concurrently. The event gates (new, resurfaced, volume, unique,
+//critical) share a single event snapshot inside one report run; the regression gate is
+//evaluated by the plugin against a stored RegressionBaseline, beside the event run.
+//In fail-fast mode the groups run one at a time, cheapest first by their GateCosts, and the
+//groups left once one fails the build are skipped.
+
+public class QualityGateEvaluator {
+
+	// OverOps API requests one report-service run is charged against the key's rate limit
+	static final int REPORT_REQUEST_COST = Integer.getInteger(QualityGateEvaluator.class.getName() + ".reportRequestCost", 5);
+
+	enum GateGroup {
+		EVENTS("new, resurfaced, volume, unique, critical"),
+		REGRESSION("regression");
+
+		private final String gates;
+
+		GateGroup(String gates) {
+			this.gates = gates;
+		}
+
+		// only keep this group's gates enabled
+		QualityReportParams restrict(QualityReportParams params) {
+			if (this == EVENTS) {
+				params.setActiveTimespan("0");
+				params.setBaselineTimespan("0");
+			} else {
+				params.setNewEvents(false);
+				params.setResurfacedErrors(false);
+				params.setMaxErrorVolume(0);
+				params.setMaxUniqueErrors(0);
+				params.setCriticalExceptionTypes("");
+			}
+
+			return params;
+		}
+	}
+
+	private final ExecutorService pool;
+	private final ReportCache reportCache;
+	private final ApiClientRegistry clientRegistry;
+	private final ApiCallMetrics metrics;
+	private final RetryPolicy retryPolicy;
+	private final QualityGateCheckpoint checkpoint;
+	private final File baselineDir;
+	private final GateCosts gateCosts;
+	private final ReportService reportService;
+
+	// wall-clock time of each evaluated group
+	private final Map<GateGroup, Long> timings = new ConcurrentHashMap<>();
+
+	// groups not evaluated because an earlier group decided the build
+	private final List<GateGroup> skipped = new ArrayList<>();
+
+	public QualityGateEvaluator(ExecutorService pool, ReportCache reportCache, ApiClientRegistry clientRegistry,
+			ApiCallMetrics metrics) {
+		this(pool, reportCache, clientRegistry, metrics, RetryPolicy.NONE, QualityGateCheckpoint.NONE, null, new GateCosts());
+	}
+
+	/**
+	 * @param baselineDir the directory of the regression baselines, null for the controller's
+	 * @param gateCosts the measured cost of each group, updated with the groups this evaluator runs
+	 */
+	public QualityGateEvaluator(ExecutorService pool, ReportCache reportCache, ApiClientRegistry clientRegistry,
+			ApiCallMetrics metrics, RetryPolicy retryPolicy, QualityGateCheckpoint checkpoint, File baselineDir,
+			GateCosts gateCosts) {
+		this.pool = pool;
+		this.reportCache = reportCache;
+		this.clientRegistry = clientRegistry;
+		this.metrics = metrics;
+		this.retryPolicy = retryPolicy;
+		this.checkpoint = checkpoint;
+		this.baselineDir = baselineDir;
+		this.gateCosts = gateCosts;
+		this.reportService = new ReportService();
+	}
+
+	/**
+	 * Evaluates every enabled gate group and merges the results into one report.
+	 * @param apiHost
+	 * @param apiKey
+	 * @param request
+	 * @param printStream debug output, may be null
+	 * @param console the build log, per-group timings are written here
+	 */
+	public QualityReport evaluate(String apiHost, String apiKey, QualityGateRequest request,
+			PrintStream printStream, PrintStream console) throws Exception {
+
+		List<GateGroup> groups = enabledGroups(request);
+
+		if (groups.size() == 1) {
+			return evaluate(groups.get(0), apiHost, apiKey, request, printStream, console);
+		}
+
+		// only a build marked unstable has its outcome decided by the first failed gate
+		if ((request.getFailFast()) && (request.getMarkUnstable())) {
+			return evaluateFailFast(groups, apiHost, apiKey, request, printStream, console);
+		}
+
+		CompletionService<GroupResult> completion = new ExecutorCompletionService<>(pool);
+		List<Future<GroupResult>> futures = new ArrayList<>();
+
+		for (GateGroup group : groups) {
+			futures.add(completion.submit(() ->
+				new GroupResult(group, evaluate(group, apiHost, apiKey, request, printStream, console))));
+		}
+
+		QualityReport eventsReport = null;
+		QualityReport regressionReport = null;
+
+		try {
+			for (int i = 0; i < groups.size(); i++) {
+				GroupResult result = completion.take().get();
+
+				if (result.group == GateGroup.EVENTS) {
+					eventsReport = result.report;
+				} else {
+					regressionReport = result.report;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw (cause instanceof Exception) ? (Exception) cause : e;
+		} finally {
+			for (Future<GroupResult> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		return QualityReports.mergeRegression(eventsReport, regressionReport);
+	}
+
+	private QualityReport evaluateFailFast(List<GateGroup> groups, String apiHost, String apiKey, QualityGateRequest request,
+			PrintStream printStream, PrintStream console) throws Exception {
+		List<GateGroup> ordered = gateCosts.order(groups);
+		QualityReport eventsReport = null;
+		QualityReport regressionReport = null;
+
+		for (int i = 0; i < ordered.size(); i++) {
+			GateGroup group = ordered.get(i);
+			QualityReport report = evaluate(group, apiHost, apiKey, request, printStream, console);
+
+			if (group == GateGroup.EVENTS) {
+				eventsReport = report;
+			} else {
+				regressionReport = report;
+			}
+
+			if ((i < ordered.size() - 1) && (isDecided(report))) {
+				List<GateGroup> rest = ordered.subList(i + 1, ordered.size());
+
+				skipped.addAll(rest);
+
+				for (GateGroup skippedGroup : rest) {
+					console.println("OverOps gates [" + skippedGroup.gates + "] skipped, gates [" + group.gates +
+						"] already failed the build");
+				}
+
+				break;
+			}
+		}
+
+		return QualityReports.mergeRegression(eventsReport, regressionReport);
+	}
+
+	// a failed gate or a report that could not be generated sets the build result whatever the other groups find
+	private static boolean isDecided(QualityReport report) {
+		return (report == null) || (report.getExceptionDetails() != null) || (report.getStatusCode() == ReportStatus.FAILED);
+	}
+
+	private QualityReport evaluate(GateGroup group, String apiHost, String apiKey, QualityGateRequest request,
+			PrintStream printStream, PrintStream console) throws Exception {
+
+		long start = System.nanoTime();
+		String stageKey = stageKey(group, apiHost, request);
+		QualityReport report = checkpoint.getReport(stageKey);
+
+		if (report != null) {
+			timings.put(group, 0L);
+			console.println("OverOps gates [" + group.gates + "] resumed from checkpoint");
+
+			return report;
+		}
+
+		QualityReportParams params = group.restrict(request.toQualityReportParams());
+		report = retryPolicy.call(() -> reportCache.get(cacheKey(group, apiHost, apiKey, request), () ->
+			runQualityReport(group, apiHost, apiKey, request, params, printStream, console)), "gates [" + group.gates + "]", console);
+
+		checkpoint.putReport(stageKey, report);
+
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		timings.put(group, millis);
+
+		console.println("OverOps gates [" + group.gates + "] evaluated in " + millis + "ms");
+
+		return report;
+	}
+
+	// report-service uses its own api client, so time its calls as a whole
+	private QualityReport runQualityReport(GateGroup group, String apiHost, String apiKey, QualityGateRequest request,
+			QualityReportParams params, PrintStream printStream, PrintStream console) throws Exception {
+		long start = System.nanoTime();
+		boolean error = true;
+
+		try {
+			QualityReport report;
+
+			if (group == GateGroup.REGRESSION) {
+				report = evaluateRegression(apiHost, apiKey, request, console);
+			} else {
+				report = runReportService(apiHost, apiKey, params, printStream, request.getDebug());
+			}
+
+			error = (report == null) || (report.getExceptionDetails() != null);
+
+			return report;
+		} finally {
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			metrics.record("REPORT", "/quality-report/" + group.name().toLowerCase(), millis, error, 0, 0);
+
+			// failures return early, their time says nothing about the group's cost
+			if (!error) {
+				gateCosts.record(group, millis);
+			}
+		}
+	}
+
+	// report-service requests bypass the registry, so pace them on the key's bucket at an estimated cost
+	private QualityReport runReportService(String apiHost, String apiKey, QualityReportParams params,
+			PrintStream printStream, boolean debug) throws Exception {
+		ApiRateLimiter.Bucket rateLimit = clientRegistry.getRateLimiter().bucket(apiHost, apiKey);
+		rateLimit.acquire(REPORT_REQUEST_COST);
+		rateLimit.record(REPORT_REQUEST_COST);
+
+		try {
+			QualityReport report = reportService.runQualityReport(apiHost, apiKey, params, Requestor.JENKINS,
+				printStream, debug);
+
+			if ((report != null) && (report.getExceptionDetails() != null) &&
+					(ApiRateLimiter.isRateLimited(report.getExceptionDetails().getExceptionMessage()))) {
+				rateLimit.onResponse(429);
+			}
+
+			return report;
+		} catch (RuntimeException e) {
+			if (ApiRateLimiter.isRateLimited(e.getMessage())) {
+				rateLimit.onResponse(429);
+			}
+
+			throw e;
+		}
+	}
+
+	private QualityReport evaluateRegression(String apiHost, String apiKey, QualityGateRequest request,
+			PrintStream console) throws Exception {
+		File baselineFile = RegressionBaseline.getFile(baselineDir != null ? baselineDir : RegressionBaseline.getDefaultDir(),
+			apiHost, request.getServiceId(), request.getApplicationName());
+
+		try (ApiClientRegistry.Lease lease = clientRegistry.acquire(apiHost, apiKey)) {
+			OverOpsVolumes volumes = new OverOpsVolumes(lease.getClient(), request.getServiceId(),
+				request.getApplicationName());
+
+			return new RegressionGate(request).evaluate(baselineFile, volumes, System.currentTimeMillis(), console);
+		}
+	}
+
+	public Map<GateGroup, Long> getTimings() {
+		return timings;
+	}
+
+	public List<GateGroup> getSkipped() {
+		return Collections.unmodifiableList(skipped);
+	}
+
+	// every expanded setting that changes what a group's report contains
+	static String cacheKey(GateGroup group, String apiHost, String apiKey, QualityGateRequest request) {
+		return stageKey(group, apiHost, request) + "|" + Util.getDigestOf(apiKey);
+	}
+
+	// the cache key without the api key digest, as kept in the build directory
+	static String stageKey(GateGroup group, String apiHost, QualityGateRequest request) {
+		return group + "|" + apiHost + "|" + request.getServiceId() + "|" +
+			request.getApplicationName() + "|" + request.getDeploymentName() + "|" + request.getRegexFilter() + "|" +
+			request.getMarkUnstable() + "|" + request.getPrintTopIssues() + "|" + request.getNewEvents() + "|" +
+			request.getResurfacedErrors() + "|" + request.getMaxErrorVolume() + "|" + request.getMaxUniqueErrors() + "|" +
+			request.getCriticalExceptionTypes() + "|" + request.getActiveTimespan() + "|" + request.getBaselineTimespan() + "|" +
+			request.getMinVolumeThreshold() + "|" + request.getMinErrorRateThreshold() + "|" + request.getRegressionDelta() + "|" +
+			request.getCriticalRegressionDelta() + "|" + request.getApplySeasonality();
+	}
+
+	static List<GateGroup> enabledGroups(QualityGateRequest request) {
+		List<GateGroup> groups = new ArrayList<>();
+
+		boolean regression = isSet(request.getActiveTimespan()) && isSet(request.getBaselineTimespan());
+		boolean events = request.getNewEvents() || request.getResurfacedErrors() || request.getMaxErrorVolume() > 0 ||
+			request.getMaxUniqueErrors() > 0 || isSet(request.getCriticalExceptionTypes());
+
+		// the event run also produces the top issues, so it always runs unless regression is the only gate
+		if (events || !regression) {
+			groups.add(GateGroup.EVENTS);
+		}
+
+		if (regression) {
+			groups.add(GateGroup.REGRESSION);
+		}
+
+		return groups;
+	}
+
+	static boolean isSet(String value) {
+		return (value != null) && (!value.isEmpty()) && (!"0".equals(value));
+	}
+
+	private static final class GroupResult {
+		private final GateGroup group;
+		private final QualityReport report;
+
+		private GroupResult(GateGroup group, QualityReport report) {
+			this.group = group;
+			this.report = report;
+		}
+	}
+}
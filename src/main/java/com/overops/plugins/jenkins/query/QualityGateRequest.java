@@ -0,0 +1,383 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.overops.report.service.QualityReportParams;
+
+//QualityGateRequest is a fully expanded, serializable quality gate query.
+//It carries no credentials, so it can be persisted with a pending Pipeline step and
+//rebuilt into QualityReportParams after a controller restart.
+
+public class QualityGateRequest implements Serializable, Cloneable {
+	private static final long serialVersionUID = 1L;
+
+	private String serviceId;
+	private String applicationName;
+	private String deploymentName;
+	private String regexFilter;
+	private boolean markUnstable;
+
+	// evaluate the gate groups cheapest first and stop at the first that fails the build
+	private boolean failFast;
+	private Integer printTopIssues;
+	private boolean showPassedGateEvents;
+
+	private boolean newEvents;
+	private boolean resurfacedErrors;
+	private int maxErrorVolume;
+	private int maxUniqueErrors;
+	private String criticalExceptionTypes;
+
+	// regression gate, "0" disables it
+	private String activeTimespan = "0";
+	private String baselineTimespan = "0";
+	private int minVolumeThreshold;
+	private double minErrorRateThreshold;
+	private double regressionDelta;
+	private double criticalRegressionDelta;
+	private boolean applySeasonality;
+
+	// events allowed that the last successful build did not have, null disables the gate
+	private Integer maxAddedEvents;
+
+	private boolean debug;
+	private boolean errorSuccess;
+	private boolean linkReport;
+
+	// the job the gate runs for, its queries are queued fairly against other jobs
+	private String jobName;
+
+	// application/deployment pairs of a batched gate, empty for a single pair
+	private List<Target> targets = new ArrayList<>();
+
+	public QualityReportParams toQualityReportParams() {
+		QualityReportParams params = new QualityReportParams();
+
+		params.setApplicationName(applicationName);
+		params.setDeploymentName(deploymentName);
+		params.setServiceId(serviceId);
+		params.setRegexFilter(regexFilter);
+		params.setMarkUnstable(markUnstable);
+		params.setPrintTopIssues(printTopIssues);
+		params.setNewEvents(newEvents);
+		params.setResurfacedErrors(resurfacedErrors);
+		params.setMaxErrorVolume(maxErrorVolume);
+		params.setMaxUniqueErrors(maxUniqueErrors);
+
+		if (criticalExceptionTypes != null) {
+			params.setCriticalExceptionTypes(criticalExceptionTypes);
+		}
+
+		params.setActiveTimespan(activeTimespan);
+		params.setBaselineTimespan(baselineTimespan);
+		params.setMinVolumeThreshold(minVolumeThreshold);
+		params.setMinErrorRateThreshold(minErrorRateThreshold);
+		params.setRegressionDelta(regressionDelta);
+		params.setCriticalRegressionDelta(criticalRegressionDelta);
+		params.setApplySeasonality(applySeasonality);
+
+		return params;
+	}
+
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	public void setServiceId(String serviceId) {
+		this.serviceId = serviceId;
+	}
+
+	public String getApplicationName() {
+		return applicationName;
+	}
+
+	public void setApplicationName(String applicationName) {
+		this.applicationName = applicationName;
+	}
+
+	public String getDeploymentName() {
+		return deploymentName;
+	}
+
+	public void setDeploymentName(String deploymentName) {
+		this.deploymentName = deploymentName;
+	}
+
+	public String getRegexFilter() {
+		return regexFilter;
+	}
+
+	public void setRegexFilter(String regexFilter) {
+		this.regexFilter = regexFilter;
+	}
+
+	public boolean getMarkUnstable() {
+		return markUnstable;
+	}
+
+	public void setMarkUnstable(boolean markUnstable) {
+		this.markUnstable = markUnstable;
+	}
+
+	public boolean getFailFast() {
+		return failFast;
+	}
+
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	public Integer getPrintTopIssues() {
+		return printTopIssues;
+	}
+
+	public void setPrintTopIssues(Integer printTopIssues) {
+		this.printTopIssues = printTopIssues;
+	}
+
+	public boolean getShowPassedGateEvents() {
+		return showPassedGateEvents;
+	}
+
+	public void setShowPassedGateEvents(boolean showPassedGateEvents) {
+		this.showPassedGateEvents = showPassedGateEvents;
+	}
+
+	public boolean getNewEvents() {
+		return newEvents;
+	}
+
+	public void setNewEvents(boolean newEvents) {
+		this.newEvents = newEvents;
+	}
+
+	public boolean getResurfacedErrors() {
+		return resurfacedErrors;
+	}
+
+	public void setResurfacedErrors(boolean resurfacedErrors) {
+		this.resurfacedErrors = resurfacedErrors;
+	}
+
+	public int getMaxErrorVolume() {
+		return maxErrorVolume;
+	}
+
+	public void setMaxErrorVolume(int maxErrorVolume) {
+		this.maxErrorVolume = maxErrorVolume;
+	}
+
+	public int getMaxUniqueErrors() {
+		return maxUniqueErrors;
+	}
+
+	public void setMaxUniqueErrors(int maxUniqueErrors) {
+		this.maxUniqueErrors = maxUniqueErrors;
+	}
+
+	public Integer getMaxAddedEvents() {
+		return maxAddedEvents;
+	}
+
+	public void setMaxAddedEvents(Integer maxAddedEvents) {
+		this.maxAddedEvents = maxAddedEvents;
+	}
+
+	public String getCriticalExceptionTypes() {
+		return criticalExceptionTypes;
+	}
+
+	public void setCriticalExceptionTypes(String criticalExceptionTypes) {
+		this.criticalExceptionTypes = criticalExceptionTypes;
+	}
+
+	public String getActiveTimespan() {
+		return activeTimespan;
+	}
+
+	public void setActiveTimespan(String activeTimespan) {
+		this.activeTimespan = activeTimespan;
+	}
+
+	public String getBaselineTimespan() {
+		return baselineTimespan;
+	}
+
+	public void setBaselineTimespan(String baselineTimespan) {
+		this.baselineTimespan = baselineTimespan;
+	}
+
+	public int getMinVolumeThreshold() {
+		return minVolumeThreshold;
+	}
+
+	public void setMinVolumeThreshold(int minVolumeThreshold) {
+		this.minVolumeThreshold = minVolumeThreshold;
+	}
+
+	public double getMinErrorRateThreshold() {
+		return minErrorRateThreshold;
+	}
+
+	public void setMinErrorRateThreshold(double minErrorRateThreshold) {
+		this.minErrorRateThreshold = minErrorRateThreshold;
+	}
+
+	public double getRegressionDelta() {
+		return regressionDelta;
+	}
+
+	public void setRegressionDelta(double regressionDelta) {
+		this.regressionDelta = regressionDelta;
+	}
+
+	public double getCriticalRegressionDelta() {
+		return criticalRegressionDelta;
+	}
+
+	public void setCriticalRegressionDelta(double criticalRegressionDelta) {
+		this.criticalRegressionDelta = criticalRegressionDelta;
+	}
+
+	public boolean getApplySeasonality() {
+		return applySeasonality;
+	}
+
+	public void setApplySeasonality(boolean applySeasonality) {
+		this.applySeasonality = applySeasonality;
+	}
+
+	public boolean getDebug() {
+		return debug;
+	}
+
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+
+	public boolean getErrorSuccess() {
+		return errorSuccess;
+	}
+
+	public void setErrorSuccess(boolean errorSuccess) {
+		this.errorSuccess = errorSuccess;
+	}
+
+	public boolean getLinkReport() {
+		return linkReport;
+	}
+
+	public void setLinkReport(boolean linkReport) {
+		this.linkReport = linkReport;
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public void setJobName(String jobName) {
+		this.jobName = jobName;
+	}
+
+	public List<Target> getTargets() {
+		return targets != null ? Collections.unmodifiableList(targets) : Collections.emptyList();
+	}
+
+	public void setTargets(List<Target> targets) {
+		this.targets = new ArrayList<>(targets);
+	}
+
+	public boolean isBatch() {
+		return !getTargets().isEmpty();
+	}
+
+	/**
+	 * One request per target of a batched gate, each with the gate settings of this request.
+	 */
+	public List<QualityGateRequest> split() {
+		if (!isBatch()) {
+			return Collections.singletonList(this);
+		}
+
+		List<QualityGateRequest> requests = new ArrayList<>(targets.size());
+
+		for (Target target : targets) {
+			QualityGateRequest request = copy();
+			request.applicationName = target.getApplicationName();
+			request.deploymentName = target.getDeploymentName();
+			request.targets = new ArrayList<>();
+			requests.add(request);
+		}
+
+		return requests;
+	}
+
+	private QualityGateRequest copy() {
+		try {
+			return (QualityGateRequest) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Parses the application/deployment pairs of a batched gate: one
+	 * <code>application:deployment</code> per line or separated by commas.
+	 * An entry without a deployment uses the default deployment name.
+	 */
+	public static List<Target> parseTargets(String value, String defaultDeploymentName) {
+		List<Target> targets = new ArrayList<>();
+
+		if (value == null) {
+			return targets;
+		}
+
+		for (String entry : value.split("[,\\r\\n]+")) {
+			String trimmed = entry.trim();
+
+			if (trimmed.isEmpty()) {
+				continue;
+			}
+
+			int separator = trimmed.indexOf(':');
+
+			if (separator < 0) {
+				targets.add(new Target(trimmed, defaultDeploymentName));
+			} else {
+				String deploymentName = trimmed.substring(separator + 1).trim();
+				targets.add(new Target(trimmed.substring(0, separator).trim(),
+					deploymentName.isEmpty() ? defaultDeploymentName : deploymentName));
+			}
+		}
+
+		return targets;
+	}
+
+	public static final class Target implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String applicationName;
+		private final String deploymentName;
+
+		public Target(String applicationName, String deploymentName) {
+			this.applicationName = applicationName;
+			this.deploymentName = deploymentName;
+		}
+
+		public String getApplicationName() {
+			return applicationName;
+		}
+
+		public String getDeploymentName() {
+			return deploymentName;
+		}
+
+		@Override
+		public String toString() {
+			return deploymentName != null ? applicationName + " / " + deploymentName : applicationName;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.overops.report.service.model.HtmlParts;
+
+import hudson.model.Result;
+
+//QualityGateResult is the outcome of a quality gate run: the rendered report, its summary and the build result it implies
+
+public class QualityGateResult implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	// kept as strings, HtmlParts is a report-service class and results are sent back from agents
+	private final String html;
+	private final String css;
+	private final Result result;
+	private final ReportSummary summary;
+
+	// highest volume events of each gate, keyed by gate name
+	private final Map<String, List<ReportEvent>> events;
+
+	// every event of each gate, for the stored report
+	private final EventArchive eventArchive;
+
+	// every event of the report, compared with the last successful build's
+	private final EventSet eventSet;
+
+	public QualityGateResult(HtmlParts htmlParts, Result result, ReportSummary summary) {
+		this(htmlParts, result, summary, Collections.emptyMap());
+	}
+
+	public QualityGateResult(HtmlParts htmlParts, Result result, ReportSummary summary, Map<String, List<ReportEvent>> events) {
+		this(htmlParts, result, summary, events, null);
+	}
+
+	/**
+	 * @param eventSet null when the report has no events to compare, e.g. when it could not be generated
+	 */
+	public QualityGateResult(HtmlParts htmlParts, Result result, ReportSummary summary, Map<String, List<ReportEvent>> events,
+			EventSet eventSet) {
+		this(htmlParts, result, summary, events, null, eventSet);
+	}
+
+	/**
+	 * @param eventArchive null when the events are all there is, the archive is then made from them
+	 * @param eventSet null when the report has no events to compare, e.g. when it could not be generated
+	 */
+	public QualityGateResult(HtmlParts htmlParts, Result result, ReportSummary summary, Map<String, List<ReportEvent>> events,
+			EventArchive eventArchive, EventSet eventSet) {
+		this.html = htmlParts != null ? htmlParts.getHtml() : null;
+		this.css = htmlParts != null ? htmlParts.getCss() : null;
+		this.result = result;
+		this.summary = summary;
+		this.events = events;
+		this.eventArchive = eventArchive;
+		this.eventSet = eventSet;
+	}
+
+	public HtmlParts getHtmlParts() {
+		return new HtmlParts(html, css);
+	}
+
+	public Result getResult() {
+		return result;
+	}
+
+	public ReportSummary getSummary() {
+		return summary;
+	}
+
+	public Map<String, List<ReportEvent>> getEvents() {
+		return events;
+	}
+
+	public EventArchive getEventArchive() {
+		return eventArchive != null ? eventArchive : EventArchive.of(events);
+	}
+
+	public EventSet getEventSet() {
+		return eventSet;
+	}
+}
@@ -0,0 +1,425 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.overops.plugins.jenkins.query.QualityGateEvaluator.GateGroup;
+import com.overops.report.service.ReportService;
+import com.overops.report.service.model.HtmlParts;
+import com.overops.report.service.model.QualityReport;
+import com.overops.report.service.model.QualityReport.ReportStatus;
+import com.overops.report.service.model.QualityReportExceptionDetails;
+
+import hudson.Util;
+import hudson.model.Result;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+//QualityGateRunner runs the OverOps quality report for an expanded request and maps it
+//to a build result. It is shared by the QueryOverOps post-build step and the Pipeline step.
+//A batched request is run for each of its application/deployment pairs and aggregated.
+
+public class QualityGateRunner {
+	// queue waits shorter than this are not worth a line in the build log
+	private static final long QUEUE_WAIT_LOG_MILLIS = 1000;
+
+	// the events compared with other builds when the gate has no active time span
+	static final long DEFAULT_EVENT_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	// tasks queued for the gate and batch pools per thread, beyond which the caller runs them
+	private static final int POOL_QUEUE_PER_THREAD = 16;
+
+	private final QualityGateContext context;
+
+	public QualityGateRunner(QualityGateContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Runs the quality gate. Failures to generate the report are turned into an
+	 * exception report rather than thrown.
+	 * @param request
+	 * @param console the build log
+	 */
+	public QualityGateResult run(QualityGateRequest request, PrintStream console) {
+		return run(request, console, QualityGateCheckpoint.NONE);
+	}
+
+	/**
+	 * Runs the quality gate, skipping the stages recorded in the checkpoint. The checkpoint is
+	 * removed when the gate completes, it is only read by a step resumed before completing.
+	 */
+	public QualityGateResult run(QualityGateRequest request, PrintStream console, QualityGateCheckpoint checkpoint) {
+		QualityGateResult result = request.isBatch() ? runBatch(request, console, checkpoint) :
+			runSingle(request, console, checkpoint);
+
+		checkpoint.delete();
+
+		return result;
+	}
+
+	private QualityGateResult runSingle(QualityGateRequest request, PrintStream console, QualityGateCheckpoint checkpoint) {
+		String apiHost = context.getOverOpsURL();
+		String apiKey = context.apiKey();
+
+		try {
+			validateInputs(apiHost, apiKey);
+			checkEnvironmentAccess(apiHost, apiKey, request.getServiceId());
+
+			if (!request.getLinkReport()) {
+				waitForDeployments(apiHost, apiKey, request.getServiceId(), request.split(), console, checkpoint);
+			}
+
+			return evaluate(request, apiHost, apiKey, console, checkpoint);
+		} catch (Exception exception) {
+			return exceptionResult(exception, request.getErrorSuccess());
+		}
+	}
+
+	/**
+	 * Runs the gates of a batched request for each of its application/deployment pairs.
+	 * All deployments share one readiness wait, the pairs are then evaluated in parallel
+	 * and combined into one report with a section per pair.
+	 */
+	private QualityGateResult runBatch(QualityGateRequest request, PrintStream console, QualityGateCheckpoint checkpoint) {
+		String apiHost = context.getOverOpsURL();
+		String apiKey = context.apiKey();
+		List<QualityGateRequest> requests = request.split();
+
+		try {
+			validateInputs(apiHost, apiKey);
+			checkEnvironmentAccess(apiHost, apiKey, request.getServiceId());
+
+			if (!request.getLinkReport()) {
+				waitForDeployments(apiHost, apiKey, request.getServiceId(), requests, console, checkpoint);
+			}
+
+			List<QualityGateResult> results = new ArrayList<>(requests.size());
+			List<Future<QualityGateResult>> futures = new ArrayList<>(requests.size());
+
+			// each pair records its stages apart, so the pairs do not wait on one checkpoint file
+			try {
+				for (QualityGateRequest target : requests) {
+					QualityGateCheckpoint targetCheckpoint = checkpoint.forTarget(target);
+					futures.add(context.getBatchPool().submit(() ->
+						evaluateTarget(target, apiHost, apiKey, console, targetCheckpoint)));
+				}
+
+				for (Future<QualityGateResult> future : futures) {
+					results.add(future.get());
+				}
+			} finally {
+				// pairs left running by an interrupted build
+				for (Future<QualityGateResult> future : futures) {
+					future.cancel(true);
+				}
+			}
+
+			return aggregate(request.getTargets(), results, retainedEvents(request));
+		} catch (Exception exception) {
+			return exceptionResult(exception, request.getErrorSuccess());
+		}
+	}
+
+	/**
+	 * A pool for the gate groups of a report, shared by the builds of a {@link QualityGateContext}.
+	 * When all threads are busy and the queue is full, a group runs on the thread waiting for it.
+	 */
+	static ThreadPoolExecutor newGatePool(int threads) {
+		return newPool(threads, "OverOps quality gate group");
+	}
+
+	/**
+	 * A pool for the pairs of batched requests, shared by the builds of a {@link QualityGateContext}.
+	 * It is separate from the gate pool, as each pair blocks until its gate groups are evaluated there.
+	 * When all threads are busy and the queue is full, a pair runs on the build's own thread.
+	 */
+	static ThreadPoolExecutor newBatchPool(int threads) {
+		return newPool(threads, "OverOps quality gate batch");
+	}
+
+	private static ThreadPoolExecutor newPool(int threads, String name) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<>(threads * POOL_QUEUE_PER_THREAD),
+			new NamingThreadFactory(new DaemonThreadFactory(), name),
+			// unlike CallerRunsPolicy, also runs the task once the pool is shut down, so its future completes
+			(task, executor) -> task.run());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	// a pair that could not be evaluated becomes an error section rather than failing the batch
+	private QualityGateResult evaluateTarget(QualityGateRequest request, String apiHost, String apiKey, PrintStream console,
+			QualityGateCheckpoint checkpoint) {
+		QualityGateResult result;
+
+		try {
+			result = evaluate(request, apiHost, apiKey, console, checkpoint);
+		} catch (Exception exception) {
+			result = exceptionResult(exception, request.getErrorSuccess());
+		}
+
+		console.println("OverOps quality gate for " + request.getApplicationName() + " / " + request.getDeploymentName() +
+			": " + result.getSummary().getStatus());
+
+		return result;
+	}
+
+	private QualityGateResult evaluate(QualityGateRequest request, String apiHost, String apiKey, PrintStream console,
+			QualityGateCheckpoint checkpoint) throws Exception {
+		boolean debug = request.getDebug();
+
+		//next rev need to be able to have generic logging of when we start, settings, etc.
+		PrintStream printStream = debug ? console : null;
+
+		if (request.getLinkReport()) {
+			String reportLinkHtml = new ReportService().generateReportLinkHtml(context.getOverOpsAppURL(),
+				request.toQualityReportParams(), printStream, debug);
+			return new QualityGateResult(new HtmlParts(reportLinkHtml, ""), Result.SUCCESS,
+				new ReportSummary(ReportSummary.STATUS_LINK, Collections.emptyList()));
+		}
+
+		QualityGateEvaluator evaluator = new QualityGateEvaluator(context.getGatePool(), context.getReportCache(),
+			context.getClientRegistry(), context.getApiCallMetrics(), context.getRetryPolicy(), checkpoint,
+			context.getBaselineDir(), context.getGateCosts());
+		QualityReport reportModel;
+
+		try (QueryScheduler.Permit permit = context.getQueryScheduler().acquire(request.getJobName(), request.getServiceId())) {
+			if (permit.getWaitMillis() >= QUEUE_WAIT_LOG_MILLIS) {
+				console.println("OverOps query waited " + permit.getWaitMillis() + "ms for a free slot");
+			}
+
+			reportModel = evaluator.evaluate(apiHost, apiKey, request, printStream, console);
+		}
+
+		Result result;
+
+		if (reportModel.getStatusCode() == ReportStatus.FAILED) {
+			if ((reportModel.getExceptionDetails() != null) && request.getErrorSuccess()) {
+				result = Result.SUCCESS;
+			} else {
+				result = Result.UNSTABLE;
+			}
+		} else {
+			result = Result.SUCCESS;
+		}
+
+		List<GateGroup> skipped = evaluator.getSkipped();
+		HtmlParts htmlParts = reportModel.getHtmlParts(request.getShowPassedGateEvents());
+
+		if (!skipped.isEmpty()) {
+			htmlParts = new HtmlParts(htmlParts.getHtml() + renderSkipped(skipped, request), htmlParts.getCss());
+		}
+
+		// a partly evaluated report has no event set to compare with other builds
+		EventSet eventSet = (reportModel.getExceptionDetails() == null) && (skipped.isEmpty()) ?
+			eventSet(request, apiHost, apiKey, reportModel, console) : null;
+
+		return new QualityGateResult(htmlParts, result,
+			QualityReports.summarize(reportModel, evaluator.getTimings(), skipped, request),
+			QualityReports.events(reportModel, retainedEvents(request)), QualityReports.eventArchive(reportModel), eventSet);
+	}
+
+	// every event of the deployment, the gates of the report only list the events that failed them
+	private EventSet eventSet(QualityGateRequest request, String apiHost, String apiKey, QualityReport reportModel,
+			PrintStream console) throws InterruptedException {
+		long now = System.currentTimeMillis();
+
+		try (ApiClientRegistry.Lease lease = context.getClientRegistry().acquire(apiHost, apiKey)) {
+			OverOpsVolumes volumes = new OverOpsVolumes(lease.getClient(), request.getServiceId(),
+				request.getApplicationName(), request.getDeploymentName());
+
+			return QualityReports.eventSet(volumes.fetch(now - eventWindowMillis(request), now));
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			console.println("Unable to fetch OverOps event volumes, comparing the events of the report: " + e.getMessage());
+			return QualityReports.eventSet(reportModel);
+		}
+	}
+
+	static long eventWindowMillis(QualityGateRequest request) {
+		String activeTimespan = request.getActiveTimespan();
+
+		if (QualityGateEvaluator.isSet(activeTimespan)) {
+			try {
+				return RegressionGate.parseTimespan(activeTimespan);
+			} catch (IllegalArgumentException e) {
+				// the regression gate reports the invalid time span
+			}
+		}
+
+		return DEFAULT_EVENT_WINDOW_MILLIS;
+	}
+
+	private static String renderSkipped(List<GateGroup> skipped, QualityGateRequest request) {
+		StringBuilder html = new StringBuilder("<div class=\"overops-skipped\"><h3>Skipped gates</h3>");
+		html.append("<p>Not evaluated, an earlier gate already failed the build:</p><ul>");
+
+		for (GateGroup group : skipped) {
+			for (String name : QualityReports.gateNames(group, request)) {
+				html.append("<li>").append(Util.escape(name)).append("</li>");
+			}
+		}
+
+		return html.append("</ul></div>").toString();
+	}
+
+	/**
+	 * Combines the results of a batched gate: one report section per pair, the worst build
+	 * result, the highest volume events of each gate across all pairs, and every event of all pairs.
+	 */
+	static QualityGateResult aggregate(List<QualityGateRequest.Target> targets, List<QualityGateResult> results,
+			int eventLimit) {
+		StringBuilder html = new StringBuilder();
+		String css = "";
+		Result result = Result.SUCCESS;
+		List<ReportSummary> sections = new ArrayList<>(results.size());
+		Map<String, List<ReportEvent>> events = new LinkedHashMap<>();
+		List<EventArchive> eventArchives = new ArrayList<>(results.size());
+		List<EventSet> eventSets = new ArrayList<>(results.size());
+
+		for (int i = 0; i < results.size(); i++) {
+			QualityGateResult section = results.get(i);
+			String name = targets.get(i).toString();
+
+			html.append("<div class=\"overops-deployment\"><h2>").append(Util.escape(name)).append("</h2>");
+			html.append(section.getHtmlParts().getHtml()).append("</div>");
+
+			if ((css.isEmpty()) && (section.getHtmlParts().getCss() != null)) {
+				css = section.getHtmlParts().getCss();
+			}
+
+			result = result.combine(section.getResult());
+			sections.add(section.getSummary().named(name));
+
+			eventArchives.add(section.getEventArchive());
+
+			if (section.getEventSet() != null) {
+				eventSets.add(section.getEventSet());
+			}
+
+			for (Map.Entry<String, List<ReportEvent>> gateEvents : section.getEvents().entrySet()) {
+				events.computeIfAbsent(gateEvents.getKey(), key -> new ArrayList<>()).addAll(gateEvents.getValue());
+			}
+		}
+
+		for (Map.Entry<String, List<ReportEvent>> gateEvents : events.entrySet()) {
+			List<ReportEvent> merged = gateEvents.getValue();
+			merged.sort(Comparator.comparingLong(ReportEvent::getVolume).reversed());
+
+			if (merged.size() > eventLimit) {
+				gateEvents.setValue(new ArrayList<>(merged.subList(0, eventLimit)));
+			}
+		}
+
+		// a pair without events leaves the batch without a comparable set
+		EventSet eventSet = eventSets.size() == results.size() ? EventSet.union(eventSets) : null;
+
+		return new QualityGateResult(new HtmlParts(html.toString(), css), result, ReportSummary.aggregate(sections), events,
+			EventArchive.join(eventArchives), eventSet);
+	}
+
+	// keep at least the top issues shown in the report
+	private static int retainedEvents(QualityGateRequest request) {
+		Integer printTopIssues = request.getPrintTopIssues();
+		return Math.max(QualityReports.MAX_EVENTS_PER_GATE, printTopIssues != null ? printTopIssues : 0);
+	}
+
+	// wait for OverOps to ingest the events of the deployments before querying them, in one combined wait for a batch
+	private void waitForDeployments(String apiHost, String apiKey, String serviceId, List<QualityGateRequest> requests,
+			PrintStream console, QualityGateCheckpoint checkpoint) throws InterruptedException {
+		Set<String> deploymentNames = new LinkedHashSet<>();
+		boolean probed = false;
+
+		for (QualityGateRequest request : requests) {
+			String deploymentName = request.getDeploymentName();
+
+			if ((deploymentName != null) && (!deploymentName.isEmpty())) {
+				probed = true;
+
+				if (!checkpoint.isReady(serviceId, deploymentName)) {
+					deploymentNames.add(deploymentName);
+				}
+			}
+		}
+
+		// without a deployment name there is nothing to probe for
+		if (!probed) {
+			ReportService.pauseForTheCause(console);
+			return;
+		}
+
+		if (deploymentNames.isEmpty()) {
+			console.println("OverOps has data for the deployments, resumed from checkpoint");
+			return;
+		}
+
+		DeploymentReadinessProbe probe = new DeploymentReadinessProbe(context.getClientRegistry(),
+			apiHost, apiKey, TimeUnit.SECONDS.toMillis(context.getReadinessTimeout()), context.getReadinessNotifier());
+
+		for (String ready : probe.awaitReady(serviceId, deploymentNames, console)) {
+			checkpoint.markReady(serviceId, ready);
+		}
+	}
+
+	// fail fast on an environment the api key cannot access, an index that cannot be loaded is left to the report
+	private void checkEnvironmentAccess(String apiHost, String apiKey, String serviceId) throws InterruptedException {
+		boolean access;
+
+		try {
+			access = context.getEnvironmentIndex().hasAccess(apiHost, apiKey, serviceId);
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			return;
+		}
+
+		if (!access) {
+			throw new IllegalArgumentException("API key has no access to environment " + serviceId);
+		}
+	}
+
+	//validate inputs
+	private static void validateInputs(String apiHost, String apiKey) {
+		if (apiHost == null) {
+			throw new IllegalArgumentException("Missing host name");
+		}
+
+		if (apiKey == null) {
+			throw new IllegalArgumentException("Missing api key");
+		}
+	}
+
+	// render an exception report for a quality gate that could not be evaluated
+	public static QualityGateResult exceptionResult(Exception exception, boolean errorSuccess) {
+		QualityReport reportModel = new QualityReport();
+
+		QualityReportExceptionDetails exceptionDetails = new QualityReportExceptionDetails();
+		exceptionDetails.setExceptionMessage(exception.getMessage());
+
+		List<StackTraceElement> stackElements = Arrays.asList(exception.getStackTrace());
+		List<String> stackTrace = new ArrayList<>();
+		stackTrace.add(exception.getClass().getName());
+		stackTrace.addAll(stackElements.stream().map(stack -> stack.toString()).collect(Collectors.toList()));
+		exceptionDetails.setStackTrace(stackTrace.toArray(new String[stackTrace.size()]));
+
+		reportModel.setExceptionDetails(exceptionDetails);
+
+		return new QualityGateResult(reportModel.getHtmlParts(), errorSuccess ? Result.SUCCESS : Result.UNSTABLE,
+			new ReportSummary(ReportSummary.STATUS_ERROR, Collections.emptyList()));
+	}
+}
@@ -0,0 +1,303 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.Set;
+
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import com.google.common.collect.ImmutableSet;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.FormValidation;
+
+//QualityGateStep is the Pipeline-native quality gate (overOpsQualityGate).
+//Unlike the OverOpsQuery post-build step it does not need a node: the query runs on a shared
+//worker pool and the build resumes when the result arrives.
+//Settings are held by a QueryOverOps instance so both steps resolve them the same way.
+
+public class QualityGateStep extends Step {
+
+	private final QueryOverOps gate = new QueryOverOps();
+
+	@DataBoundConstructor
+	public QualityGateStep() {
+	}
+
+	QueryOverOps getGate() {
+		return gate;
+	}
+
+	public String getApplicationName() {
+		return gate.getApplicationName();
+	}
+
+	@DataBoundSetter
+	public void setApplicationName(String applicationName) {
+		gate.setApplicationName(applicationName);
+	}
+
+	public String getDeploymentName() {
+		return gate.getDeploymentName();
+	}
+
+	@DataBoundSetter
+	public void setDeploymentName(String deploymentName) {
+		gate.setDeploymentName(deploymentName);
+	}
+
+	public String getDeployments() {
+		return gate.getDeployments();
+	}
+
+	@DataBoundSetter
+	public void setDeployments(String deployments) {
+		gate.setDeployments(deployments);
+	}
+
+	public String getServiceId() {
+		return gate.getServiceId();
+	}
+
+	@DataBoundSetter
+	public void setServiceId(String serviceId) {
+		gate.setServiceId(serviceId);
+	}
+
+	public String getRegexFilter() {
+		return gate.getRegexFilter();
+	}
+
+	@DataBoundSetter
+	public void setRegexFilter(String regexFilter) {
+		gate.setRegexFilter(regexFilter);
+	}
+
+	public boolean getMarkUnstable() {
+		return gate.getMarkUnstable();
+	}
+
+	@DataBoundSetter
+	public void setMarkUnstable(boolean markUnstable) {
+		gate.setMarkUnstable(markUnstable);
+	}
+
+	public boolean getFailFast() {
+		return gate.getFailFast();
+	}
+
+	@DataBoundSetter
+	public void setFailFast(boolean failFast) {
+		gate.setFailFast(failFast);
+	}
+
+	public boolean getShowPassedGateEvents() {
+		return gate.getShowPassedGateEvents();
+	}
+
+	@DataBoundSetter
+	public void setShowPassedGateEvents(boolean showPassedGateEvents) {
+		gate.setShowPassedGateEvents(showPassedGateEvents);
+	}
+
+	public Integer getPrintTopIssues() {
+		return gate.getPrintTopIssues();
+	}
+
+	@DataBoundSetter
+	public void setPrintTopIssues(Integer printTopIssues) {
+		gate.setPrintTopIssues(printTopIssues);
+	}
+
+	public boolean getNewEvents() {
+		return gate.getNewEvents();
+	}
+
+	@DataBoundSetter
+	public void setNewEvents(boolean newEvents) {
+		gate.setNewEvents(newEvents);
+	}
+
+	public boolean getResurfacedErrors() {
+		return gate.getResurfacedErrors();
+	}
+
+	@DataBoundSetter
+	public void setResurfacedErrors(boolean resurfacedErrors) {
+		gate.setResurfacedErrors(resurfacedErrors);
+	}
+
+	public Integer getMaxErrorVolume() {
+		return gate.getMaxErrorVolume();
+	}
+
+	@DataBoundSetter
+	public void setMaxErrorVolume(Integer maxErrorVolume) {
+		gate.setMaxErrorVolume(maxErrorVolume);
+	}
+
+	public Integer getMaxUniqueErrors() {
+		return gate.getMaxUniqueErrors();
+	}
+
+	@DataBoundSetter
+	public void setMaxUniqueErrors(Integer maxUniqueErrors) {
+		gate.setMaxUniqueErrors(maxUniqueErrors);
+	}
+
+	public Integer getMaxAddedEvents() {
+		return gate.getMaxAddedEvents();
+	}
+
+	@DataBoundSetter
+	public void setMaxAddedEvents(Integer maxAddedEvents) {
+		gate.setMaxAddedEvents(maxAddedEvents);
+	}
+
+	public String getCriticalExceptionTypes() {
+		return gate.getCriticalExceptionTypes();
+	}
+
+	@DataBoundSetter
+	public void setCriticalExceptionTypes(String criticalExceptionTypes) {
+		gate.setCriticalExceptionTypes(criticalExceptionTypes);
+	}
+
+	public String getActiveTimespan() {
+		return gate.getActiveTimespan();
+	}
+
+	@DataBoundSetter
+	public void setActiveTimespan(String activeTimespan) {
+		gate.setActiveTimespan(activeTimespan);
+	}
+
+	public String getBaselineTimespan() {
+		return gate.getBaselineTimespan();
+	}
+
+	@DataBoundSetter
+	public void setBaselineTimespan(String baselineTimespan) {
+		gate.setBaselineTimespan(baselineTimespan);
+	}
+
+	public Integer getMinVolumeThreshold() {
+		return gate.getMinVolumeThreshold();
+	}
+
+	@DataBoundSetter
+	public void setMinVolumeThreshold(Integer minVolumeThreshold) {
+		gate.setMinVolumeThreshold(minVolumeThreshold);
+	}
+
+	public Double getMinErrorRateThreshold() {
+		return gate.getMinErrorRateThreshold();
+	}
+
+	@DataBoundSetter
+	public void setMinErrorRateThreshold(Double minErrorRateThreshold) {
+		gate.setMinErrorRateThreshold(minErrorRateThreshold);
+	}
+
+	public Double getRegressionDelta() {
+		return gate.getRegressionDelta();
+	}
+
+	@DataBoundSetter
+	public void setRegressionDelta(Double regressionDelta) {
+		gate.setRegressionDelta(regressionDelta);
+	}
+
+	public Double getCriticalRegressionDelta() {
+		return gate.getCriticalRegressionDelta();
+	}
+
+	@DataBoundSetter
+	public void setCriticalRegressionDelta(Double criticalRegressionDelta) {
+		gate.setCriticalRegressionDelta(criticalRegressionDelta);
+	}
+
+	public boolean getApplySeasonality() {
+		return gate.getApplySeasonality();
+	}
+
+	@DataBoundSetter
+	public void setApplySeasonality(boolean applySeasonality) {
+		gate.setApplySeasonality(applySeasonality);
+	}
+
+	public boolean getDebug() {
+		return gate.getDebug();
+	}
+
+	@DataBoundSetter
+	public void setDebug(boolean debug) {
+		gate.setDebug(debug);
+	}
+
+	public boolean getErrorSuccess() {
+		return gate.getErrorSuccess();
+	}
+
+	@DataBoundSetter
+	public void setErrorSuccess(boolean errorSuccess) {
+		gate.setErrorSuccess(errorSuccess);
+	}
+
+	public boolean getLinkReport() {
+		return gate.getLinkReport();
+	}
+
+	@DataBoundSetter
+	public void setLinkReport(boolean linkReport) {
+		gate.setLinkReport(linkReport);
+	}
+
+	@Override
+	public StepExecution start(StepContext context) throws Exception {
+		return new QualityGateStepExecution(context, gate);
+	}
+
+	@Extension
+	public static class StepDescriptorImpl extends StepDescriptor {
+
+		@Override
+		public Set<? extends Class<?>> getRequiredContext() {
+			// no FilePath or Launcher: the step must not require a node
+			return ImmutableSet.of(Run.class, TaskListener.class, EnvVars.class);
+		}
+
+		@Override
+		public String getFunctionName() {
+			return "overOpsQualityGate";
+		}
+
+		@Override
+		public String getDisplayName() {
+			return "OverOps Quality Gate";
+		}
+
+		@POST
+		public FormValidation doCheckServiceId(@AncestorInPath Item item, @QueryParameter String value) {
+			return DescriptorImpl.checkServiceId(item, value);
+		}
+
+		public FormValidation doCheckRegexFilter(@QueryParameter String value) {
+			return DescriptorImpl.checkRegexFilter(value);
+		}
+
+		public FormValidation doCheckCriticalExceptionTypes(@QueryParameter String value) {
+			return DescriptorImpl.checkCriticalExceptionTypes(value);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+//QualityGateStepExecution runs the quality gate asynchronously on the shared worker pool.
+//The expanded request is part of the persisted execution, so a gate pending when the
+//controller stops is re-submitted from onResume() and continues from its checkpoint.
+
+public class QualityGateStepExecution extends AbstractStepExecutionImpl {
+	private static final long serialVersionUID = 1L;
+
+	// only needed to build the request when the step starts
+	private final transient QueryOverOps gate;
+
+	private QualityGateRequest request;
+
+	// names the step's checkpoint, persisted so a resumed step finds it
+	private String stepId;
+
+	private transient volatile Future<?> task;
+
+	// set once the step completed or was stopped, so a worker finishing after stop() does not complete it again
+	private transient boolean finished;
+
+	QualityGateStepExecution(StepContext context, QueryOverOps gate) {
+		super(context);
+		this.gate = gate;
+	}
+
+	@Override
+	public boolean start() throws Exception {
+		Run<?, ?> run = getContext().get(Run.class);
+		TaskListener listener = getContext().get(TaskListener.class);
+
+		//check to see if anything prior has failed and if so, skip the OverOps Quality Check
+		Result result = run.getResult();
+		if (result != null && result.isWorseThan(Result.UNSTABLE)) {
+			listener.getLogger().println("Skipping OverOps Report due to prior build failure");
+			getContext().onSuccess(null);
+			return true;
+		}
+
+		try {
+			request = gate.createRequest(getContext().get(EnvVars.class));
+		} catch (IllegalArgumentException e) {
+			complete(run, QualityGateRunner.exceptionResult(e, gate.getErrorSuccess()));
+			return true;
+		}
+
+		stepId = UUID.randomUUID().toString();
+		submit();
+		return false;
+	}
+
+	@Override
+	public void onResume() {
+		submit();
+	}
+
+	@Override
+	public void stop(Throwable cause) throws Exception {
+		Future<?> pending = task;
+
+		if (pending != null) {
+			pending.cancel(true);
+		}
+
+		if (finish()) {
+			getContext().onFailure(cause);
+		}
+	}
+
+	private synchronized boolean finish() {
+		if (finished) {
+			return false;
+		}
+
+		finished = true;
+		return true;
+	}
+
+	private void submit() {
+		DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+
+		try {
+			task = descriptor.getGateWorkers().submit(() -> {
+				try {
+					Run<?, ?> run = getContext().get(Run.class);
+					TaskListener listener = getContext().get(TaskListener.class);
+
+					complete(run, new QualityGateRunner(descriptor).run(request, listener.getLogger(),
+						QualityGateCheckpoint.forStep(run.getRootDir(), stepId, request)));
+				} catch (Exception e) {
+					if (finish()) {
+						getContext().onFailure(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (finish()) {
+				getContext().onFailure(new AbortException("Too many OverOps quality gates are queued, " +
+					"see Pipeline Quality Gate Threads in the global settings"));
+			}
+		}
+	}
+
+	// a stopped step leaves the build without a report
+	private void complete(Run<?, ?> run, QualityGateResult gateResult) {
+		if (!finish()) {
+			return;
+		}
+
+		try {
+			String reportKey = ReportFiles.reserveKey(run.getRootDir(), request);
+			gateResult = BuildDelta.apply(run, reportKey, request, gateResult, getContext().get(TaskListener.class).getLogger());
+
+			OverOpsBuildAction.addTo(run, reportKey, gateResult);
+			run.setResult(gateResult.getResult());
+			getContext().onSuccess(gateResult.getResult().toString());
+		} catch (Exception e) {
+			getContext().onFailure(e);
+		}
+	}
+
+	@Override
+	public String getStatus() {
+		Future<?> pending = task;
+
+		if (pending == null) {
+			return "not started";
+		}
+
+		return pending.isDone() ? "complete" : "waiting for OverOps quality report";
+	}
+}
@@ -0,0 +1,301 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.overops.plugins.jenkins.query.QualityGateEvaluator.GateGroup;
+import com.overops.report.service.model.QualityGateEvent;
+import com.overops.report.service.model.QualityGateTestResults;
+import com.overops.report.service.model.QualityReport;
+import com.overops.report.service.model.QualityReport.ReportStatus;
+
+//QualityReports holds helpers for working with report-service QualityReport models
+
+public final class QualityReports {
+
+	private QualityReports() {
+	}
+
+	/**
+	 * Adds the regression gate results of a separately evaluated report to the event gate report.
+	 * Either argument may be null when that group was not evaluated. The arguments may be shared
+	 * through the ReportCache and are left untouched, the merged report is a new one.
+	 */
+	public static QualityReport mergeRegression(QualityReport eventsReport, QualityReport regressionReport) {
+		if (regressionReport == null) {
+			return eventsReport;
+		}
+
+		if (eventsReport == null) {
+			return regressionReport;
+		}
+
+		// a report that could not be generated takes precedence
+		if (regressionReport.getExceptionDetails() != null) {
+			return regressionReport;
+		}
+
+		if (eventsReport.getExceptionDetails() != null) {
+			return eventsReport;
+		}
+
+		// a new report with the gate results of both, the cached reports are shared and not modified
+		QualityReport merged = new QualityReport();
+		merged.setNewErrorsTestResults(eventsReport.getNewErrorsTestResults());
+		merged.setResurfacedErrorsTestResults(eventsReport.getResurfacedErrorsTestResults());
+		merged.setTotalErrorsTestResults(eventsReport.getTotalErrorsTestResults());
+		merged.setUniqueErrorsTestResults(eventsReport.getUniqueErrorsTestResults());
+		merged.setCriticalErrorsTestResults(eventsReport.getCriticalErrorsTestResults());
+		merged.setRegressionErrorsTestResults(regressionReport.getRegressionErrorsTestResults());
+		merged.setStatusCode(worstStatus(eventsReport.getStatusCode(), regressionReport.getStatusCode()));
+
+		return merged;
+	}
+
+	// gate names as they appear in the summary, the json export and the trend
+	public static final String NEW_ERRORS = "New Errors";
+	public static final String RESURFACED_ERRORS = "Resurfaced Errors";
+	public static final String TOTAL_ERRORS = "Total Error Volume";
+	public static final String UNIQUE_ERRORS = "Unique Errors";
+	public static final String CRITICAL_ERRORS = "Critical Errors";
+	public static final String REGRESSION_ERRORS = "Increasing Errors";
+	public static final String NEW_SINCE_SUCCESS = "New Since Last Success";
+
+	public static ReportSummary summarize(QualityReport report, Map<GateGroup, Long> timings) {
+		return summarize(report, timings, Collections.emptyList(), null);
+	}
+
+	/**
+	 * Summarizes the report and lists the enabled gates of the skipped groups as skipped.
+	 */
+	public static ReportSummary summarize(QualityReport report, Map<GateGroup, Long> timings, List<GateGroup> skipped,
+			QualityGateRequest request) {
+		List<ReportSummary.GateSummary> gates = new ArrayList<>();
+		long eventsMillis = timings.getOrDefault(GateGroup.EVENTS, 0L);
+
+		addGate(gates, NEW_ERRORS, report.getNewErrorsTestResults(), eventsMillis);
+		addGate(gates, RESURFACED_ERRORS, report.getResurfacedErrorsTestResults(), eventsMillis);
+		addGate(gates, TOTAL_ERRORS, report.getTotalErrorsTestResults(), eventsMillis);
+		addGate(gates, UNIQUE_ERRORS, report.getUniqueErrorsTestResults(), eventsMillis);
+		addGate(gates, CRITICAL_ERRORS, report.getCriticalErrorsTestResults(), eventsMillis);
+		addGate(gates, REGRESSION_ERRORS, report.getRegressionErrorsTestResults(),
+			timings.getOrDefault(GateGroup.REGRESSION, 0L));
+
+		for (GateGroup group : skipped) {
+			for (String name : gateNames(group, request)) {
+				gates.add(ReportSummary.GateSummary.skipped(name));
+			}
+		}
+
+		String status = report.getExceptionDetails() != null ? ReportSummary.STATUS_ERROR : String.valueOf(report.getStatusCode());
+
+		return new ReportSummary(status, gates);
+	}
+
+	// names of the gates of a group that the request enables
+	static List<String> gateNames(GateGroup group, QualityGateRequest request) {
+		List<String> names = new ArrayList<>();
+
+		if (group == GateGroup.REGRESSION) {
+			names.add(REGRESSION_ERRORS);
+			return names;
+		}
+
+		if (request.getNewEvents()) {
+			names.add(NEW_ERRORS);
+		}
+
+		if (request.getResurfacedErrors()) {
+			names.add(RESURFACED_ERRORS);
+		}
+
+		if (request.getMaxErrorVolume() > 0) {
+			names.add(TOTAL_ERRORS);
+		}
+
+		if (request.getMaxUniqueErrors() > 0) {
+			names.add(UNIQUE_ERRORS);
+		}
+
+		if ((request.getCriticalExceptionTypes() != null) && (!request.getCriticalExceptionTypes().isEmpty())) {
+			names.add(CRITICAL_ERRORS);
+		}
+
+		return names;
+	}
+
+	// disabled gates have no test results
+	private static void addGate(List<ReportSummary.GateSummary> gates, String name, QualityGateTestResults results,
+			long durationMillis) {
+		if (results != null) {
+			gates.add(new ReportSummary.GateSummary(name, results.isPassed(), results.getErrorCount(), results.getMessage(),
+				durationMillis, eventVolume(results)));
+		}
+	}
+
+	// events kept in memory per gate, a report can have tens of thousands; the event archive has them all
+	static final int MAX_EVENTS_PER_GATE = Integer.getInteger(QualityReports.class.getName() + ".maxEventsPerGate", 1000);
+
+	/**
+	 * The highest volume events reported for each evaluated gate, keyed by gate name.
+	 * @param limit the number of events to keep per gate
+	 */
+	public static Map<String, List<ReportEvent>> events(QualityReport report, int limit) {
+		Map<String, List<ReportEvent>> events = new LinkedHashMap<>();
+
+		addEvents(events, NEW_ERRORS, report.getNewErrorsTestResults(), limit);
+		addEvents(events, RESURFACED_ERRORS, report.getResurfacedErrorsTestResults(), limit);
+		addEvents(events, TOTAL_ERRORS, report.getTotalErrorsTestResults(), limit);
+		addEvents(events, UNIQUE_ERRORS, report.getUniqueErrorsTestResults(), limit);
+		addEvents(events, CRITICAL_ERRORS, report.getCriticalErrorsTestResults(), limit);
+		addEvents(events, REGRESSION_ERRORS, report.getRegressionErrorsTestResults(), limit);
+
+		return events;
+	}
+
+	private static void addEvents(Map<String, List<ReportEvent>> events, String name, QualityGateTestResults results,
+			int limit) {
+		if ((results == null) || (results.getEvents() == null)) {
+			return;
+		}
+
+		TopEvents topEvents = new TopEvents(limit);
+
+		for (QualityGateEvent event : results.getEvents()) {
+			topEvents.offer(event);
+		}
+
+		events.put(name, topEvents.toList());
+	}
+
+	/**
+	 * Every event reported for each evaluated gate, keyed by gate name, for the stored report.
+	 */
+	public static EventArchive eventArchive(QualityReport report) {
+		EventArchive.Builder builder = new EventArchive.Builder();
+
+		addEvents(builder, NEW_ERRORS, report.getNewErrorsTestResults());
+		addEvents(builder, RESURFACED_ERRORS, report.getResurfacedErrorsTestResults());
+		addEvents(builder, TOTAL_ERRORS, report.getTotalErrorsTestResults());
+		addEvents(builder, UNIQUE_ERRORS, report.getUniqueErrorsTestResults());
+		addEvents(builder, CRITICAL_ERRORS, report.getCriticalErrorsTestResults());
+		addEvents(builder, REGRESSION_ERRORS, report.getRegressionErrorsTestResults());
+
+		return builder.build();
+	}
+
+	private static void addEvents(EventArchive.Builder builder, String name, QualityGateTestResults results) {
+		if ((results == null) || (results.getEvents() == null)) {
+			return;
+		}
+
+		builder.gate(name);
+
+		for (QualityGateEvent event : results.getEvents()) {
+			builder.add(toReportEvent(event, toLong(event.getHits())));
+		}
+	}
+
+	/**
+	 * The ids and volumes of every event in the report, across all gates.
+	 */
+	public static EventSet eventSet(QualityReport report) {
+		EventSet.Builder builder = new EventSet.Builder();
+
+		addEvents(builder, report.getNewErrorsTestResults());
+		addEvents(builder, report.getResurfacedErrorsTestResults());
+		addEvents(builder, report.getTotalErrorsTestResults());
+		addEvents(builder, report.getUniqueErrorsTestResults());
+		addEvents(builder, report.getCriticalErrorsTestResults());
+		addEvents(builder, report.getRegressionErrorsTestResults());
+
+		return builder.build();
+	}
+
+	/**
+	 * The ids and volumes of every event in the event volumes of a deployment.
+	 */
+	public static EventSet eventSet(Map<String, RegressionBaseline.EventVolume> volumes) {
+		EventSet.Builder builder = new EventSet.Builder(volumes.size());
+
+		for (Map.Entry<String, RegressionBaseline.EventVolume> volume : volumes.entrySet()) {
+			long id = toLong(volume.getKey());
+
+			if (id > 0) {
+				builder.add(id, volume.getValue().getHits());
+			}
+		}
+
+		return builder.build();
+	}
+
+	private static void addEvents(EventSet.Builder builder, QualityGateTestResults results) {
+		if ((results == null) || (results.getEvents() == null)) {
+			return;
+		}
+
+		for (QualityGateEvent event : results.getEvents()) {
+			long id = toLong(event.getEventId());
+
+			// OverOps event ids are numeric, anything else cannot be compared across builds
+			if (id > 0) {
+				builder.add(id, toLong(event.getHits()));
+			}
+		}
+	}
+
+	// the number of events of all gates, without copying them
+	public static long eventCount(QualityReport report) {
+		return eventCount(report.getNewErrorsTestResults()) + eventCount(report.getResurfacedErrorsTestResults()) +
+			eventCount(report.getTotalErrorsTestResults()) + eventCount(report.getUniqueErrorsTestResults()) +
+			eventCount(report.getCriticalErrorsTestResults()) + eventCount(report.getRegressionErrorsTestResults());
+	}
+
+	private static long eventCount(QualityGateTestResults results) {
+		return (results != null) && (results.getEvents() != null) ? results.getEvents().size() : 0;
+	}
+
+	private static long eventVolume(QualityGateTestResults results) {
+		long volume = 0;
+
+		if (results.getEvents() != null) {
+			for (QualityGateEvent event : results.getEvents()) {
+				volume += toLong(event.getHits());
+			}
+		}
+
+		return volume;
+	}
+
+	static ReportEvent toReportEvent(QualityGateEvent event, long volume) {
+		return new ReportEvent(String.valueOf(event.getEventId()), event.getEventSummary(), volume);
+	}
+
+	// hit counts are not typed consistently across report-service versions
+	static long toLong(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+
+		try {
+			return value != null ? Long.parseLong(value.toString().trim()) : 0L;
+		} catch (NumberFormatException e) {
+			return 0L;
+		}
+	}
+
+	static ReportStatus worstStatus(ReportStatus first, ReportStatus second) {
+		if ((first == ReportStatus.FAILED) || (second == ReportStatus.FAILED)) {
+			return ReportStatus.FAILED;
+		}
+
+		if ((first == null) || (first == ReportStatus.PASSED)) {
+			return second != null ? second : first;
+		}
+
+		return first;
+	}
+}
@@ -26,34 +26,27 @@ package com.overops.plugins.jenkins.query;
 
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.PatternSyntaxException;
 
-import com.overops.report.service.model.HtmlParts;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
-import com.overops.report.service.QualityReportParams;
-import com.overops.report.service.ReportService;
-import com.overops.report.service.ReportService.Requestor;
-import com.overops.report.service.model.QualityReport;
-import com.overops.report.service.model.QualityReportExceptionDetails;
-import com.overops.report.service.model.QualityReport.ReportStatus;
 import com.takipi.api.client.observe.Observer;
 
+import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Recorder;
-import hudson.util.Secret;
 import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
-import org.w3c.tidy.Report;
 
 public class QueryOverOps extends Recorder implements SimpleBuildStep {
 
@@ -63,6 +56,7 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 	private String serviceId;
 	private String regexFilter;
 	private boolean markUnstable;
+	private boolean failFast;
 	private Integer printTopIssues;
 	private boolean showPassedGateEvents;
 
@@ -92,11 +86,17 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 	private Double criticalRegressionDelta;
 	private boolean applySeasonality;
 
+	private JSONObject checkBuildDelta;
+	private Integer maxAddedEvents;
+
 	// Advanced Options
 	private boolean debug;
 	private boolean errorSuccess;
 	private boolean linkReport;
 
+	// compiled regexFilter and criticalExceptionTypes, null until compiled or when invalid
+	private transient volatile EventMatcher eventMatcher;
+
 	// all settings are optional
 	@DataBoundConstructor
 	public QueryOverOps() {
@@ -106,6 +106,7 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 		this.serviceId = null;
 		this.regexFilter = null;
 		this.markUnstable = false;
+		this.failFast = false;
 		this.showPassedGateEvents = false;
 		this.printTopIssues = 5;
 
@@ -133,6 +134,9 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 		this.regressionDelta = 0d;
 		this.criticalRegressionDelta = 0d;
 
+		this.checkBuildDelta = null;
+		this.maxAddedEvents = null;
+
 		this.debug = false;
 		this.errorSuccess = false;
 		this.linkReport = false;
@@ -163,6 +167,15 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 
 		setCheckCriticalErrors(checkCriticalErrors);
 
+		setActiveTimespan(activeTimespan);
+		setBaselineTimespan(baselineTimespan);
+		setMinErrorRateThreshold(minErrorRateThreshold);
+		setMinVolumeThreshold(minVolumeThreshold);
+		setApplySeasonality(applySeasonality);
+		setRegressionDelta(regressionDelta);
+		setCriticalRegressionDelta(criticalRegressionDelta);
+		setCheckRegressionErrors(checkRegressionErrors);
+
 		setDebug(debug);
 		setLinkReport(linkReport);
 		setErrorSuccess(errorSuccess);
@@ -189,6 +202,15 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 		this.deploymentName = deploymentName;
 	}
 
+	public String getDeployments() {
+		return deployments;
+	}
+
+	@DataBoundSetter
+	public void setDeployments(String deployments) {
+		this.deployments = deployments;
+	}
+
 	public String getRegexFilter() {
 		return regexFilter;
 	}
@@ -196,6 +218,7 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 	@DataBoundSetter
 	public void setRegexFilter(String regexFilter) {
 		this.regexFilter = regexFilter;
+		compileEventMatcher();
 	}
 
 	public String getServiceId() {
@@ -332,6 +355,32 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 		this.maxErrorVolume = maxErrorVolume;
 	}
 
+	public JSONObject getCheckBuildDelta() {
+		return checkBuildDelta;
+	}
+
+	@DataBoundSetter
+	public void setCheckBuildDelta(JSONObject checkBuildDelta) {
+		this.checkBuildDelta = checkBuildDelta;
+
+		// parse JSON object to get maxAddedEvents value
+		if (checkBuildDelta != null && !checkBuildDelta.isNullObject()) {
+			String value = checkBuildDelta.getString("maxAddedEvents");
+			if (value != null && !value.isEmpty()) {
+				setMaxAddedEvents(Integer.valueOf(value));
+			}
+		}
+	}
+
+	public Integer getMaxAddedEvents() {
+		return maxAddedEvents;
+	}
+
+	@DataBoundSetter
+	public void setMaxAddedEvents(Integer maxAddedEvents) {
+		this.maxAddedEvents = maxAddedEvents;
+	}
+
 	public JSONObject getCheckCriticalErrors() {
 		return checkCriticalErrors;
 	}
@@ -352,6 +401,102 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 		return checkRegressionErrors;
 	}
 
+	@DataBoundSetter
+	public void setCheckRegressionErrors(JSONObject checkRegressionErrors) {
+		this.checkRegressionErrors = checkRegressionErrors;
+
+		// parse the JSON object to get the increasing errors gate values
+		if (checkRegressionErrors != null && !checkRegressionErrors.isNullObject()) {
+			setActiveTimespan(checkRegressionErrors.optString("activeTimespan", "12h"));
+			setBaselineTimespan(checkRegressionErrors.optString("baselineTimespan", "7d"));
+
+			String value = checkRegressionErrors.optString("minVolumeThreshold");
+			if (value != null && !value.isEmpty()) {
+				setMinVolumeThreshold(Integer.valueOf(value));
+			}
+
+			value = checkRegressionErrors.optString("minErrorRateThreshold");
+			if (value != null && !value.isEmpty()) {
+				setMinErrorRateThreshold(Double.valueOf(value));
+			}
+
+			value = checkRegressionErrors.optString("regressionDelta");
+			if (value != null && !value.isEmpty()) {
+				setRegressionDelta(Double.valueOf(value));
+			}
+
+			value = checkRegressionErrors.optString("criticalRegressionDelta");
+			if (value != null && !value.isEmpty()) {
+				setCriticalRegressionDelta(Double.valueOf(value));
+			}
+
+			setApplySeasonality(checkRegressionErrors.optBoolean("applySeasonality"));
+		}
+	}
+
+	public String getActiveTimespan() {
+		return activeTimespan;
+	}
+
+	@DataBoundSetter
+	public void setActiveTimespan(String activeTimespan) {
+		this.activeTimespan = activeTimespan;
+	}
+
+	public String getBaselineTimespan() {
+		return baselineTimespan;
+	}
+
+	@DataBoundSetter
+	public void setBaselineTimespan(String baselineTimespan) {
+		this.baselineTimespan = baselineTimespan;
+	}
+
+	public Integer getMinVolumeThreshold() {
+		return minVolumeThreshold;
+	}
+
+	@DataBoundSetter
+	public void setMinVolumeThreshold(Integer minVolumeThreshold) {
+		this.minVolumeThreshold = minVolumeThreshold;
+	}
+
+	public Double getMinErrorRateThreshold() {
+		return minErrorRateThreshold;
+	}
+
+	@DataBoundSetter
+	public void setMinErrorRateThreshold(Double minErrorRateThreshold) {
+		this.minErrorRateThreshold = minErrorRateThreshold;
+	}
+
+	public Double getRegressionDelta() {
+		return regressionDelta;
+	}
+
+	@DataBoundSetter
+	public void setRegressionDelta(Double regressionDelta) {
+		this.regressionDelta = regressionDelta;
+	}
+
+	public Double getCriticalRegressionDelta() {
+		return criticalRegressionDelta;
+	}
+
+	@DataBoundSetter
+	public void setCriticalRegressionDelta(Double criticalRegressionDelta) {
+		this.criticalRegressionDelta = criticalRegressionDelta;
+	}
+
+	public boolean getApplySeasonality() {
+		return applySeasonality;
+	}
+
+	@DataBoundSetter
+	public void setApplySeasonality(boolean applySeasonality) {
+		this.applySeasonality = applySeasonality;
+	}
+
 
 	public String getCriticalExceptionTypes() {
 		return criticalExceptionTypes;
@@ -360,6 +505,37 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 	@DataBoundSetter
 	public void setCriticalExceptionTypes(String criticalExceptionTypes) {
 		this.criticalExceptionTypes = criticalExceptionTypes;
+		compileEventMatcher();
+	}
+
+	// compile when the configuration is saved or loaded, invalid filters are reported by the form check
+	private void compileEventMatcher() {
+		try {
+			eventMatcher = EventMatcher.compile(regexFilter, criticalExceptionTypes);
+		} catch (PatternSyntaxException e) {
+			eventMatcher = null;
+		}
+	}
+
+	EventMatcher getEventMatcher() {
+		EventMatcher matcher = eventMatcher;
+
+		if (matcher == null) {
+			try {
+				matcher = EventMatcher.compile(regexFilter, criticalExceptionTypes);
+			} catch (PatternSyntaxException e) {
+				throw new IllegalArgumentException("Invalid regex filter: " + e.getMessage(), e);
+			}
+
+			eventMatcher = matcher;
+		}
+
+		return matcher;
+	}
+
+	protected Object readResolve() {
+		compileEventMatcher();
+		return this;
 	}
 
 
@@ -382,6 +558,15 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 		this.markUnstable = markUnstable;
 	}
 
+	public boolean getFailFast() {
+		return failFast;
+	}
+
+	@DataBoundSetter
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
 	public boolean getShowPassedGateEvents() {
 		return showPassedGateEvents;
 	}
@@ -405,76 +590,46 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 	public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener)
 			throws InterruptedException, IOException {
 
-		String appUrl = getDescriptor().getOverOpsAppURL();
-		String apiHost = getDescriptor().getOverOpsURL();
-		String apiKey = Secret.toString(getDescriptor().getOverOpsAPIKey());
-
-		PrintStream printStream;
-
-		//next rev need to be able to have generic logging of when we start, settings, etc.
-		if (debug) {
-			printStream = listener.getLogger();
-		} else {
-			printStream = null;
-		}
-
 		//check to see if anything prior has failed and if so, skip the OverOps Quality Check
 		Result result = run.getResult();
 		if (result != null && result.isWorseThan(Result.UNSTABLE)) {
-			printStream.println("Skipping OverOps Report due to prior build failure");
+			listener.getLogger().println("Skipping OverOps Report due to prior build failure");
 			return;
 		}
 
-        QualityReport reportModel = null;
-        ReportService reportService = new ReportService();
+		QualityGateRequest request = null;
+		QualityGateResult gateResult;
+
 		try {
-			OverOpsBuildAction buildAction;
-			validateInputs(printStream);
-			QualityReportParams query = getQualityReportParams(run,listener);
-
-			if(linkReport){
-				String reportLinkHtml = reportService.generateReportLinkHtml(appUrl, query, printStream, debug);
-				buildAction = new OverOpsBuildAction(new HtmlParts(reportLinkHtml, ""), run);
-				run.addAction(buildAction);
-				run.setResult(Result.SUCCESS);
-			}else {
-				ReportService.pauseForTheCause(listener.getLogger());
-				reportModel = reportService.runQualityReport(apiHost, apiKey, query, Requestor.JENKINS, printStream, debug);
-				buildAction = new OverOpsBuildAction(reportModel.getHtmlParts(showPassedGateEvents), run);
-				run.addAction(buildAction);
-				if (reportModel.getStatusCode() == ReportStatus.FAILED) {
-					if ((reportModel.getExceptionDetails() != null) && errorSuccess) {
-						run.setResult(Result.SUCCESS);
-					} else {
-						run.setResult(Result.UNSTABLE);
-					}
-				} else {
-					run.setResult(Result.SUCCESS);
-				}
-			}
-        } catch (Exception exception) {
-            reportModel = new QualityReport();
+			request = createRequest(run.getEnvironment(listener));
 
-            QualityReportExceptionDetails exceptionDetails = new QualityReportExceptionDetails();
-            exceptionDetails.setExceptionMessage(exception.getMessage());
+			if ((getDescriptor().getRunOnAgent()) && (workspace != null) && (workspace.isRemote())) {
+				gateResult = workspace.act(new QualityGateCallable(request, getDescriptor().getAgentSettings(),
+					getDescriptor().apiKey(), agentRoot(workspace).getRemote(), listener));
+			} else {
+				// a post-build step is neither resumed nor retried, so it keeps no checkpoint
+				gateResult = new QualityGateRunner(getDescriptor()).run(request, listener.getLogger());
+			}
+		} catch (InterruptedException exception) {
+			throw exception;
+		} catch (Exception exception) {
+			gateResult = QualityGateRunner.exceptionResult(exception, errorSuccess);
+		}
 
-            List<StackTraceElement> stackElements = Arrays.asList(exception.getStackTrace());
-            List<String> stackTrace = new ArrayList<>();
-            stackTrace.add(exception.getClass().getName());
-            stackTrace.addAll(stackElements.stream().map(stack -> stack.toString()).collect(Collectors.toList()));
-            exceptionDetails.setStackTrace(stackTrace.toArray(new String[stackTrace.size()]));
+		String reportKey = ReportFiles.reserveKey(run.getRootDir(), request);
+		gateResult = BuildDelta.apply(run, reportKey, request, gateResult, listener.getLogger());
 
-			reportModel.setExceptionDetails(exceptionDetails);
+		OverOpsBuildAction.addTo(run, reportKey, gateResult);
+		run.setResult(gateResult.getResult());
+	}
 
-			OverOpsBuildAction buildAction = new OverOpsBuildAction(reportModel.getHtmlParts(), run);
-			run.addAction(buildAction);
+	// the agent's root directory, or the workspace's parent when the node is gone
+	private static FilePath agentRoot(FilePath workspace) {
+		Computer computer = workspace.toComputer();
+		Node node = computer != null ? computer.getNode() : null;
+		FilePath root = node != null ? node.getRootPath() : null;
 
-			if (errorSuccess) {
-				run.setResult(Result.SUCCESS);
-			} else {
-				run.setResult(Result.UNSTABLE);
-			}
-        }
+		return root != null ? root : workspace.getParent();
 	}
 
 	@Override
@@ -483,8 +638,10 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 			"applicationName=" + this.applicationName + ", " +
 			"deploymentName=" + this.deploymentName + ", " +
 			"serviceId=" + this.serviceId + ", " +
+			"deployments=" + this.deployments + ", " +
 			"regexFilter=" + this.regexFilter + ", " +
 			"markUnstable=" + this.markUnstable + ", " +
+			"failFast=" + this.failFast + ", " +
 			"printTopIssues=" + this.printTopIssues + ", " +
 			"checkNewErrors=" + this.checkNewErrors + ", " +
 			"newEvents=" + this.newEvents + ", " +
@@ -504,109 +661,142 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 			"regressionDelta=" + this.regressionDelta + ", " +
 			"criticalRegressionDelta=" + this.criticalRegressionDelta + ", " +
 			"applySeasonality=" + this.applySeasonality + ", " +
+			"checkBuildDelta=" + this.checkBuildDelta + ", " +
+			"maxAddedEvents=" + this.maxAddedEvents + ", " +
 			"debug=" + this.debug + "," +
 			"linkReport=" + this.linkReport + " ]";
 	}
 
-	private QualityReportParams getQualityReportParams(Run<?, ?> run, TaskListener listener) {
+	// expand and resolve the job configuration into a quality gate request
+	QualityGateRequest createRequest(EnvVars env) {
 
-        QualityReportParams queryOverOps = new QualityReportParams();
-		try{
-			queryOverOps.setApplicationName(run.getEnvironment(listener).expand(applicationName));
-			queryOverOps.setDeploymentName(run.getEnvironment(listener).expand(deploymentName));
-		}catch(InterruptedException | IOException e){
-			throw new RuntimeException("Unexpected error replacing variables", e);
-		}
-        queryOverOps.setServiceId(serviceId);
-        queryOverOps.setRegexFilter(regexFilter);
-        queryOverOps.setMarkUnstable(markUnstable);
-        queryOverOps.setPrintTopIssues(printTopIssues);
-        queryOverOps.setNewEvents(newEvents);
-		queryOverOps.setResurfacedErrors(resurfacedErrors);
+		EventMatcher matcher = getEventMatcher();
+
+		QualityGateRequest request = new QualityGateRequest();
+		request.setJobName(env.get("JOB_NAME"));
+		request.setApplicationName(env.expand(applicationName));
+		request.setDeploymentName(env.expand(deploymentName));
+		request.setServiceId(resolveServiceId());
+		request.setRegexFilter(matcher.getRegexFilter());
+		request.setMarkUnstable(markUnstable);
+		request.setFailFast(failFast);
+		request.setPrintTopIssues(printTopIssues);
+		request.setShowPassedGateEvents(showPassedGateEvents);
+		request.setNewEvents(newEvents);
+		request.setResurfacedErrors(resurfacedErrors);
+		request.setTargets(QualityGateRequest.parseTargets(env.expand(deployments), request.getDeploymentName()));
+
+		// Pipeline sets the plain values directly, the job config form sets the optional blocks
 		if (checkVolumeErrors != null && !checkVolumeErrors.isNullObject()) {
 			String value = checkVolumeErrors.getString("maxErrorVolume");
 			if (value != null && !value.isEmpty()) {
-				queryOverOps.setMaxErrorVolume(Math.max(1, Integer.parseInt(value)));
+				request.setMaxErrorVolume(Math.max(1, Integer.parseInt(value)));
 			} else {
-				queryOverOps.setMaxErrorVolume(1);
+				request.setMaxErrorVolume(1);
 			}
-		} else {
-			queryOverOps.setMaxErrorVolume(0);
+		} else if (maxErrorVolume != null) {
+			request.setMaxErrorVolume(Math.max(0, maxErrorVolume));
 		}
 
 		if (checkUniqueErrors != null && !checkUniqueErrors.isNullObject()) {
 			String value = checkUniqueErrors.getString("maxUniqueErrors");
 			if (value != null && !value.isEmpty()) {
-				queryOverOps.setMaxUniqueErrors(Math.max(1, Integer.parseInt(value)));
+				request.setMaxUniqueErrors(Math.max(1, Integer.parseInt(value)));
 			} else {
-				queryOverOps.setMaxUniqueErrors(1);
+				request.setMaxUniqueErrors(1);
 			}
-		} else {
-			queryOverOps.setMaxUniqueErrors(0);
+		} else if (maxUniqueErrors != null) {
+			request.setMaxUniqueErrors(Math.max(0, maxUniqueErrors));
 		}
 
-		if (checkCriticalErrors != null && !checkCriticalErrors.isNullObject()) {
-			String value = checkCriticalErrors.getString("criticalExceptionTypes");
-			if (value != null && !value.isEmpty()) {
-				queryOverOps.setCriticalExceptionTypes(value);
-			} else {
-				queryOverOps.setCriticalExceptionTypes("");
-			}
+		// the form sets criticalExceptionTypes along with the optional block
+		if ((checkCriticalErrors != null && !checkCriticalErrors.isNullObject()) || (criticalExceptionTypes != null)) {
+			request.setCriticalExceptionTypes(matcher.getCriticalExceptionTypes());
 		}
 
-        queryOverOps.setActiveTimespan("0");
-        queryOverOps.setBaselineTimespan("0");
-        queryOverOps.setMinVolumeThreshold(0);
-        queryOverOps.setMinErrorRateThreshold(0);
-        queryOverOps.setRegressionDelta(0);
-        queryOverOps.setCriticalRegressionDelta(0);
-        queryOverOps.setApplySeasonality(false);
+		// the increasing errors gate needs both windows, "0" or empty leaves it disabled
+		if ((activeTimespan != null) && (baselineTimespan != null)) {
+			request.setActiveTimespan(activeTimespan);
+			request.setBaselineTimespan(baselineTimespan);
+			request.setMinVolumeThreshold(minVolumeThreshold != null ? Math.max(0, minVolumeThreshold) : 0);
+			request.setMinErrorRateThreshold(minErrorRateThreshold != null ? Math.max(0, minErrorRateThreshold) : 0);
+			request.setRegressionDelta(regressionDelta != null ? Math.max(0, regressionDelta) : 0);
+			request.setCriticalRegressionDelta(criticalRegressionDelta != null ? Math.max(0, criticalRegressionDelta) : 0);
+			request.setApplySeasonality(applySeasonality);
+		}
 
-        return queryOverOps;
-    }
+		// unlike the volume gates, 0 is a valid maximum, so the gate is off unless a value is set
+		if (checkBuildDelta != null && !checkBuildDelta.isNullObject()) {
+			request.setMaxAddedEvents(maxAddedEvents != null ? Math.max(0, maxAddedEvents) : 0);
+		} else if (maxAddedEvents != null) {
+			request.setMaxAddedEvents(Math.max(0, maxAddedEvents));
+		}
 
-	//validate inputs
-	private void validateInputs (PrintStream printStream) throws InterruptedException, IOException {
-		String apiHost = getDescriptor().getOverOpsURL();
-		String apiKey = Secret.toString(getDescriptor().getOverOpsAPIKey());
+		request.setDebug(debug);
+		request.setErrorSuccess(errorSuccess);
+		request.setLinkReport(linkReport);
 
-		if (apiHost == null) {
-			throw new IllegalArgumentException("Missing host name");
-		}
+		return request;
+	}
 
-		if (apiKey == null) {
-			throw new IllegalArgumentException("Missing api key");
-		}
+	// fall back to the global environment id when the job does not set one
+	private String resolveServiceId() {
+		String resolved = serviceId;
 
-		if ((this.serviceId == null) || (this.serviceId.isEmpty())) {
-			this.serviceId = getDescriptor().getOverOpsSID();
+		if ((resolved == null) || (resolved.isEmpty())) {
+			resolved = getDescriptor().getOverOpsSID();
 		}
 
-		if (this.serviceId == null) {
+		if (resolved == null) {
 			throw new IllegalArgumentException("Missing environment Id");
 		}
 
-		this.serviceId = this.serviceId.toUpperCase();
-
+		return resolved.toUpperCase();
 	}
 
+	// records every OverOps api call made through a shared client, and optionally prints it
 	protected static class ApiClientObserver implements Observer {
 
+		private final ApiCallMetrics metrics;
+		private final ApiRateLimiter.Bucket rateLimit;
 		private final PrintStream printStream;
 		private final boolean verbose;
 
-		public ApiClientObserver(PrintStream printStream, boolean verbose) {
+		public ApiClientObserver(ApiCallMetrics metrics, PrintStream printStream, boolean verbose) {
+			this(metrics, null, printStream, verbose);
+		}
+
+		public ApiClientObserver(ApiCallMetrics metrics, ApiRateLimiter.Bucket rateLimit, PrintStream printStream,
+				boolean verbose) {
+			this.metrics = metrics;
+			this.rateLimit = rateLimit;
 			this.printStream = printStream;
 			this.verbose = verbose;
 		}
 
 		@Override
 		public void observe(Operation operation, String url, String request, String response, int responseCode, long time) {
+			// the api client reports call time in microseconds
+			long millis = TimeUnit.MICROSECONDS.toMillis(time);
+			boolean error = (responseCode < 200) || (responseCode >= 400);
+
+			metrics.record(String.valueOf(operation), url, millis, error, length(request), length(response));
+
+			// the api client reports the status of a response but not its headers, a 429 backs off without Retry-After
+			if (rateLimit != null) {
+				rateLimit.record(1);
+				rateLimit.onResponse(responseCode);
+			}
+
+			if (printStream == null) {
+				return;
+			}
+
 			StringBuilder output = new StringBuilder();
 
 			output.append(String.valueOf(operation));
 			output.append(" took ");
-			output.append(time / 1000);
+			output.append(millis);
 			output.append("ms for ");
 			output.append(url);
 
@@ -617,6 +807,10 @@ public class QueryOverOps extends Recorder implements SimpleBuildStep {
 
 			printStream.println(output.toString());
 		}
+
+		private static long length(String body) {
+			return body != null ? body.getBytes(StandardCharsets.UTF_8).length : 0;
+		}
 	}
 
 }
@@ -0,0 +1,248 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+//QueryScheduler bounds how many quality gate queries run against OverOps at once, controller-wide
+//and per environment. Queries beyond the caps wait in a queue per job, and the queues are served
+//round-robin, so a job that starts many queries at once cannot starve the others. Queue depth and
+//wait times are exposed with the API metrics.
+
+public class QueryScheduler {
+	private final int maxConcurrent;
+	private final int maxPerEnvironment;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition granted = lock.newCondition();
+
+	// waiting queries per job, in the order the jobs are served next
+	private final LinkedHashMap<String, ArrayDeque<Ticket>> queues = new LinkedHashMap<>();
+	private final Map<String, Integer> runningPerEnvironment = new HashMap<>();
+	private int running;
+	private int waiting;
+
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong totalWaitMillis = new AtomicLong();
+	private volatile long maxWaitMillis;
+
+	public QueryScheduler(int maxConcurrent, int maxPerEnvironment) {
+		this.maxConcurrent = Math.max(1, maxConcurrent);
+		this.maxPerEnvironment = Math.max(1, maxPerEnvironment);
+	}
+
+	/**
+	 * Waits for a slot for a query of the job against the environment.
+	 * The permit must be closed when the query is done.
+	 */
+	public Permit acquire(String job, String serviceId) throws InterruptedException {
+		Ticket ticket = new Ticket(job != null ? job : "", serviceId != null ? serviceId : "");
+
+		lock.lock();
+
+		try {
+			queues.computeIfAbsent(ticket.job, key -> new ArrayDeque<>()).add(ticket);
+			waiting++;
+			dispatch();
+
+			while (!ticket.granted) {
+				try {
+					granted.await();
+				} catch (InterruptedException e) {
+					if (ticket.granted) {
+						// granted while interrupted, hand the slot back to the caller's finally
+						Thread.currentThread().interrupt();
+						break;
+					}
+
+					cancel(ticket);
+					throw e;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ticket.queuedAt);
+		acquired.incrementAndGet();
+		totalWaitMillis.addAndGet(waitMillis);
+
+		if (waitMillis > maxWaitMillis) {
+			maxWaitMillis = waitMillis;
+		}
+
+		return new Permit(ticket, waitMillis);
+	}
+
+	// grant slots while there are any, one job at a time in round-robin order
+	private void dispatch() {
+		boolean any = false;
+
+		while (running < maxConcurrent) {
+			Ticket next = null;
+
+			for (ArrayDeque<Ticket> queue : queues.values()) {
+				for (Ticket ticket : queue) {
+					if (runningPerEnvironment.getOrDefault(ticket.serviceId, 0) < maxPerEnvironment) {
+						next = ticket;
+						break;
+					}
+				}
+
+				if (next != null) {
+					break;
+				}
+			}
+
+			if (next == null) {
+				break;
+			}
+
+			ArrayDeque<Ticket> queue = queues.remove(next.job);
+			queue.remove(next);
+
+			// the job moves to the back of the line
+			if (!queue.isEmpty()) {
+				queues.put(next.job, queue);
+			}
+
+			next.granted = true;
+			waiting--;
+			running++;
+			runningPerEnvironment.merge(next.serviceId, 1, Integer::sum);
+			any = true;
+		}
+
+		if (any) {
+			granted.signalAll();
+		}
+	}
+
+	private void cancel(Ticket ticket) {
+		ArrayDeque<Ticket> queue = queues.get(ticket.job);
+
+		if ((queue != null) && (queue.remove(ticket))) {
+			waiting--;
+
+			if (queue.isEmpty()) {
+				queues.remove(ticket.job);
+			}
+		}
+	}
+
+	private void release(Ticket ticket) {
+		lock.lock();
+
+		try {
+			running--;
+			runningPerEnvironment.computeIfPresent(ticket.serviceId, (key, count) -> count > 1 ? count - 1 : null);
+
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	public int getMaxPerEnvironment() {
+		return maxPerEnvironment;
+	}
+
+	public int getQueueDepth() {
+		lock.lock();
+
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getRunning() {
+		lock.lock();
+
+		try {
+			return running;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getAcquired() {
+		return acquired.get();
+	}
+
+	public long getAverageWaitMillis() {
+		long count = acquired.get();
+		return count > 0 ? totalWaitMillis.get() / count : 0;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "running=" + getRunning() + "/" + maxConcurrent + ", queued=" + getQueueDepth() + ", started=" +
+			getAcquired() + ", avgWait=" + getAverageWaitMillis() + "ms, maxWait=" + getMaxWaitMillis() + "ms";
+	}
+
+	// Prometheus text exposition format
+	public void writePrometheus(PrintWriter out) {
+		out.println("# HELP overops_query_running Quality gate queries running against OverOps.");
+		out.println("# TYPE overops_query_running gauge");
+		out.println("overops_query_running " + getRunning());
+		out.println("# HELP overops_query_queue_depth Quality gate queries waiting for a slot.");
+		out.println("# TYPE overops_query_queue_depth gauge");
+		out.println("overops_query_queue_depth " + getQueueDepth());
+		out.println("# HELP overops_query_wait_seconds Time quality gate queries waited for a slot.");
+		out.println("# TYPE overops_query_wait_seconds summary");
+		out.println("overops_query_wait_seconds_sum " + String.format(Locale.ROOT, "%.3f", totalWaitMillis.get() / 1000d));
+		out.println("overops_query_wait_seconds_count " + getAcquired());
+	}
+
+	public final class Permit implements AutoCloseable {
+		private final Ticket ticket;
+		private final long waitMillis;
+		private boolean released;
+
+		private Permit(Ticket ticket, long waitMillis) {
+			this.ticket = ticket;
+			this.waitMillis = waitMillis;
+		}
+
+		public long getWaitMillis() {
+			return waitMillis;
+		}
+
+		@Override
+		public void close() {
+			if (!released) {
+				released = true;
+				release(ticket);
+			}
+		}
+	}
+
+	private static final class Ticket {
+		private final String job;
+		private final String serviceId;
+		private final long queuedAt = System.nanoTime();
+		private boolean granted;
+
+		private Ticket(String job, String serviceId) {
+			this.job = job;
+			this.serviceId = serviceId;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//ReadinessNotifier wakes the builds waiting for OverOps to receive data for a deployment as soon as
+//a notification for it arrives through the OverOpsWebhookAction, instead of at their next poll.
+//Notifications are kept for a while, so a build that starts waiting just after its deployment
+//was reported ready does not miss it. A notification without a deployment only makes the waiting
+//builds of the environment poll at once.
+
+public class ReadinessNotifier {
+	static final long DEFAULT_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+	// bound on the notifications kept, oldest dropped first
+	private static final int MAX_RETAINED = 10000;
+
+	private final long retentionMillis;
+
+	// time each deployment was reported ready, by environment and deployment
+	private final Map<String, Long> readyTimes = new ConcurrentHashMap<>();
+	private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong notifications = new AtomicLong();
+	private final AtomicLong wakeups = new AtomicLong();
+
+	public ReadinessNotifier() {
+		this(DEFAULT_RETENTION_MILLIS);
+	}
+
+	ReadinessNotifier(long retentionMillis) {
+		this.retentionMillis = retentionMillis;
+	}
+
+	/**
+	 * Records that OverOps has data for the deployment and wakes the builds waiting for it.
+	 * @param deploymentName null or empty for new data anywhere in the environment
+	 * @return the number of waiting builds woken
+	 */
+	public int notifyReady(String serviceId, String deploymentName) {
+		boolean deployment = (deploymentName != null) && (!deploymentName.isEmpty());
+		long now = System.currentTimeMillis();
+
+		notifications.incrementAndGet();
+
+		if (deployment) {
+			prune(now);
+			readyTimes.put(key(serviceId, deploymentName), now);
+		}
+
+		int woken = 0;
+
+		for (Waiter waiter : waiters) {
+			if ((waiter.serviceId.equals(serviceId)) && ((!deployment) || (waiter.deploymentNames.contains(deploymentName)))) {
+				waiter.wake(deployment ? deploymentName : null);
+				woken++;
+			}
+		}
+
+		wakeups.addAndGet(woken);
+
+		return woken;
+	}
+
+	/**
+	 * Registers a build waiting for the deployments. Deployments reported ready within the
+	 * retention period are ready at once.
+	 */
+	public Waiter register(String serviceId, Collection<String> deploymentNames) {
+		Waiter waiter = new Waiter(serviceId, deploymentNames);
+		long oldest = System.currentTimeMillis() - retentionMillis;
+
+		waiters.add(waiter);
+
+		// after adding the waiter, so a notification arriving meanwhile is seen either here or by the waiter
+		for (String deploymentName : deploymentNames) {
+			Long readyTime = readyTimes.get(key(serviceId, deploymentName));
+
+			if ((readyTime != null) && (readyTime >= oldest)) {
+				waiter.wake(deploymentName);
+			}
+		}
+
+		return waiter;
+	}
+
+	private void prune(long now) {
+		long oldest = now - retentionMillis;
+		readyTimes.values().removeIf(readyTime -> readyTime < oldest);
+
+		if (readyTimes.size() >= MAX_RETAINED) {
+			long cutoff = readyTimes.values().stream().sorted().skip(MAX_RETAINED / 2).findFirst().orElse(now);
+			readyTimes.values().removeIf(readyTime -> readyTime < cutoff);
+		}
+	}
+
+	private static String key(String serviceId, String deploymentName) {
+		return serviceId + "\n" + deploymentName;
+	}
+
+	public int getWaiting() {
+		return waiters.size();
+	}
+
+	@Override
+	public String toString() {
+		return waiters.size() + " builds waiting, " + notifications.get() + " notifications, " + wakeups.get() +
+			" builds woken";
+	}
+
+	/**
+	 * A build waiting for deployments. Close it when the wait is over.
+	 */
+	public final class Waiter implements AutoCloseable {
+		private final String serviceId;
+		private final Set<String> deploymentNames;
+
+		// guarded by this
+		private final Set<String> ready = new LinkedHashSet<>();
+		private boolean woken;
+
+		private Waiter(String serviceId, Collection<String> deploymentNames) {
+			this.serviceId = serviceId;
+			this.deploymentNames = Collections.unmodifiableSet(new LinkedHashSet<>(deploymentNames));
+		}
+
+		private synchronized void wake(String deploymentName) {
+			if (deploymentName != null) {
+				ready.add(deploymentName);
+			}
+
+			woken = true;
+			notifyAll();
+		}
+
+		/**
+		 * Waits until a notification arrives or the time is up.
+		 * @return the deployments reported ready since the last call, empty when the wait timed out
+		 *   or an environment notification arrived
+		 */
+		public synchronized Set<String> await(long timeoutMillis) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+			while (!woken) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+				if (remaining <= 0) {
+					break;
+				}
+
+				wait(remaining);
+			}
+
+			return drain();
+		}
+
+		// the deployments reported ready since the last call, without waiting
+		public synchronized Set<String> drain() {
+			Set<String> notified = new LinkedHashSet<>(ready);
+
+			ready.clear();
+			woken = false;
+
+			return notified;
+		}
+
+		@Override
+		public void close() {
+			waiters.remove(this);
+		}
+	}
+}
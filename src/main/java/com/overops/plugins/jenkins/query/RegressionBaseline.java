@@ -0,0 +1,454 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Util;
+import jenkins.model.Jenkins;
+
+//RegressionBaseline keeps the event volumes of one (environment, application) on the controller's
+//disk as time slices, so the regression gate only fetches the hours added since its last run.
+//Slices are fetched a day at a time while catching up and an hour at a time once up to date.
+//From the start of the active window on, slices are kept an hour long, so the active window's
+//edge never cuts through a longer slice. Complete days before it are compacted into one slice,
+//and slices that leave the window are dropped.
+
+public final class RegressionBaseline {
+	static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+	// relative to JENKINS_HOME on the controller, or to the agent root when queries run on agents
+	static final String BASELINE_DIR = "overops-query/baselines";
+
+	// version 2 added the event types
+	private static final int VERSION = 2;
+
+	// updates of the same baseline are serialized, so concurrent builds fetch each hour once.
+	// Baselines share a fixed set of locks by path hash, so the locks do not grow with the baselines.
+	private static final Object[] LOCKS = new Object[64];
+
+	static {
+		for (int i = 0; i < LOCKS.length; i++) {
+			LOCKS[i] = new Object();
+		}
+	}
+
+	// fetches the total volume of each event in [from, to)
+	interface SliceSource {
+		Map<String, EventVolume> fetch(long from, long to) throws IOException;
+	}
+
+	private final File file;
+
+	// by start time, each slice covers [start, end)
+	private final TreeMap<Long, Slice> slices = new TreeMap<>();
+	private final Map<String, String> names = new HashMap<>();
+	private final Map<String, String> types = new HashMap<>();
+
+	private int fetchedSlices;
+
+	RegressionBaseline(File file) {
+		this.file = file;
+	}
+
+	static File getDefaultDir() {
+		return new File(Jenkins.getInstance().getRootDir(), BASELINE_DIR);
+	}
+
+	static File getFile(File dir, String apiHost, String serviceId, String applicationName) {
+		String key = Util.getDigestOf(apiHost + "|" + serviceId + "|" + (applicationName != null ? applicationName : ""));
+		return new File(dir, key + ".bin");
+	}
+
+	static RegressionBaseline update(File file, SliceSource source, long now, long windowMillis) throws IOException {
+		return update(file, source, now, windowMillis, 0);
+	}
+
+	/**
+	 * Loads the stored baseline, fetches the complete hours since its last update, drops the
+	 * slices before the window and saves it.
+	 * @param windowMillis how far back from now the baseline must reach
+	 * @param activeMillis how far back from now slices are kept an hour long
+	 */
+	static RegressionBaseline update(File file, SliceSource source, long now, long windowMillis, long activeMillis)
+			throws IOException {
+		synchronized (lock(file)) {
+			RegressionBaseline baseline = new RegressionBaseline(file);
+			baseline.load();
+			baseline.refresh(source, now, windowMillis, activeMillis);
+			baseline.save();
+
+			return baseline;
+		}
+	}
+
+	void refresh(SliceSource source, long now, long windowMillis, long activeMillis) throws IOException {
+		long completeEnd = floor(now, HOUR);
+		long windowStart = floor(now - windowMillis, HOUR);
+		long hourlyStart = Math.min(completeEnd, floor(now - activeMillis, HOUR));
+
+		evictBefore(windowStart);
+		evictCoarseAfter(hourlyStart);
+
+		long from = slices.isEmpty() ? windowStart : Math.max(windowStart, getEnd());
+
+		while (from < completeEnd) {
+			long to;
+
+			if (from >= hourlyStart) {
+				to = from + HOUR;
+			} else if (completeEnd - from >= DAY) {
+				// up to the next day boundary while catching up
+				to = Math.min(hourlyStart, floor(from, DAY) + DAY);
+			} else {
+				// the remaining hours once within the last day
+				to = hourlyStart;
+			}
+
+			add(from, to, source.fetch(from, to));
+			fetchedSlices++;
+			from = to;
+		}
+
+		compact(hourlyStart);
+	}
+
+	void add(long start, long end, Map<String, EventVolume> volumes) {
+		Map<String, long[]> stats = new HashMap<>(volumes.size() * 2);
+
+		for (Map.Entry<String, EventVolume> entry : volumes.entrySet()) {
+			EventVolume volume = entry.getValue();
+			stats.put(entry.getKey(), new long[] { volume.getHits(), volume.getInvocations() });
+
+			if (volume.getName() != null) {
+				names.put(entry.getKey(), volume.getName());
+			}
+
+			if (volume.getType() != null) {
+				types.put(entry.getKey(), volume.getType());
+			}
+		}
+
+		slices.put(start, new Slice(start, end, stats));
+	}
+
+	private void evictBefore(long windowStart) {
+		for (Iterator<Slice> it = slices.values().iterator(); it.hasNext();) {
+			if (it.next().end <= windowStart) {
+				it.remove();
+			} else {
+				break;
+			}
+		}
+	}
+
+	// slices longer than an hour past the hourly start, stored before the active window reached back
+	// to them, are dropped with all later ones and fetched again an hour at a time
+	private void evictCoarseAfter(long hourlyStart) {
+		for (Slice slice : slices.values()) {
+			if ((slice.end > hourlyStart) && (slice.end - slice.start > HOUR)) {
+				slices.tailMap(slice.start, true).clear();
+				break;
+			}
+		}
+	}
+
+	// merge the slices of each complete day before the end into one
+	private void compact(long completeEnd) {
+		Map<Long, List<Slice>> days = new TreeMap<>();
+
+		for (Slice slice : slices.values()) {
+			long day = floor(slice.start, DAY);
+
+			if ((floor(slice.end - 1, DAY) == day) && (day + DAY <= completeEnd)) {
+				days.computeIfAbsent(day, key -> new ArrayList<>()).add(slice);
+			}
+		}
+
+		for (Map.Entry<Long, List<Slice>> entry : days.entrySet()) {
+			List<Slice> daySlices = entry.getValue();
+			long day = entry.getKey();
+
+			if ((daySlices.size() < 2) || (!covers(daySlices, day, day + DAY))) {
+				continue;
+			}
+
+			Map<String, long[]> merged = new HashMap<>();
+
+			for (Slice slice : daySlices) {
+				slices.remove(slice.start);
+
+				for (Map.Entry<String, long[]> stats : slice.stats.entrySet()) {
+					long[] total = merged.computeIfAbsent(stats.getKey(), key -> new long[2]);
+					total[0] += stats.getValue()[0];
+					total[1] += stats.getValue()[1];
+				}
+			}
+
+			slices.put(day, new Slice(day, day + DAY, merged));
+		}
+	}
+
+	// slices are sorted by start time
+	private static boolean covers(List<Slice> daySlices, long start, long end) {
+		long covered = start;
+
+		for (Slice slice : daySlices) {
+			if (slice.start != covered) {
+				return false;
+			}
+
+			covered = slice.end;
+		}
+
+		return covered == end;
+	}
+
+	/**
+	 * The volume of each event in [from, to). Slices that only partly overlap the range are
+	 * counted in proportion to the overlap. Ranges from an hour boundary within the active window
+	 * on only cover whole slices.
+	 */
+	Map<String, EventVolume> sum(long from, long to) {
+		Map<String, long[]> totals = new HashMap<>();
+
+		for (Slice slice : slices.values()) {
+			long overlap = Math.min(to, slice.end) - Math.max(from, slice.start);
+
+			if (overlap <= 0) {
+				continue;
+			}
+
+			double share = (double) overlap / (slice.end - slice.start);
+
+			for (Map.Entry<String, long[]> stats : slice.stats.entrySet()) {
+				long[] total = totals.computeIfAbsent(stats.getKey(), key -> new long[2]);
+				total[0] += Math.round(stats.getValue()[0] * share);
+				total[1] += Math.round(stats.getValue()[1] * share);
+			}
+		}
+
+		Map<String, EventVolume> volumes = new HashMap<>(totals.size() * 2);
+
+		for (Map.Entry<String, long[]> total : totals.entrySet()) {
+			volumes.put(total.getKey(), new EventVolume(names.get(total.getKey()), types.get(total.getKey()),
+				total.getValue()[0], total.getValue()[1]));
+		}
+
+		return volumes;
+	}
+
+	/**
+	 * The hits of one event per day in [from, to), for days with any hits.
+	 */
+	Map<Long, Long> dailyHits(String eventId, long from, long to) {
+		Map<Long, Long> days = new TreeMap<>();
+
+		for (Slice slice : slices.values()) {
+			long overlap = Math.min(to, slice.end) - Math.max(from, slice.start);
+			long[] stats = slice.stats.get(eventId);
+
+			if ((overlap <= 0) || (stats == null) || (stats[0] == 0)) {
+				continue;
+			}
+
+			long hits = Math.round(stats[0] * (double) overlap / (slice.end - slice.start));
+			days.merge(floor(slice.start, DAY), hits, Long::sum);
+		}
+
+		return days;
+	}
+
+	// the end of the last stored slice, the baseline is complete up to here
+	long getEnd() {
+		return slices.isEmpty() ? 0 : slices.lastEntry().getValue().end;
+	}
+
+	int getSliceCount() {
+		return slices.size();
+	}
+
+	int getFetchedSlices() {
+		return fetchedSlices;
+	}
+
+	String getName(String eventId) {
+		return names.get(eventId);
+	}
+
+	String getType(String eventId) {
+		return types.get(eventId);
+	}
+
+	private void load() throws IOException {
+		if (!file.isFile()) {
+			return;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+			int version = in.readInt();
+
+			if ((version != 1) && (version != VERSION)) {
+				return;
+			}
+
+			int nameCount = in.readInt();
+
+			for (int i = 0; i < nameCount; i++) {
+				names.put(in.readUTF(), in.readUTF());
+			}
+
+			int typeCount = version >= 2 ? in.readInt() : 0;
+
+			for (int i = 0; i < typeCount; i++) {
+				types.put(in.readUTF(), in.readUTF());
+			}
+
+			int sliceCount = in.readInt();
+
+			for (int i = 0; i < sliceCount; i++) {
+				long start = in.readLong();
+				long end = in.readLong();
+				int eventCount = in.readInt();
+				Map<String, long[]> stats = new HashMap<>(eventCount * 2);
+
+				for (int j = 0; j < eventCount; j++) {
+					stats.put(in.readUTF(), new long[] { in.readLong(), in.readLong() });
+				}
+
+				slices.put(start, new Slice(start, end, stats));
+			}
+		} catch (IOException e) {
+			// a damaged baseline is rebuilt from OverOps
+			slices.clear();
+			names.clear();
+			types.clear();
+		}
+	}
+
+	private void save() throws IOException {
+		File dir = file.getParentFile();
+		dir.mkdirs();
+
+		Set<String> ids = new HashSet<>();
+
+		for (Slice slice : slices.values()) {
+			ids.addAll(slice.stats.keySet());
+		}
+
+		names.keySet().retainAll(ids);
+		types.keySet().retainAll(ids);
+
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+			out.writeInt(VERSION);
+			out.writeInt(names.size());
+
+			for (Map.Entry<String, String> name : names.entrySet()) {
+				out.writeUTF(name.getKey());
+				out.writeUTF(name.getValue());
+			}
+
+			out.writeInt(types.size());
+
+			for (Map.Entry<String, String> type : types.entrySet()) {
+				out.writeUTF(type.getKey());
+				out.writeUTF(type.getValue());
+			}
+
+			out.writeInt(slices.size());
+
+			for (Slice slice : slices.values()) {
+				out.writeLong(slice.start);
+				out.writeLong(slice.end);
+				out.writeInt(slice.stats.size());
+
+				for (Map.Entry<String, long[]> stats : slice.stats.entrySet()) {
+					out.writeUTF(stats.getKey());
+					out.writeLong(stats.getValue()[0]);
+					out.writeLong(stats.getValue()[1]);
+				}
+			}
+		}
+
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static Object lock(File file) {
+		return LOCKS[Math.floorMod(file.getAbsolutePath().hashCode(), LOCKS.length)];
+	}
+
+	static long floor(long time, long unit) {
+		return time - Math.floorMod(time, unit);
+	}
+
+	private static final class Slice {
+		private final long start;
+		private final long end;
+
+		// event id to {hits, invocations}
+		private final Map<String, long[]> stats;
+
+		private Slice(long start, long end, Map<String, long[]> stats) {
+			this.start = start;
+			this.end = end;
+			this.stats = stats;
+		}
+	}
+
+	public static final class EventVolume {
+		private final String name;
+		private final String type;
+		private final long hits;
+		private final long invocations;
+
+		public EventVolume(String name, long hits, long invocations) {
+			this(name, null, hits, invocations);
+		}
+
+		public EventVolume(String name, String type, long hits, long invocations) {
+			this.name = name;
+			this.type = type;
+			this.hits = hits;
+			this.invocations = invocations;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		// the OverOps event type, such as Logged Error or Timer, null when not known
+		public String getType() {
+			return type;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getInvocations() {
+			return invocations;
+		}
+
+		EventVolume plus(EventVolume other) {
+			return new EventVolume(name != null ? name : other.name, type != null ? type : other.type, hits + other.hits,
+				invocations + other.invocations);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.overops.report.service.model.QualityGateEvent;
+import com.overops.report.service.model.QualityGateTestResults;
+import com.overops.report.service.model.QualityReport;
+import com.overops.report.service.model.QualityReport.ReportStatus;
+
+import net.sf.json.util.JSONUtils;
+
+//RegressionGate evaluates the increasing errors gate against the stored RegressionBaseline.
+//An event regressed when its error rate (hits per invocation) in the active window grew by more
+//than the regression delta over its baseline rate. Critical regressions, those above the critical
+//regression delta, fail the gate. As in report-service, a critical regression delta of 0 makes every
+//regression critical.
+//The active window starts on an hour boundary, where the baseline keeps hour long slices, so its
+//volume is never prorated from a longer slice. Events matching the job's regex filter are ignored,
+//as report-service ignores them in the other gates.
+
+final class RegressionGate {
+
+	private static final Pattern TIMESPAN = Pattern.compile("(\\d+)\\s*([dhm]?)", Pattern.CASE_INSENSITIVE);
+
+	private final QualityGateRequest request;
+	private final EventMatcher matcher;
+
+	RegressionGate(QualityGateRequest request) {
+		this.request = request;
+		this.matcher = EventMatcher.compile(request.getRegexFilter(), null);
+	}
+
+	QualityReport evaluate(File baselineFile, RegressionBaseline.SliceSource source, long now, PrintStream console)
+			throws IOException {
+		long activeMillis = parseTimespan(request.getActiveTimespan());
+		long baselineMillis = parseTimespan(request.getBaselineTimespan());
+		long activeStart = RegressionBaseline.floor(now - activeMillis, RegressionBaseline.HOUR);
+		long baselineStart = activeStart - baselineMillis;
+
+		RegressionBaseline baseline = RegressionBaseline.update(baselineFile, source, now, now - baselineStart,
+			now - activeStart);
+
+		Map<String, RegressionBaseline.EventVolume> active = baseline.sum(activeStart, now);
+		Map<String, RegressionBaseline.EventVolume> base = baseline.sum(baselineStart, activeStart);
+
+		// the current hour is incomplete, so it is fetched on every run and never stored
+		long end = baseline.getEnd();
+
+		if (end < now) {
+			for (Map.Entry<String, RegressionBaseline.EventVolume> current : source.fetch(end, now).entrySet()) {
+				active.merge(current.getKey(), current.getValue(), RegressionBaseline.EventVolume::plus);
+			}
+		}
+
+		if (console != null) {
+			console.println("OverOps regression baseline: fetched " + baseline.getFetchedSlices() + " new slices, " +
+				baseline.getSliceCount() + " stored");
+		}
+
+		List<Regression> regressions = new ArrayList<>();
+
+		for (Map.Entry<String, RegressionBaseline.EventVolume> entry : active.entrySet()) {
+			if (isFiltered(entry.getKey(), entry.getValue(), baseline)) {
+				continue;
+			}
+
+			Regression regression = regression(entry.getKey(), entry.getValue(), base.get(entry.getKey()), baseline,
+				baselineStart, activeStart);
+
+			if (regression != null) {
+				regressions.add(regression);
+			}
+		}
+
+		regressions.sort(Comparator.comparingDouble((Regression regression) -> regression.delta).reversed());
+
+		return toReport(regressions);
+	}
+
+	private Regression regression(String eventId, RegressionBaseline.EventVolume active,
+			RegressionBaseline.EventVolume base, RegressionBaseline baseline, long baselineStart, long activeStart) {
+
+		// events without a baseline are new, and left to the new errors gate
+		if ((base == null) || (base.getInvocations() == 0) || (base.getHits() == 0) || (active.getInvocations() == 0)) {
+			return null;
+		}
+
+		if (active.getHits() < request.getMinVolumeThreshold()) {
+			return null;
+		}
+
+		double activeRate = (double) active.getHits() / active.getInvocations();
+		double baseRate = (double) base.getHits() / base.getInvocations();
+
+		if (activeRate < request.getMinErrorRateThreshold()) {
+			return null;
+		}
+
+		double delta = (activeRate - baseRate) / baseRate;
+
+		if (delta <= request.getRegressionDelta()) {
+			return null;
+		}
+
+		if ((request.getApplySeasonality()) && (isSeasonal(baseline.dailyHits(eventId, baselineStart, activeStart),
+				active.getHits()))) {
+			return null;
+		}
+
+		boolean critical = delta > request.getCriticalRegressionDelta();
+		String name = active.getName() != null ? active.getName() : baseline.getName(eventId);
+
+		return new Regression(eventId, name, active.getHits(), delta, critical);
+	}
+
+	// matched against the fields of the event in the form of the OverOps API, e.g. "type":"Timer"
+	private boolean isFiltered(String eventId, RegressionBaseline.EventVolume volume, RegressionBaseline baseline) {
+		if (matcher == EventMatcher.NONE) {
+			return false;
+		}
+
+		String name = volume.getName() != null ? volume.getName() : baseline.getName(eventId);
+		String type = volume.getType() != null ? volume.getType() : baseline.getType(eventId);
+
+		return matcher.isFiltered(eventText(eventId, type, name));
+	}
+
+	static String eventText(String eventId, String type, String summary) {
+		return "{\"id\":" + JSONUtils.quote(eventId) + ",\"type\":" + JSONUtils.quote(type != null ? type : "") +
+			",\"summary\":" + JSONUtils.quote(summary != null ? summary : "") + "}";
+	}
+
+	// a matching peak, or two peaks of more than half the active volume, in the baseline are normal
+	static boolean isSeasonal(Map<Long, Long> dailyHits, long activeHits) {
+		int halfPeaks = 0;
+
+		for (long hits : dailyHits.values()) {
+			if (hits >= activeHits) {
+				return true;
+			}
+
+			if ((hits * 2 > activeHits) && (++halfPeaks >= 2)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private QualityReport toReport(List<Regression> regressions) {
+		List<QualityGateEvent> events = new ArrayList<>(regressions.size());
+		int critical = 0;
+
+		for (Regression regression : regressions) {
+			if (regression.critical) {
+				critical++;
+			}
+
+			QualityGateEvent event = new QualityGateEvent();
+			event.setEventId(regression.id);
+			event.setEventSummary((regression.critical ? "Critical regression" : "Regression") +
+				String.format(Locale.ROOT, " (+%.0f%%): ", regression.delta * 100) + regression.name);
+			event.setHits(String.valueOf(regression.hits));
+			events.add(event);
+		}
+
+		QualityGateTestResults results = new QualityGateTestResults();
+		results.setPassed(critical == 0);
+		results.setErrorCount(regressions.size());
+		results.setMessage("Increasing Errors: " + critical + " critical regressions, " +
+			(regressions.size() - critical) + " regressions");
+		results.setEvents(events);
+
+		QualityReport report = new QualityReport();
+		report.setRegressionErrorsTestResults(results);
+		report.setStatusCode(critical == 0 ? ReportStatus.PASSED : ReportStatus.FAILED);
+
+		return report;
+	}
+
+	/**
+	 * Parses a time span such as 7d, 12h or 30m. A plain number is minutes, as in v1.
+	 */
+	static long parseTimespan(String timespan) {
+		Matcher matcher = TIMESPAN.matcher(timespan != null ? timespan.trim() : "");
+
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException("Invalid time span: " + timespan);
+		}
+
+		long value = Long.parseLong(matcher.group(1));
+
+		switch (matcher.group(2).toLowerCase(Locale.ROOT)) {
+			case "d":
+				return TimeUnit.DAYS.toMillis(value);
+			case "h":
+				return TimeUnit.HOURS.toMillis(value);
+			default:
+				return TimeUnit.MINUTES.toMillis(value);
+		}
+	}
+
+	private static final class Regression {
+		private final String id;
+		private final String name;
+		private final long hits;
+		private final double delta;
+		private final boolean critical;
+
+		private Regression(String id, String name, long hits, double delta, boolean critical) {
+			this.id = id;
+			this.name = name;
+			this.hits = hits;
+			this.delta = delta;
+			this.critical = critical;
+		}
+	}
+}
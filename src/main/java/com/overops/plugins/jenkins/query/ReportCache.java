@@ -0,0 +1,174 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.overops.report.service.model.QualityReport;
+
+//ReportCache is a bounded, controller-wide cache of quality report query results.
+//Identical queries that arrive while one is in flight wait for that call instead of issuing
+//their own (single flight), and later ones reuse the result until it expires.
+
+public class ReportCache {
+	// larger reports are only shared with queries already in flight, the cache must not pin them in memory
+	static final long MAX_CACHED_EVENTS = Long.getLong(ReportCache.class.getName() + ".maxCachedEvents", 10000);
+
+	private final int maxEntries;
+	private final long ttlMillis;
+
+	// access ordered, so the eldest entry is the least recently used one
+	private final LinkedHashMap<String, CachedReport> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final ConcurrentMap<String, CompletableFuture<QualityReport>> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public ReportCache(int maxEntries, int ttlSeconds) {
+		this.maxEntries = Math.max(0, maxEntries);
+		this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(0, ttlSeconds));
+	}
+
+	public boolean isEnabled() {
+		return (maxEntries > 0) && (ttlMillis > 0);
+	}
+
+	/**
+	 * Returns the cached report for the key, joins an identical in-flight query, or runs the loader.
+	 * Reports that could not be generated, or have more than MAX_CACHED_EVENTS events, are handed
+	 * to current waiters but not cached. The returned report may be shared with other builds,
+	 * callers must treat it as read-only.
+	 */
+	public QualityReport get(String key, Callable<QualityReport> loader) throws Exception {
+		if (!isEnabled()) {
+			return loader.call();
+		}
+
+		QualityReport cached = lookup(key);
+
+		if (cached != null) {
+			hits.incrementAndGet();
+			return cached;
+		}
+
+		CompletableFuture<QualityReport> created = new CompletableFuture<>();
+		CompletableFuture<QualityReport> existing = inFlight.putIfAbsent(key, created);
+
+		if (existing != null) {
+			hits.incrementAndGet();
+			return await(existing);
+		}
+
+		misses.incrementAndGet();
+
+		try {
+			QualityReport report = loader.call();
+
+			if ((report != null) && (report.getExceptionDetails() == null) &&
+					(QualityReports.eventCount(report) <= MAX_CACHED_EVENTS)) {
+				store(key, report);
+			}
+
+			created.complete(report);
+			return report;
+		} catch (Exception e) {
+			created.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, created);
+		}
+	}
+
+	private synchronized QualityReport lookup(String key) {
+		CachedReport entry = entries.get(key);
+
+		if (entry == null) {
+			return null;
+		}
+
+		if (entry.isExpired(ttlMillis)) {
+			entries.remove(key);
+			evictions.incrementAndGet();
+			return null;
+		}
+
+		return entry.report;
+	}
+
+	private synchronized void store(String key, QualityReport report) {
+		entries.put(key, new CachedReport(report));
+
+		for (Iterator<Map.Entry<String, CachedReport>> it = entries.entrySet().iterator(); it.hasNext();) {
+			CachedReport entry = it.next().getValue();
+
+			if ((entries.size() > maxEntries) || (entry.isExpired(ttlMillis))) {
+				it.remove();
+				evictions.incrementAndGet();
+			} else {
+				break;
+			}
+		}
+	}
+
+	private static QualityReport await(CompletableFuture<QualityReport> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw (cause instanceof Exception) ? (Exception) cause : e;
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public double getHitRatio() {
+		long total = getHits() + getMisses();
+		return total == 0 ? 0d : (double) getHits() / total;
+	}
+
+	@Override
+	public String toString() {
+		return "entries=" + getSize() + ", hit ratio=" + String.format("%.2f", getHitRatio()) +
+			" (" + getHits() + "/" + (getHits() + getMisses()) + "), evictions=" + getEvictions();
+	}
+
+	private static final class CachedReport {
+		private final QualityReport report;
+		private final long created;
+
+		private CachedReport(QualityReport report) {
+			this.report = report;
+			this.created = System.currentTimeMillis();
+		}
+
+		private boolean isExpired(long ttlMillis) {
+			return System.currentTimeMillis() - created > ttlMillis;
+		}
+	}
+}
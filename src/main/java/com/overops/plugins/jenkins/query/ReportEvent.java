@@ -0,0 +1,38 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.Serializable;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+//ReportEvent is the compact form of an OverOps event that failed or was shown for a quality gate
+
+@ExportedBean(defaultVisibility = 3)
+public class ReportEvent implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String id;
+	private final String name;
+	private final long volume;
+
+	public ReportEvent(String id, String name, long volume) {
+		this.id = id;
+		this.name = name;
+		this.volume = volume;
+	}
+
+	@Exported
+	public String getId() {
+		return id;
+	}
+
+	@Exported
+	public String getName() {
+		return name;
+	}
+
+	@Exported
+	public long getVolume() {
+		return volume;
+	}
+}
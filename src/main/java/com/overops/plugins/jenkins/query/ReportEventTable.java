@@ -0,0 +1,441 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.json.util.JSONUtils;
+
+//ReportEventTable holds the event rows of a stored quality report, read from its ReportJson file,
+//for the report page to fetch one page at a time. Filtering, sorting and paging are done here,
+//so the page only ever receives the rows it shows. The file is read as a stream, once per build:
+//the build action keeps the table for the following page requests.
+
+public final class ReportEventTable {
+	static final int DEFAULT_PAGE_SIZE = 25;
+	static final int MAX_PAGE_SIZE = 100;
+
+	private final List<Row> rows;
+	private final List<String> gates;
+
+	private ReportEventTable(List<Row> rows, List<String> gates) {
+		this.rows = rows;
+		this.gates = gates;
+	}
+
+	/**
+	 * Reads the event rows of a report stored in the build directory.
+	 * @param reportKey null for a report stored without a key
+	 * @return null when the build has no such report
+	 */
+	static ReportEventTable load(File buildDir, String reportKey) throws IOException {
+		File file = ReportFiles.file(buildDir, ReportJson.JSON_FILE, reportKey);
+
+		if (!file.isFile()) {
+			return null;
+		}
+
+		List<Row> rows = new ArrayList<>();
+		Set<String> gates = new LinkedHashSet<>();
+
+		try (Reader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file.toPath())),
+				StandardCharsets.UTF_8))) {
+			JsonReader json = new JsonReader(reader);
+
+			json.readObject(key -> {
+				if ("gates".equals(key)) {
+					json.readArray(() -> readGate(json, rows, gates));
+				} else {
+					json.skipValue();
+				}
+			});
+		}
+
+		return new ReportEventTable(rows, Collections.unmodifiableList(new ArrayList<>(gates)));
+	}
+
+	// ReportJson writes the name of a gate before its events
+	private static void readGate(JsonReader json, List<Row> rows, Set<String> gates) throws IOException {
+		String[] gateName = {""};
+
+		json.readObject(key -> {
+			if ("name".equals(key)) {
+				gateName[0] = json.readString();
+			} else if ("events".equals(key)) {
+				json.readArray(() -> {
+					rows.add(readEvent(json, gateName[0]));
+					gates.add(gateName[0]);
+				});
+			} else {
+				json.skipValue();
+			}
+		});
+	}
+
+	private static Row readEvent(JsonReader json, String gateName) throws IOException {
+		String[] text = {"", ""};
+		long[] volume = {0L};
+
+		json.readObject(key -> {
+			if ("id".equals(key)) {
+				text[0] = json.readString();
+			} else if ("name".equals(key)) {
+				text[1] = json.readString();
+			} else if ("volume".equals(key)) {
+				volume[0] = json.readLong();
+			} else {
+				json.skipValue();
+			}
+		});
+
+		return new Row(gateName, text[0], text[1], volume[0]);
+	}
+
+	public int size() {
+		return rows.size();
+	}
+
+	// gates that have events, in report order
+	public List<String> getGates() {
+		return gates;
+	}
+
+	/**
+	 * One page of the rows of a gate, or of all gates, that match the filter.
+	 * @param gate null or empty for all gates
+	 * @param filter matched case-insensitively against event names and ids, null or empty for all events
+	 * @param sort volume, name, id or gate; volume when unknown
+	 */
+	public Page query(String gate, String filter, String sort, boolean descending, int start, int limit) {
+		String needle = ((filter != null) && (!filter.trim().isEmpty())) ? filter.trim().toLowerCase(Locale.ROOT) : null;
+		List<Row> matches = new ArrayList<>();
+
+		for (Row row : rows) {
+			if ((gate != null) && (!gate.isEmpty()) && (!gate.equals(row.gate))) {
+				continue;
+			}
+
+			if ((needle != null) && (!row.matches(needle))) {
+				continue;
+			}
+
+			matches.add(row);
+		}
+
+		Comparator<Row> comparator = comparator(sort);
+		matches.sort(descending ? comparator.reversed() : comparator);
+
+		int from = Math.min(Math.max(0, start), matches.size());
+		int to = Math.min(from + Math.max(1, Math.min(limit, MAX_PAGE_SIZE)), matches.size());
+
+		return new Page(matches.size(), from, new ArrayList<>(matches.subList(from, to)));
+	}
+
+	// ties are broken by gate and id, so pages do not overlap
+	private static Comparator<Row> comparator(String sort) {
+		Comparator<Row> primary;
+
+		if ("name".equals(sort)) {
+			primary = Comparator.comparing(row -> row.name, String.CASE_INSENSITIVE_ORDER);
+		} else if ("id".equals(sort)) {
+			primary = Comparator.comparing(row -> row.id);
+		} else if ("gate".equals(sort)) {
+			primary = Comparator.comparing(row -> row.gate);
+		} else {
+			primary = Comparator.comparingLong(row -> row.volume);
+		}
+
+		return primary.thenComparing(row -> row.gate).thenComparing(row -> row.id);
+	}
+
+	// a pull reader for the ReportJson file, so a large report is never held as one string or JSON tree
+	private static final class JsonReader {
+		private final Reader reader;
+
+		// the next character, -1 at the end
+		private int next;
+
+		private JsonReader(Reader reader) throws IOException {
+			this.reader = reader;
+			this.next = reader.read();
+		}
+
+		void readObject(FieldReader fieldReader) throws IOException {
+			expect('{');
+
+			if (consume('}')) {
+				return;
+			}
+
+			do {
+				String key = readString();
+				expect(':');
+				fieldReader.read(key);
+			} while (consume(','));
+
+			expect('}');
+		}
+
+		void readArray(ElementReader elementReader) throws IOException {
+			expect('[');
+
+			if (consume(']')) {
+				return;
+			}
+
+			do {
+				elementReader.read();
+			} while (consume(','));
+
+			expect(']');
+		}
+
+		// null reads as an empty string
+		String readString() throws IOException {
+			if (peek() != '"') {
+				readLiteral();
+				return "";
+			}
+
+			advance();
+
+			StringBuilder text = new StringBuilder();
+
+			while (true) {
+				int c = advance();
+
+				if (c == '"') {
+					return text.toString();
+				}
+
+				if (c != '\\') {
+					text.append((char) c);
+					continue;
+				}
+
+				int escaped = advance();
+
+				switch (escaped) {
+					case 'b':
+						text.append('\b');
+						break;
+					case 'f':
+						text.append('\f');
+						break;
+					case 'n':
+						text.append('\n');
+						break;
+					case 'r':
+						text.append('\r');
+						break;
+					case 't':
+						text.append('\t');
+						break;
+					case 'u':
+						char[] hex = {(char) advance(), (char) advance(), (char) advance(), (char) advance()};
+
+						try {
+							text.append((char) Integer.parseInt(new String(hex), 16));
+						} catch (NumberFormatException e) {
+							throw error("invalid escape");
+						}
+
+						break;
+					default:
+						text.append((char) escaped);
+				}
+			}
+		}
+
+		long readLong() throws IOException {
+			String literal = readLiteral();
+
+			try {
+				return Long.parseLong(literal);
+			} catch (NumberFormatException e) {
+				return "null".equals(literal) ? 0L : (long) Double.parseDouble(literal);
+			}
+		}
+
+		void skipValue() throws IOException {
+			int c = peek();
+
+			if (c == '{') {
+				readObject(key -> skipValue());
+			} else if (c == '[') {
+				readArray(this::skipValue);
+			} else if (c == '"') {
+				readString();
+			} else {
+				readLiteral();
+			}
+		}
+
+		// a number, true, false or null
+		private String readLiteral() throws IOException {
+			StringBuilder literal = new StringBuilder();
+			int c = peek();
+
+			while ((c >= 0) && (",:]} \t\r\n".indexOf(c) < 0) && (c != '{') && (c != '[') && (c != '"')) {
+				literal.append((char) advance());
+				c = next;
+			}
+
+			if (literal.length() == 0) {
+				throw error("value expected");
+			}
+
+			return literal.toString();
+		}
+
+		private void expect(char c) throws IOException {
+			if (!consume(c)) {
+				throw error("'" + c + "' expected");
+			}
+		}
+
+		private boolean consume(char c) throws IOException {
+			if (peek() != c) {
+				return false;
+			}
+
+			advance();
+			return true;
+		}
+
+		// the next character that is not white space, without reading it
+		private int peek() throws IOException {
+			while ((next == ' ') || (next == '\t') || (next == '\r') || (next == '\n')) {
+				next = reader.read();
+			}
+
+			return next;
+		}
+
+		private int advance() throws IOException {
+			int c = next;
+
+			if (c < 0) {
+				throw error("unexpected end");
+			}
+
+			next = reader.read();
+			return c;
+		}
+
+		private IOException error(String message) {
+			return new IOException("Malformed " + ReportJson.JSON_FILE + ": " + message);
+		}
+	}
+
+	private interface FieldReader {
+		void read(String key) throws IOException;
+	}
+
+	private interface ElementReader {
+		void read() throws IOException;
+	}
+
+	public static final class Page {
+		private final int total;
+		private final int start;
+		private final List<Row> rows;
+
+		private Page(int total, int start, List<Row> rows) {
+			this.total = total;
+			this.start = start;
+			this.rows = rows;
+		}
+
+		public int getTotal() {
+			return total;
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		public List<Row> getRows() {
+			return rows;
+		}
+
+		void write(Writer writer) throws IOException {
+			writer.write("{\"total\":");
+			writer.write(String.valueOf(total));
+			writer.write(",\"start\":");
+			writer.write(String.valueOf(start));
+			writer.write(",\"rows\":[");
+
+			for (int i = 0; i < rows.size(); i++) {
+				Row row = rows.get(i);
+
+				if (i > 0) {
+					writer.write(',');
+				}
+
+				writer.write("{\"gate\":");
+				writer.write(JSONUtils.quote(row.gate));
+				writer.write(",\"id\":");
+				writer.write(JSONUtils.quote(row.id));
+				writer.write(",\"name\":");
+				writer.write(JSONUtils.quote(row.name));
+				writer.write(",\"volume\":");
+				writer.write(String.valueOf(row.volume));
+				writer.write('}');
+			}
+
+			writer.write("]}");
+		}
+	}
+
+	public static final class Row {
+		private final String gate;
+		private final String id;
+		private final String name;
+		private final long volume;
+
+		// lower-cased once, every filtered query scans all rows
+		private final String searchText;
+
+		private Row(String gate, String id, String name, long volume) {
+			this.gate = gate;
+			this.id = id;
+			this.name = name;
+			this.volume = volume;
+			this.searchText = (name + "\n" + id).toLowerCase(Locale.ROOT);
+		}
+
+		private boolean matches(String needle) {
+			return searchText.contains(needle);
+		}
+
+		public String getGate() {
+			return gate;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getVolume() {
+			return volume;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+
+import hudson.Util;
+
+//ReportFiles names the files a quality report keeps in its build directory. Each report of a build
+//has a key of its own, so the reports of several quality gate steps in one build stay apart. The
+//key starts with a digest of the environment and applications checked, so a gate finds its own
+//files in other builds; a further report of the same gate in the build gets a numbered key.
+//Reports stored before reports had keys use the plain file names.
+
+final class ReportFiles {
+
+	private ReportFiles() {
+	}
+
+	/**
+	 * Reserves a key for a new report of the build, by creating its HTML file.
+	 * @param request null when the request could not be created
+	 */
+	static String reserveKey(File buildDir, QualityGateRequest request) throws IOException {
+		String gate = gateDigest(request);
+
+		for (int occurrence = 1; ; occurrence++) {
+			String key = occurrence == 1 ? gate : gate + "-" + occurrence;
+
+			try {
+				Files.createFile(file(buildDir, OverOpsBuildAction.HTML_FILE, key).toPath());
+				return key;
+			} catch (FileAlreadyExistsException e) {
+				// taken by an earlier report of the same gate
+			}
+		}
+	}
+
+	/**
+	 * The file of a report.
+	 * @param key null for a report stored without a key
+	 */
+	static File file(File buildDir, String fileName, String key) {
+		if (key == null) {
+			return new File(buildDir, fileName);
+		}
+
+		int extension = fileName.indexOf('.');
+		return new File(buildDir, fileName.substring(0, extension) + "-" + key + fileName.substring(extension));
+	}
+
+	private static String gateDigest(QualityGateRequest request) {
+		StringBuilder gate = new StringBuilder();
+
+		if (request != null) {
+			gate.append(request.getServiceId()).append('\n').append(request.getApplicationName());
+
+			for (QualityGateRequest.Target target : request.getTargets()) {
+				gate.append('\n').append(target.getApplicationName());
+			}
+		}
+
+		return Util.getDigestOf(gate.toString()).substring(0, 8);
+	}
+}
@@ -0,0 +1,71 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.json.util.JSONUtils;
+
+//ReportJson writes the machine readable form of a quality report to the build directory.
+//It is written straight to a compressed stream, one gate at a time, with every event of each gate
+//copied from its EventArchive, so large reports are never built up as a JSON tree in memory.
+//Events carry their volume but no error rate: report-service only returns the hit count of an
+//event, not the invocations of its location, so a rate cannot be derived for the event gates.
+//The rate change found by the regression gate is part of the event name instead.
+
+public final class ReportJson {
+	static final String JSON_FILE = "overops-report.json.gz";
+
+	private ReportJson() {
+	}
+
+	public static void write(File buildDir, String reportKey, ReportSummary summary, EventArchive events)
+			throws IOException {
+		try (OutputStream out = Files.newOutputStream(ReportFiles.file(buildDir, JSON_FILE, reportKey).toPath());
+				Writer writer = new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8)) {
+			write(writer, summary, events);
+		}
+	}
+
+	static void write(Writer writer, ReportSummary summary, EventArchive events) throws IOException {
+		writer.write("{\"status\":");
+		writer.write(JSONUtils.quote(summary.getStatus()));
+		writer.write(",\"gates\":[");
+
+		boolean firstGate = true;
+
+		for (ReportSummary.GateSummary gate : summary.getGates()) {
+			if (!firstGate) {
+				writer.write(',');
+			}
+
+			firstGate = false;
+
+			writer.write("{\"name\":");
+			writer.write(JSONUtils.quote(gate.getName()));
+			writer.write(",\"passed\":");
+			writer.write(String.valueOf(gate.isPassed()));
+			writer.write(",\"skipped\":");
+			writer.write(String.valueOf(gate.isSkipped()));
+			writer.write(",\"errorCount\":");
+			writer.write(String.valueOf(gate.getErrorCount()));
+			writer.write(",\"message\":");
+			writer.write(JSONUtils.quote(gate.getMessage()));
+			writer.write(",\"durationMillis\":");
+			writer.write(String.valueOf(gate.getDurationMillis()));
+			writer.write(",\"eventVolume\":");
+			writer.write(String.valueOf(gate.getEventVolume()));
+			writer.write(",\"events\":[");
+
+			events.write(writer, gate.getName());
+			writer.write("]}");
+		}
+
+		writer.write("]}");
+	}
+}
@@ -0,0 +1,117 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+
+//ReportStylesheetAction stores the quality report CSS once per distinct content and serves it
+//from an immutable, cacheable URL. Builds keep only the content hash, so the stylesheet is
+//neither copied into every build nor inlined into every report page.
+
+@Extension
+public class ReportStylesheetAction implements RootAction {
+	static final String URL_NAME = "overops-query-css";
+
+	private static final Pattern PATH = Pattern.compile("/([0-9a-f]{64})\\.css");
+
+	/**
+	 * Stores the stylesheet if this content has not been seen before.
+	 * @param css
+	 * @return the content hash to reference the stylesheet by, or null for an empty stylesheet
+	 */
+	public static String store(String css) throws IOException {
+		if ((css == null) || (css.isEmpty())) {
+			return null;
+		}
+
+		byte[] content = css.getBytes(StandardCharsets.UTF_8);
+		String hash = sha256(content);
+		File file = getFile(hash);
+
+		if (!file.isFile()) {
+			File dir = file.getParentFile();
+			dir.mkdirs();
+
+			// write then rename, concurrent builds may store the same content
+			File tmp = File.createTempFile(hash, ".tmp", dir);
+			Files.write(tmp.toPath(), content);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		return hash;
+	}
+
+	static File getFile(String hash) {
+		return new File(new File(Jenkins.getInstance().getRootDir(), "overops-query/css"), hash + ".css");
+	}
+
+	private static String sha256(byte[] content) {
+		try {
+			return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		Matcher matcher = PATH.matcher(req.getRestOfPath());
+
+		if (!matcher.matches()) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		String hash = matcher.group(1);
+		File file = getFile(hash);
+
+		if (!file.isFile()) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		// the url is derived from the content, so it never changes
+		String etag = "\"" + hash + "\"";
+		rsp.setHeader("ETag", etag);
+		rsp.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+
+		if (etag.equals(req.getHeader("If-None-Match"))) {
+			rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		rsp.setContentType("text/css;charset=UTF-8");
+		rsp.setContentLength((int) file.length());
+		Files.copy(file.toPath(), rsp.getOutputStream());
+	}
+
+	@Override
+	public String getIconFileName() {
+		return null;
+	}
+
+	@Override
+	public String getDisplayName() {
+		return null;
+	}
+
+	@Override
+	public String getUrlName() {
+		return URL_NAME;
+	}
+}
@@ -0,0 +1,268 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import hudson.model.Result;
+
+//ReportSummary is the small part of a quality report kept with the build: overall status and per gate results.
+//The summary of a batched gate also holds one section per application/deployment pair.
+//The rendered report itself is stored in the build directory.
+
+@ExportedBean
+public class ReportSummary implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public static final String STATUS_ERROR = "ERROR";
+	public static final String STATUS_LINK = "LINK";
+
+	// severity of each status, for the status of a batched gate
+	private static final List<String> STATUS_ORDER = Arrays.asList(STATUS_LINK, "PASSED", "WARNING", "FAILED", STATUS_ERROR);
+
+	private final String status;
+	private final List<GateSummary> gates;
+
+	// set for the sections of a batched gate
+	private String name;
+	private List<ReportSummary> sections;
+
+	public ReportSummary(String status, List<GateSummary> gates) {
+		this.status = status;
+		this.gates = new ArrayList<>(gates);
+	}
+
+	/**
+	 * Combines the summaries of a batched gate. Each gate counts the errors of all sections
+	 * and passes only when it passed in every section.
+	 * @param sections named summaries, one per application/deployment pair
+	 */
+	public static ReportSummary aggregate(List<ReportSummary> sections) {
+		Map<String, List<GateSummary>> byName = new LinkedHashMap<>();
+		String status = null;
+
+		for (ReportSummary section : sections) {
+			status = worstStatus(status, section.getStatus());
+
+			for (GateSummary gate : section.gates) {
+				byName.computeIfAbsent(gate.getName(), key -> new ArrayList<>()).add(gate);
+			}
+		}
+
+		List<GateSummary> gates = new ArrayList<>(byName.size());
+
+		for (Map.Entry<String, List<GateSummary>> entry : byName.entrySet()) {
+			gates.add(GateSummary.aggregate(entry.getKey(), entry.getValue()));
+		}
+
+		ReportSummary summary = new ReportSummary(status != null ? status : STATUS_ERROR, gates);
+		summary.sections = new ArrayList<>(sections);
+
+		return summary;
+	}
+
+	/**
+	 * The summary of a report stored before reports had one, which kept only the rendered report.
+	 * Its gates are not known, its status follows the result of the build.
+	 */
+	public static ReportSummary legacy(Result result) {
+		String status;
+
+		if (result == Result.SUCCESS) {
+			status = "PASSED";
+		} else if (result == Result.UNSTABLE) {
+			status = "FAILED";
+		} else {
+			status = STATUS_ERROR;
+		}
+
+		return new ReportSummary(status, Collections.emptyList());
+	}
+
+	static String worstStatus(String first, String second) {
+		if (first == null) {
+			return second;
+		}
+
+		// statuses this version does not know are ranked with WARNING
+		int firstRank = STATUS_ORDER.contains(first) ? STATUS_ORDER.indexOf(first) : 2;
+		int secondRank = STATUS_ORDER.contains(second) ? STATUS_ORDER.indexOf(second) : 2;
+
+		return secondRank > firstRank ? second : first;
+	}
+
+	/**
+	 * A copy of this summary with an additional gate, evaluated by the plugin after the report.
+	 */
+	ReportSummary withGate(GateSummary gate, String gateStatus) {
+		List<GateSummary> withGate = new ArrayList<>(gates);
+		withGate.add(gate);
+
+		ReportSummary summary = new ReportSummary(worstStatus(status, gateStatus), withGate);
+		summary.name = name;
+		summary.sections = sections;
+
+		return summary;
+	}
+
+	ReportSummary named(String name) {
+		this.name = name;
+		return this;
+	}
+
+	@Exported
+	public String getName() {
+		return name;
+	}
+
+	@Exported(inline = true)
+	public List<ReportSummary> getSections() {
+		return sections != null ? Collections.unmodifiableList(sections) : Collections.emptyList();
+	}
+
+	@Exported
+	public String getStatus() {
+		return status;
+	}
+
+	@Exported(inline = true)
+	public List<GateSummary> getGates() {
+		return Collections.unmodifiableList(gates);
+	}
+
+	public GateSummary getGate(String name) {
+		for (GateSummary gate : gates) {
+			if (gate.getName().equals(name)) {
+				return gate;
+			}
+		}
+
+		return null;
+	}
+
+	@Exported
+	public int getFailedGateCount() {
+		int failed = 0;
+
+		for (GateSummary gate : gates) {
+			if (!gate.isPassed()) {
+				failed++;
+			}
+		}
+
+		return failed;
+	}
+
+	@ExportedBean(defaultVisibility = 2)
+	public static class GateSummary implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final boolean passed;
+		private final long errorCount;
+		private final String message;
+		private final long durationMillis;
+		private final long eventVolume;
+
+		// not evaluated, an earlier gate already failed the build
+		private boolean skipped;
+
+		public GateSummary(String name, boolean passed, long errorCount, String message, long durationMillis,
+				long eventVolume) {
+			this.name = name;
+			this.passed = passed;
+			this.errorCount = errorCount;
+			this.message = message;
+			this.durationMillis = durationMillis;
+			this.eventVolume = eventVolume;
+		}
+
+		// a skipped gate does not count as failed
+		static GateSummary skipped(String name) {
+			GateSummary gate = new GateSummary(name, true, 0, name + ": skipped, an earlier gate already failed the build", 0, 0);
+			gate.skipped = true;
+
+			return gate;
+		}
+
+		@Exported
+		public String getName() {
+			return name;
+		}
+
+		@Exported
+		public boolean isPassed() {
+			return passed;
+		}
+
+		@Exported
+		public long getErrorCount() {
+			return errorCount;
+		}
+
+		@Exported
+		public String getMessage() {
+			return message;
+		}
+
+		// the sections of a batched gate are evaluated in parallel, so the slowest sets its duration
+		static GateSummary aggregate(String name, List<GateSummary> gates) {
+			boolean passed = true;
+			long errorCount = 0;
+			long durationMillis = 0;
+			long eventVolume = 0;
+			int failed = 0;
+			int skipped = 0;
+
+			for (GateSummary gate : gates) {
+				if (gate.skipped) {
+					skipped++;
+					continue;
+				}
+
+				passed &= gate.passed;
+				errorCount += gate.errorCount;
+				durationMillis = Math.max(durationMillis, gate.durationMillis);
+				eventVolume += gate.eventVolume;
+
+				if (!gate.passed) {
+					failed++;
+				}
+			}
+
+			if (skipped == gates.size()) {
+				return skipped(name);
+			}
+
+			String message = gates.size() == 1 ? gates.get(0).message :
+				name + ": failed for " + failed + " of " + gates.size() + " deployments" +
+				(skipped > 0 ? ", skipped for " + skipped : "");
+
+			return new GateSummary(name, passed, errorCount, message, durationMillis, eventVolume);
+		}
+
+		// wall-clock time of the OverOps query the gate was evaluated in
+		@Exported
+		public long getDurationMillis() {
+			return durationMillis;
+		}
+
+		// total hits of all the gate's events, including those not kept with the report
+		@Exported
+		public long getEventVolume() {
+			return eventVolume;
+		}
+
+		@Exported
+		public boolean isSkipped() {
+			return skipped;
+		}
+	}
+}
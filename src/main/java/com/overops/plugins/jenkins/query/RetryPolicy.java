@@ -0,0 +1,102 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import com.overops.report.service.model.QualityReport;
+
+//RetryPolicy re-runs a quality report query that failed for a transient reason: an I/O error,
+//a timeout, or an HTTP 429 or 5xx response. report-service turns most failures into a report
+//with exception details, so both thrown exceptions and such reports are inspected. Retries back
+//off exponentially with jitter.
+
+public class RetryPolicy {
+	static final RetryPolicy NONE = new RetryPolicy(0, 0);
+
+	private static final Pattern TRANSIENT = Pattern.compile(
+		"\\b(429|500|502|503|504)\\b|timed? ?out|connection (reset|refused)|temporarily unavailable",
+		Pattern.CASE_INSENSITIVE);
+
+	private static final long MAX_DELAY_MILLIS = 60000;
+
+	private final int retries;
+	private final long initialDelayMillis;
+
+	public RetryPolicy(int retries, long initialDelayMillis) {
+		this.retries = Math.max(0, retries);
+		this.initialDelayMillis = Math.max(0, initialDelayMillis);
+	}
+
+	/**
+	 * Runs the query, retrying transient failures.
+	 * @param what describes the query in the build log
+	 * @return the first report that is not a transient failure, or the last one
+	 */
+	public QualityReport call(Callable<QualityReport> query, String what, PrintStream console) throws Exception {
+		long delay = initialDelayMillis;
+
+		for (int attempt = 0;; attempt++) {
+			String failure;
+
+			try {
+				QualityReport report = query.call();
+
+				if ((attempt >= retries) || (report == null) || (report.getExceptionDetails() == null) ||
+						(!isTransient(report.getExceptionDetails().getExceptionMessage()))) {
+					return report;
+				}
+
+				failure = report.getExceptionDetails().getExceptionMessage();
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				if ((attempt >= retries) || (!isTransient(e))) {
+					throw e;
+				}
+
+				failure = String.valueOf(e.getMessage());
+			}
+
+			long sleep = withJitter(delay);
+
+			if (console != null) {
+				console.println("OverOps " + what + " failed (" + failure + "), retrying in " + sleep + "ms (" +
+					(attempt + 1) + " of " + retries + ")");
+			}
+
+			Thread.sleep(sleep);
+			delay = Math.min(delay * 2, MAX_DELAY_MILLIS);
+		}
+	}
+
+	static boolean isTransient(Throwable throwable) {
+		for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+			if ((cause instanceof IOException) || (isTransient(cause.getMessage()))) {
+				return true;
+			}
+
+			if (cause.getCause() == cause) {
+				break;
+			}
+		}
+
+		return false;
+	}
+
+	static boolean isTransient(String message) {
+		return (message != null) && (TRANSIENT.matcher(message).find());
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	// equal jitter: keep half of the delay and randomize the other half
+	private static long withJitter(long delay) {
+		long half = delay / 2;
+		return half + ThreadLocalRandom.current().nextLong(half + 1);
+	}
+}
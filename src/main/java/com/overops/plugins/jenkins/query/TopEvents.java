@@ -0,0 +1,73 @@
+package com.overops.plugins.jenkins.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.overops.report.service.model.QualityGateEvent;
+
+//TopEvents keeps the highest volume events of a gate in a heap bounded by the limit, and counts
+//every event it is offered. Events that do not make the cut are never copied, so the memory
+//used is independent of how many events a gate reports.
+
+final class TopEvents {
+
+	// highest volume first, ties broken by id so the selection is stable
+	static final Comparator<ReportEvent> BY_VOLUME = Comparator.comparingLong(ReportEvent::getVolume).reversed()
+		.thenComparing(ReportEvent::getId);
+
+	private final int limit;
+
+	// the smallest retained event is at the head
+	private final PriorityQueue<ReportEvent> heap;
+
+	private long count;
+	private long volume;
+
+	TopEvents(int limit) {
+		this.limit = Math.max(0, limit);
+		this.heap = new PriorityQueue<>(Math.max(1, Math.min(this.limit, 1024)), BY_VOLUME.reversed());
+	}
+
+	void offer(QualityGateEvent event) {
+		long hits = QualityReports.toLong(event.getHits());
+
+		count++;
+		volume += hits;
+
+		if (limit == 0) {
+			return;
+		}
+
+		if (heap.size() < limit) {
+			heap.add(QualityReports.toReportEvent(event, hits));
+			return;
+		}
+
+		ReportEvent smallest = heap.peek();
+
+		// compare before creating the event, most events of a large gate are rejected here
+		if ((hits > smallest.getVolume()) || ((hits == smallest.getVolume()) &&
+				(String.valueOf(event.getEventId()).compareTo(smallest.getId()) < 0))) {
+			heap.poll();
+			heap.add(QualityReports.toReportEvent(event, hits));
+		}
+	}
+
+	long getCount() {
+		return count;
+	}
+
+	long getVolume() {
+		return volume;
+	}
+
+	// highest volume first
+	List<ReportEvent> toList() {
+		List<ReportEvent> events = new ArrayList<>(heap);
+		Collections.sort(events, BY_VOLUME);
+		return events;
+	}
+}
@@ -0,0 +1,332 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+//TrendIndex is an append-only file in the job directory with one fixed size record of gate
+//metrics per build. The job level trend is read from it without loading any build.
+//The index is rewritten without a build's record when the build is deleted, so it only grows
+//with the builds the job keeps. A record cut short by a crash is dropped by the next append.
+
+public final class TrendIndex {
+	private static final Logger LOGGER = Logger.getLogger(TrendIndex.class.getName());
+
+	static final String INDEX_FILE = "overops-trend.bin";
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4;
+
+	static final byte STATUS_PASSED = 0;
+	static final byte STATUS_FAILED = 1;
+	static final byte STATUS_ERROR = 2;
+	static final byte STATUS_OTHER = 3;
+
+	// appends to the same job's index are serialized, jobs share a fixed number of locks
+	private static final Object[] LOCKS = new Object[64];
+
+	static {
+		for (int i = 0; i < LOCKS.length; i++) {
+			LOCKS[i] = new Object();
+		}
+	}
+
+	private TrendIndex() {
+	}
+
+	public static void append(Run<?, ?> run, ReportSummary summary) throws IOException {
+		append(run.getParent(), Record.of(run, summary));
+	}
+
+	static void append(Job<?, ?> job, Record record) throws IOException {
+		append(getFile(job), record);
+	}
+
+	static void append(File file, Record record) throws IOException {
+		synchronized (lock(file)) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				long size = channel.size();
+				boolean created = size < HEADER_SIZE;
+
+				// append after the last whole record, not after the part of one
+				long end = created ? 0 : HEADER_SIZE + (size - HEADER_SIZE) / Record.SIZE * Record.SIZE;
+
+				if (end < size) {
+					channel.truncate(end);
+				}
+
+				channel.position(end);
+
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+				if (created) {
+					out.writeInt(VERSION);
+				}
+
+				record.write(out);
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Reads the index, keyed by build number. A build appended more than once keeps its last record.
+	 */
+	public static SortedMap<Integer, Record> read(Job<?, ?> job) throws IOException {
+		return read(getFile(job));
+	}
+
+	static SortedMap<Integer, Record> read(File file) throws IOException {
+		SortedMap<Integer, Record> records = new TreeMap<>();
+
+		if (!file.isFile()) {
+			return records;
+		}
+
+		synchronized (lock(file)) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+				if (in.readInt() != VERSION) {
+					return records;
+				}
+
+				while (true) {
+					Record record;
+
+					try {
+						record = Record.read(in);
+					} catch (EOFException e) {
+						// end of file, or a record cut short by a crash
+						break;
+					}
+
+					records.put(record.getBuildNumber(), record);
+				}
+			} catch (EOFException e) {
+				return records;
+			}
+		}
+
+		return records;
+	}
+
+	/**
+	 * Rewrites the index with the records of the builds to keep only, and a single record per build.
+	 * Nothing is written when every build is kept.
+	 */
+	static void retain(Job<?, ?> job, IntPredicate keep) throws IOException {
+		retain(getFile(job), keep);
+	}
+
+	static void retain(File file, IntPredicate keep) throws IOException {
+		if (!file.isFile()) {
+			return;
+		}
+
+		synchronized (lock(file)) {
+			SortedMap<Integer, Record> records = read(file);
+
+			if (records.keySet().stream().allMatch(keep::test)) {
+				return;
+			}
+
+			File temp = new File(file.getPath() + ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+				out.writeInt(VERSION);
+
+				for (Record record : records.values()) {
+					if (keep.test(record.getBuildNumber())) {
+						record.write(out);
+					}
+				}
+			}
+
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	public static boolean exists(Job<?, ?> job) {
+		return getFile(job).isFile();
+	}
+
+	static File getFile(Job<?, ?> job) {
+		return new File(job.getRootDir(), INDEX_FILE);
+	}
+
+	private static Object lock(File file) {
+		return LOCKS[Math.floorMod(file.getAbsolutePath().hashCode(), LOCKS.length)];
+	}
+
+	public static final class Record {
+		// bytes written by write
+		static final int SIZE = 4 + 8 + 1 + 5 * 4 + 8;
+
+		private final int buildNumber;
+		private final long timestamp;
+		private final byte status;
+		private final int newErrors;
+		private final int resurfacedErrors;
+		private final int criticalErrors;
+		private final int regressionErrors;
+		private final int uniqueErrors;
+		private final long errorVolume;
+
+		Record(int buildNumber, long timestamp, byte status, int newErrors, int resurfacedErrors, int criticalErrors,
+				int regressionErrors, int uniqueErrors, long errorVolume) {
+			this.buildNumber = buildNumber;
+			this.timestamp = timestamp;
+			this.status = status;
+			this.newErrors = newErrors;
+			this.resurfacedErrors = resurfacedErrors;
+			this.criticalErrors = criticalErrors;
+			this.regressionErrors = regressionErrors;
+			this.uniqueErrors = uniqueErrors;
+			this.errorVolume = errorVolume;
+		}
+
+		static Record of(Run<?, ?> run, ReportSummary summary) {
+			return new Record(run.getNumber(), run.getTimeInMillis(), status(summary.getStatus()),
+				(int) count(summary, QualityReports.NEW_ERRORS),
+				(int) count(summary, QualityReports.RESURFACED_ERRORS),
+				(int) count(summary, QualityReports.CRITICAL_ERRORS),
+				(int) count(summary, QualityReports.REGRESSION_ERRORS),
+				(int) count(summary, QualityReports.UNIQUE_ERRORS),
+				count(summary, QualityReports.TOTAL_ERRORS));
+		}
+
+		private static long count(ReportSummary summary, String gate) {
+			ReportSummary.GateSummary gateSummary = summary.getGate(gate);
+			return gateSummary != null ? gateSummary.getErrorCount() : 0;
+		}
+
+		private static byte status(String status) {
+			if ("PASSED".equals(status)) {
+				return STATUS_PASSED;
+			}
+
+			if ("FAILED".equals(status)) {
+				return STATUS_FAILED;
+			}
+
+			if (ReportSummary.STATUS_ERROR.equals(status)) {
+				return STATUS_ERROR;
+			}
+
+			return STATUS_OTHER;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeInt(buildNumber);
+			out.writeLong(timestamp);
+			out.writeByte(status);
+			out.writeInt(newErrors);
+			out.writeInt(resurfacedErrors);
+			out.writeInt(criticalErrors);
+			out.writeInt(regressionErrors);
+			out.writeInt(uniqueErrors);
+			out.writeLong(errorVolume);
+		}
+
+		private static Record read(DataInputStream in) throws IOException {
+			return new Record(in.readInt(), in.readLong(), in.readByte(), in.readInt(), in.readInt(), in.readInt(),
+				in.readInt(), in.readInt(), in.readLong());
+		}
+
+		public int getBuildNumber() {
+			return buildNumber;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public String getStatus() {
+			switch (status) {
+				case STATUS_PASSED:
+					return "Passed";
+				case STATUS_FAILED:
+					return "Failed";
+				case STATUS_ERROR:
+					return "Error";
+				default:
+					return "-";
+			}
+		}
+
+		public int getNewErrors() {
+			return newErrors;
+		}
+
+		public int getResurfacedErrors() {
+			return resurfacedErrors;
+		}
+
+		public int getCriticalErrors() {
+			return criticalErrors;
+		}
+
+		public int getRegressionErrors() {
+			return regressionErrors;
+		}
+
+		public int getUniqueErrors() {
+			return uniqueErrors;
+		}
+
+		public long getErrorVolume() {
+			return errorVolume;
+		}
+	}
+
+	// drop the record of a deleted build, whether removed by hand or by the job's build discarder
+	@Extension
+	public static class DeletedBuildListener extends RunListener<Run<?, ?>> {
+
+		@Override
+		public void onDeleted(Run<?, ?> run) {
+			Job<?, ?> job = run.getParent();
+
+			if (!exists(job)) {
+				return;
+			}
+
+			int buildNumber = run.getNumber();
+
+			try {
+				retain(job, number -> number != buildNumber);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Unable to remove " + run + " from the OverOps trend", e);
+			}
+		}
+	}
+
+	// newest first
+	static List<Record> newestFirst(SortedMap<Integer, Record> records, int limit) {
+		List<Record> result = new ArrayList<>(records.values());
+		Collections.reverse(result);
+		return result.size() > limit ? result.subList(0, limit) : result;
+	}
+}
@@ -0,0 +1,117 @@
+// Pages through the events of an OverOps quality report. Filtering, sorting and paging are done by
+// the report's events endpoint; this only renders the rows of the current page.
+(function () {
+	var container = document.getElementById("overops-events");
+
+	if (!container) {
+		return;
+	}
+
+	var pageSize = 25;
+	var state = { gate: "", filter: "", sort: "volume", order: "desc", start: 0 };
+	var total = 0;
+	var pending = null;
+	var filterTimer = null;
+
+	var body = container.querySelector("tbody");
+	var position = container.querySelector(".overops-events-position");
+	var previous = container.querySelector("button[name=previous]");
+	var next = container.querySelector("button[name=next]");
+
+	function load() {
+		if (pending) {
+			pending.abort();
+		}
+
+		var request = new XMLHttpRequest();
+		var url = container.getAttribute("data-url") + "?gate=" + encodeURIComponent(state.gate) +
+			"&filter=" + encodeURIComponent(state.filter) + "&sort=" + state.sort + "&order=" + state.order +
+			"&start=" + state.start + "&limit=" + pageSize;
+
+		request.open("GET", url);
+		request.onload = function () {
+			pending = null;
+
+			if (request.status === 200) {
+				render(JSON.parse(request.responseText));
+			} else {
+				position.textContent = "Unable to load events";
+			}
+		};
+
+		pending = request;
+		request.send();
+	}
+
+	function render(page) {
+		total = page.total;
+		state.start = page.start;
+
+		while (body.firstChild) {
+			body.removeChild(body.firstChild);
+		}
+
+		page.rows.forEach(function (row) {
+			var tr = document.createElement("tr");
+
+			[row.gate, row.name, row.id, row.volume].forEach(function (value) {
+				var td = document.createElement("td");
+				td.textContent = value;
+				tr.appendChild(td);
+			});
+
+			body.appendChild(tr);
+		});
+
+		position.textContent = total === 0 ? "No events" :
+			(page.start + 1) + "-" + (page.start + page.rows.length) + " of " + total;
+		previous.disabled = page.start === 0;
+		next.disabled = page.start + page.rows.length >= total;
+	}
+
+	container.querySelector("select[name=gate]").addEventListener("change", function (e) {
+		state.gate = e.target.value;
+		state.start = 0;
+		load();
+	});
+
+	container.querySelector("input[name=filter]").addEventListener("input", function (e) {
+		clearTimeout(filterTimer);
+
+		filterTimer = setTimeout(function () {
+			state.filter = e.target.value;
+			state.start = 0;
+			load();
+		}, 300);
+	});
+
+	Array.prototype.forEach.call(container.querySelectorAll("a[data-sort]"), function (link) {
+		link.addEventListener("click", function (e) {
+			e.preventDefault();
+
+			var sort = link.getAttribute("data-sort");
+
+			if (state.sort === sort) {
+				state.order = state.order === "desc" ? "asc" : "desc";
+			} else {
+				state.sort = sort;
+				state.order = sort === "volume" ? "desc" : "asc";
+			}
+
+			state.start = 0;
+			load();
+		});
+	});
+
+	previous.addEventListener("click", function () {
+		state.start = Math.max(0, state.start - pageSize);
+		load();
+	});
+
+	next.addEventListener("click", function () {
+		state.start += pageSize;
+		load();
+	});
+
+	load();
+})();
@@ -0,0 +1,86 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.overops.report.service.model.HtmlParts;
+
+import hudson.model.Result;
+
+public class AgentQueryContextTest {
+
+	@Test
+	public void reusesContextUntilSettingsChange() {
+		File baselineDir = new File("baselines");
+
+		try (AgentQueryContext first = AgentQueryContext.acquire(settings("https://api.overops.com", 20), baselineDir, "key");
+				AgentQueryContext same = AgentQueryContext.acquire(settings("https://api.overops.com", 20), baselineDir, "other");
+				AgentQueryContext changed = AgentQueryContext.acquire(settings("https://api.overops.com", 5), baselineDir, "key");
+				AgentQueryContext moved = AgentQueryContext.acquire(settings("https://other.overops.com", 5), baselineDir, "key")) {
+			assertSame(first.getQueryScheduler(), same.getQueryScheduler());
+			assertEquals("other", same.apiKey());
+
+			assertNotSame(first.getQueryScheduler(), changed.getQueryScheduler());
+			assertEquals(5, changed.getQueryScheduler().getMaxConcurrent());
+			assertNotSame(changed.getQueryScheduler(), moved.getQueryScheduler());
+		}
+	}
+
+	@Test
+	public void runningQueriesKeepTheirContextWhenSettingsChange() {
+		File baselineDir = new File("baselines");
+		AgentQueryContext running = AgentQueryContext.acquire(settings("https://api.overops.com", 3), baselineDir, "key");
+
+		try (AgentQueryContext changed = AgentQueryContext.acquire(settings("https://api.overops.com", 4), baselineDir, "key")) {
+			assertFalse(running.getGatePool().isShutdown());
+
+			running.close();
+
+			assertTrue(running.getGatePool().isShutdown());
+			assertFalse(changed.getGatePool().isShutdown());
+		}
+	}
+
+	@Test
+	public void resultSurvivesTheChannel() throws Exception {
+		QualityGateResult result = new QualityGateResult(new HtmlParts("<p>report</p>", "p {}"), Result.UNSTABLE,
+			new ReportSummary("FAILED", Collections.emptyList()));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(result);
+		}
+
+		QualityGateResult copy;
+
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			copy = (QualityGateResult) in.readObject();
+		}
+
+		assertEquals("<p>report</p>", copy.getHtmlParts().getHtml());
+		assertEquals("p {}", copy.getHtmlParts().getCss());
+		assertEquals(Result.UNSTABLE, copy.getResult());
+		assertEquals("FAILED", copy.getSummary().getStatus());
+	}
+
+	private static AgentQueryContext.Settings settings(String overOpsURL, int maxConcurrentQueries) {
+		return new AgentQueryContext.Settings(overOpsURL, "https://app.overops.com",
+			DescriptorImpl.DEFAULT_MAX_REQUESTS_PER_CLIENT, DescriptorImpl.DEFAULT_CLIENT_IDLE_TIMEOUT,
+			DescriptorImpl.DEFAULT_READINESS_TIMEOUT, 2, DescriptorImpl.DEFAULT_REPORT_CACHE_SIZE,
+			DescriptorImpl.DEFAULT_REPORT_CACHE_TTL, 0, 1, maxConcurrentQueries,
+			DescriptorImpl.DEFAULT_MAX_QUERIES_PER_ENVIRONMENT, 0, DescriptorImpl.DEFAULT_API_BURST);
+	}
+}
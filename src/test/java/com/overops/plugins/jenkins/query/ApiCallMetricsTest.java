@@ -0,0 +1,58 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class ApiCallMetricsTest {
+
+	@Test
+	public void replacesIdsInUrls() {
+		assertEquals("/api/v1/services/{serviceId}/deployments",
+			ApiCallMetrics.urlTemplate("https://api.overops.com/api/v1/services/S12345/deployments?active=true"));
+		assertEquals("/api/v1/services/{serviceId}/events/{id}",
+			ApiCallMetrics.urlTemplate("http://localhost:8080/api/v1/services/S1/events/42"));
+	}
+
+	@Test
+	public void estimatesPercentilesFromBuckets() {
+		ApiCallMetrics metrics = new ApiCallMetrics();
+
+		for (int i = 0; i < 99; i++) {
+			metrics.record("GET", "/api/v1/services/S1/views", 20, false, 0, 100);
+		}
+
+		metrics.record("GET", "/api/v1/services/S2/views", 4000, true, 0, 0);
+
+		ApiCallMetrics.Histogram histogram = metrics.getHistograms().get(0);
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(1, histogram.getErrors());
+		assertEquals(9900, histogram.getResponseBytes());
+		assertEquals(25, histogram.getP50());
+		assertEquals(25, histogram.getP95());
+		assertEquals(5000, histogram.getPercentile(1.0));
+	}
+
+	@Test
+	public void writesCumulativePrometheusBuckets() {
+		ApiCallMetrics metrics = new ApiCallMetrics();
+		metrics.record("GET", "/api/v1/services/S1/views", 7, false, 0, 0);
+		metrics.record("GET", "/api/v1/services/S1/views", 70000, false, 0, 0);
+
+		StringWriter out = new StringWriter();
+		metrics.writePrometheus(new PrintWriter(out));
+
+		String text = out.toString();
+		String labels = "operation=\"GET\",url=\"/api/v1/services/{serviceId}/views\"";
+
+		assertTrue(text.contains("overops_api_call_duration_seconds_bucket{" + labels + ",le=\"0.010\"} 1"));
+		assertTrue(text.contains("overops_api_call_duration_seconds_bucket{" + labels + ",le=\"60.000\"} 1"));
+		assertTrue(text.contains("overops_api_call_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} 2"));
+		assertTrue(text.contains("overops_api_call_duration_seconds_count{" + labels + "} 2"));
+	}
+}
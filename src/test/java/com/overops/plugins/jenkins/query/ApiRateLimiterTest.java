@@ -0,0 +1,147 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ApiRateLimiterTest {
+
+	@Test
+	public void waitsForTokensBeyondTheBurst() throws Exception {
+		// 10 requests per second, 2 at once
+		ApiRateLimiter limiter = new ApiRateLimiter(600, 2);
+		ApiRateLimiter.Bucket bucket = limiter.bucket("https://api.overops.com", "key");
+
+		bucket.acquire();
+		bucket.record(2);
+
+		long start = System.nanoTime();
+		bucket.acquire();
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue("waited " + waited + "ms", waited >= 50);
+		assertEquals(2, bucket.getRequests());
+		assertEquals(1, bucket.getThrottled());
+	}
+
+	@Test
+	public void backsOffAfterRateLimitedResponse() throws Exception {
+		ApiRateLimiter.Bucket bucket = new ApiRateLimiter(0, 20).bucket("https://api.overops.com", "key");
+
+		bucket.onResponse(429);
+		assertTrue(bucket.isPaused());
+
+		long start = System.nanoTime();
+		bucket.acquire();
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue("waited " + waited + "ms", waited >= ApiRateLimiter.INITIAL_BACKOFF_MILLIS / 2);
+		assertEquals(1, bucket.getRateLimited());
+		assertFalse(bucket.isPaused());
+	}
+
+	@Test
+	public void concurrentCallersDoNotShareTokens() throws Exception {
+		// 1 request per second, 3 at once
+		ApiRateLimiter.Bucket bucket = new ApiRateLimiter(60, 3).bucket("https://api.overops.com", "key");
+		ExecutorService executor = Executors.newFixedThreadPool(6);
+
+		try {
+			List<Future<?>> callers = new ArrayList<>();
+
+			for (int i = 0; i < 6; i++) {
+				callers.add(executor.submit(() -> {
+					bucket.acquire();
+					return null;
+				}));
+			}
+
+			Thread.sleep(500);
+
+			// the burst went at once, the others wait for the bucket to refill
+			assertEquals(3, callers.stream().filter(Future::isDone).count());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void recordsOnlyRequestsBeyondTheAcquired() throws Exception {
+		ApiRateLimiter.Bucket bucket = new ApiRateLimiter(60, 5).bucket("https://api.overops.com", "key");
+
+		bucket.acquire();
+		bucket.record(1);
+		assertEquals(4, bucket.getAvailableTokens());
+
+		bucket.acquire();
+		bucket.record(3);
+		assertEquals(1, bucket.getAvailableTokens());
+		assertEquals(4, bucket.getRequests());
+	}
+
+	@Test
+	public void honorsRetryAfter() throws Exception {
+		ApiRateLimiter.Bucket bucket = new ApiRateLimiter(0, 20).bucket("https://api.overops.com", "key");
+
+		bucket.onResponse(429, "0");
+		assertFalse(bucket.isPaused());
+
+		bucket.onResponse(503, "120");
+		assertTrue(bucket.isPaused());
+
+		long now = System.currentTimeMillis();
+
+		assertEquals(120000, ApiRateLimiter.retryAfterMillis(" 120 ", now));
+		assertEquals(30000, ApiRateLimiter.retryAfterMillis(DateTimeFormatter.RFC_1123_DATE_TIME.format(
+			Instant.ofEpochMilli(now + 30000).atZone(ZoneOffset.UTC)), now / 1000 * 1000));
+		assertEquals(ApiRateLimiter.MAX_RETRY_AFTER_MILLIS, ApiRateLimiter.retryAfterMillis("86400", now));
+		assertEquals(-1, ApiRateLimiter.retryAfterMillis("soon", now));
+		assertEquals(-1, ApiRateLimiter.retryAfterMillis(null, now));
+	}
+
+	@Test
+	public void keepsBucketPerKey() {
+		ApiRateLimiter limiter = new ApiRateLimiter(60, 5);
+
+		assertSame(limiter.bucket("host", "a"), limiter.bucket("host", "a"));
+		assertNotSame(limiter.bucket("host", "a"), limiter.bucket("host", "b"));
+		assertFalse(limiter.bucket("host", "secret").getLabel().contains("secret"));
+	}
+
+	@Test
+	public void newLimitsKeepTheBuckets() {
+		ApiRateLimiter limiter = new ApiRateLimiter(0, 20);
+		ApiRateLimiter.Bucket bucket = limiter.bucket("host", "key");
+		bucket.record(1);
+
+		limiter.setLimits(60, 2);
+
+		assertSame(bucket, limiter.bucket("host", "key"));
+		assertEquals(1, bucket.getRequests());
+		assertEquals(2, bucket.getAvailableTokens());
+	}
+
+	@Test
+	public void detectsRateLimitedFailures() {
+		assertTrue(ApiRateLimiter.isRateLimited("Server returned HTTP response code: 429"));
+		assertTrue(ApiRateLimiter.isRateLimited("Too Many Requests"));
+		assertTrue(ApiRateLimiter.isRateLimited("Unexpected response code 503"));
+		assertFalse(ApiRateLimiter.isRateLimited("HTTP 404"));
+		assertFalse(ApiRateLimiter.isRateLimited("Event 429 not found in 503 ms"));
+		assertFalse(ApiRateLimiter.isRateLimited(null));
+	}
+}
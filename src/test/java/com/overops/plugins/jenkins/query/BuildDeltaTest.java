@@ -0,0 +1,33 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.UnstableBuilder;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+
+public class BuildDeltaTest {
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	@Test
+	public void comparesWithLastSuccessNotLastUnstable() throws Exception {
+		FreeStyleProject project = j.createFreeStyleProject();
+		FreeStyleBuild success = j.buildAndAssertSuccess(project);
+
+		project.getBuildersList().add(new UnstableBuilder());
+		j.assertBuildStatus(Result.UNSTABLE, project.scheduleBuild2(0).get());
+
+		FreeStyleBuild current = j.assertBuildStatus(Result.UNSTABLE, project.scheduleBuild2(0).get());
+
+		assertEquals(success, BuildDelta.lastSuccess(current));
+		assertNull(BuildDelta.lastSuccess(success));
+	}
+}
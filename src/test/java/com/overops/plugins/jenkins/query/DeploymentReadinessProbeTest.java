@@ -0,0 +1,124 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeploymentReadinessProbeTest {
+
+	private OverOpsApiSimulator api;
+	private ApiClientRegistry registry;
+	private ByteArrayOutputStream log;
+
+	@Before
+	public void setUp() throws Exception {
+		api = new OverOpsApiSimulator();
+		registry = new ApiClientRegistry(DescriptorImpl.DEFAULT_MAX_REQUESTS_PER_CLIENT, DescriptorImpl.DEFAULT_CLIENT_IDLE_TIMEOUT,
+			new ApiCallMetrics());
+		log = new ByteArrayOutputStream();
+	}
+
+	@After
+	public void tearDown() {
+		registry.close();
+		api.close();
+	}
+
+	@Test
+	public void returnsAsSoonAsDeploymentHasData() throws Exception {
+		api.addDeployment("v1");
+		api.addDeployment("v2");
+		api.setEventCount(3);
+
+		DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 10000, 10, 50);
+
+		assertTrue(probe.awaitReady("S1", "v2", new PrintStream(log)));
+		assertEquals(1, api.getDeploymentRequests());
+		assertTrue(log.toString().contains("(1 polls)"));
+	}
+
+	@Test
+	public void backsOffUntilDeploymentAppears() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+		try {
+			scheduler.schedule(() -> api.addDeployment("v3"), 200, TimeUnit.MILLISECONDS);
+
+			DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 10000, 10, 50);
+
+			assertTrue(probe.awaitReady("S1", "v3", new PrintStream(log)));
+			assertTrue(api.getDeploymentRequests() > 1);
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void listedDeploymentWaitsForItsEvents() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+		try {
+			api.addDeployment("v4");
+			scheduler.schedule(() -> api.setEventCount(3), 200, TimeUnit.MILLISECONDS);
+
+			DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 10000, 10, 50,
+				10000, null);
+
+			assertTrue(probe.awaitReady("S1", "v4", new PrintStream(log)));
+			assertTrue(api.getDeploymentRequests() > 1);
+			assertFalse(log.toString().contains("no events"));
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void listedDeploymentWithoutEventsIsReadyAfterGrace() throws Exception {
+		api.addDeployment("v5");
+
+		DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 10000, 10, 50,
+			100, null);
+
+		long start = System.currentTimeMillis();
+
+		assertTrue(probe.awaitReady("S1", "v5", new PrintStream(log)));
+		assertTrue(System.currentTimeMillis() - start >= 100);
+		assertTrue(log.toString().contains("no events of deployment v5"));
+	}
+
+	@Test
+	public void waitsForAllDeploymentsWithOnePollEach() throws Exception {
+		api.addDeployment("orders-7");
+		api.addDeployment("payments-7");
+
+		DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 300, 10, 50);
+		Set<String> ready = probe.awaitReady("S1", Arrays.asList("orders-7", "payments-7", "billing-7"), new PrintStream(log));
+
+		assertEquals(new HashSet<>(Arrays.asList("orders-7", "payments-7")), ready);
+		assertTrue(log.toString().contains("1 deployments [billing-7]"));
+	}
+
+	@Test
+	public void givesUpAtUpperBound() throws Exception {
+		DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 300, 10, 50);
+
+		long start = System.currentTimeMillis();
+
+		assertFalse(probe.awaitReady("S1", "missing", new PrintStream(log)));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertTrue(log.toString().contains("Timed out"));
+	}
+}
@@ -0,0 +1,59 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EnvironmentIndexTest {
+
+	private OverOpsApiSimulator api;
+	private ApiClientRegistry registry;
+
+	@Before
+	public void setUp() throws Exception {
+		api = new OverOpsApiSimulator();
+		registry = new ApiClientRegistry(DescriptorImpl.DEFAULT_MAX_REQUESTS_PER_CLIENT, DescriptorImpl.DEFAULT_CLIENT_IDLE_TIMEOUT,
+			new ApiCallMetrics());
+	}
+
+	@After
+	public void tearDown() {
+		registry.close();
+		api.close();
+	}
+
+	@Test
+	public void answersFromCacheAfterFirstLoad() throws Exception {
+		EnvironmentIndex index = new EnvironmentIndex(registry, EnvironmentIndex.DEFAULT_TTL_MILLIS, Runnable::run);
+
+		assertNull(index.getCachedAccess(api.getUrl(), "key", "S1"));
+		assertTrue(index.hasAccess(api.getUrl(), "key", "S1"));
+
+		int requests = api.getRequests();
+
+		assertTrue(index.hasAccess(api.getUrl(), "key", " s1 "));
+		assertFalse(index.hasAccess(api.getUrl(), "key", "S9"));
+		assertEquals(requests, api.getRequests());
+		assertEquals(1, index.getLoads());
+		assertEquals(2, index.getHits());
+	}
+
+	@Test
+	public void reloadsStaleEntries() throws Exception {
+		EnvironmentIndex index = new EnvironmentIndex(registry, 0, Runnable::run);
+
+		assertTrue(index.hasAccess(api.getUrl(), "key", "S1"));
+
+		api.addService("S2");
+		Thread.sleep(5);
+
+		assertTrue(index.hasAccess(api.getUrl(), "key", "S1"));
+		assertTrue(index.getCachedAccess(api.getUrl(), "key", "S2"));
+		assertEquals(2, index.getLoads());
+	}
+}
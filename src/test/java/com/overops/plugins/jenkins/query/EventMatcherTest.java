@@ -0,0 +1,47 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class EventMatcherTest {
+
+	@Test
+	public void mergesFilterLinesIntoOneAlternation() {
+		EventMatcher matcher = EventMatcher.compile("\"type\":\"Timer\"\n\n\"type\":\"Logged Warning\"", null);
+
+		assertEquals("(?:\"type\":\"Timer\")|(?:\"type\":\"Logged Warning\")", matcher.getRegexFilter());
+		assertTrue(matcher.isFiltered("{\"type\":\"Logged Warning\"}"));
+		assertFalse(matcher.isFiltered("{\"type\":\"Logged Error\"}"));
+	}
+
+	@Test
+	public void keepsSingleFilterAsIs() {
+		String filter = "\"type\":\\\"*(Timer|Logged Warning)";
+		assertEquals(filter, EventMatcher.compile(filter, null).getRegexFilter());
+	}
+
+	@Test
+	public void deduplicatesCriticalTypes() {
+		EventMatcher matcher = EventMatcher.compile(null, " NullPointerException, AssertionError,,NullPointerException ");
+
+		assertEquals("NullPointerException,AssertionError", matcher.getCriticalExceptionTypes());
+		assertNull(matcher.getRegexFilter());
+	}
+
+	@Test
+	public void sharesEmptyMatcher() {
+		assertSame(EventMatcher.NONE, EventMatcher.compile("  ", ""));
+	}
+
+	@Test(expected = PatternSyntaxException.class)
+	public void rejectsInvalidLine() {
+		EventMatcher.compile("valid\n(unclosed", null);
+	}
+}
@@ -0,0 +1,120 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class EventSetTest {
+
+	@Test
+	public void sortsAndKeepsHighestVolumeOfDuplicates() {
+		EventSet set = new EventSet.Builder().add(30, 1).add(10, 5).add(20, 2).add(10, 7).build();
+
+		assertArrayEquals(new long[] { 10, 20, 30 }, ids(set));
+		assertEquals(7, set.volumeOf(10));
+		assertEquals(-1, set.volumeOf(15));
+	}
+
+	@Test
+	public void sortsLargeSets() {
+		Random random = new Random(42);
+		EventSet.Builder builder = new EventSet.Builder();
+		TreeMap<Long, Long> expected = new TreeMap<>();
+
+		for (int i = 0; i < 100000; i++) {
+			long id = 1 + random.nextInt(50000);
+			long volume = random.nextInt(1000);
+
+			builder.add(id, volume);
+			expected.merge(id, volume, Math::max);
+		}
+
+		EventSet set = builder.build();
+
+		assertEquals(expected.size(), set.size());
+
+		int index = 0;
+
+		for (Long id : expected.keySet()) {
+			assertEquals(id.longValue(), set.getId(index));
+			assertEquals(expected.get(id).longValue(), set.getVolume(index++));
+		}
+	}
+
+	@Test
+	public void diffsAgainstPreviousBuild() {
+		EventSet previous = new EventSet.Builder().add(1, 10).add(2, 10).add(3, 10).build();
+		EventSet current = new EventSet.Builder().add(2, 10).add(3, 25).add(4, 1).add(5, 3).build();
+
+		EventSet.Delta delta = current.diff(previous);
+
+		assertArrayEquals(new long[] { 4, 5 }, ids(delta.getAdded()));
+		assertArrayEquals(new long[] { 1 }, ids(delta.getRemoved()));
+		assertArrayEquals(new long[] { 3 }, ids(delta.getGrown()));
+		assertEquals(25, delta.getGrown().getVolume(0));
+	}
+
+	@Test
+	public void unitesBatchSections() {
+		EventSet first = new EventSet.Builder().add(1, 10).add(3, 1).build();
+		EventSet second = new EventSet.Builder().add(2, 5).add(3, 4).build();
+
+		EventSet union = EventSet.union(Arrays.asList(first, second));
+
+		assertArrayEquals(new long[] { 1, 2, 3 }, ids(union));
+		assertEquals(4, union.volumeOf(3));
+	}
+
+	@Test
+	public void takesEveryEventOfTheVolumes() {
+		Map<String, RegressionBaseline.EventVolume> volumes = new HashMap<>();
+		volumes.put("12", new RegressionBaseline.EventVolume("NullPointerException", 40, 4000));
+		volumes.put("7", new RegressionBaseline.EventVolume("IllegalStateException", 1, 100));
+		volumes.put("not-a-number", new RegressionBaseline.EventVolume("Timer", 5, 5));
+
+		EventSet set = QualityReports.eventSet(volumes);
+
+		assertArrayEquals(new long[] { 7, 12 }, ids(set));
+		assertEquals(40, set.volumeOf(12));
+	}
+
+	@Test
+	public void roundTripsThroughBuildDirectory() throws Exception {
+		File buildDir = Files.createTempDirectory("overops-events").toFile();
+
+		try {
+			assertNull(EventSet.read(buildDir, "k"));
+
+			EventSet set = new EventSet.Builder().add(5, 0).add(1L << 40, 123456789L).add(300, 1).build();
+			set.write(buildDir, "k");
+
+			EventSet read = EventSet.read(buildDir, "k");
+
+			assertArrayEquals(ids(set), ids(read));
+			assertEquals(123456789L, read.volumeOf(1L << 40));
+		} finally {
+			ReportFiles.file(buildDir, EventSet.EVENTS_FILE, "k").delete();
+			buildDir.delete();
+		}
+	}
+
+	private static long[] ids(EventSet set) {
+		long[] ids = new long[set.size()];
+
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = set.getId(i);
+		}
+
+		return ids;
+	}
+}
@@ -0,0 +1,58 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.overops.plugins.jenkins.query.QualityGateEvaluator.GateGroup;
+
+public class GateCostsTest {
+
+	@Test
+	public void ordersMeasuredGroupsCheapestFirst() {
+		GateCosts costs = new GateCosts();
+
+		costs.record(GateGroup.EVENTS, 900);
+		costs.record(GateGroup.REGRESSION, 300);
+
+		assertEquals(Arrays.asList(GateGroup.REGRESSION, GateGroup.EVENTS),
+			costs.order(Arrays.asList(GateGroup.EVENTS, GateGroup.REGRESSION)));
+	}
+
+	@Test
+	public void eventGatesRunFirstBeforeAnyMeasurement() {
+		GateCosts costs = new GateCosts();
+
+		assertEquals(Arrays.asList(GateGroup.EVENTS, GateGroup.REGRESSION),
+			costs.order(Arrays.asList(GateGroup.REGRESSION, GateGroup.EVENTS)));
+	}
+
+	@Test
+	public void unmeasuredGroupsUseTheirEstimate() {
+		GateCosts costs = new GateCosts();
+		costs.record(GateGroup.REGRESSION, 500);
+
+		assertEquals(Arrays.asList(GateGroup.REGRESSION, GateGroup.EVENTS),
+			costs.order(Arrays.asList(GateGroup.EVENTS, GateGroup.REGRESSION)));
+
+		costs.record(GateGroup.REGRESSION, 500000);
+
+		assertEquals(Arrays.asList(GateGroup.EVENTS, GateGroup.REGRESSION),
+			costs.order(Arrays.asList(GateGroup.REGRESSION, GateGroup.EVENTS)));
+	}
+
+	@Test
+	public void averagesFollowRecentRuns() {
+		GateCosts costs = new GateCosts();
+
+		assertEquals(-1, costs.getAverageMillis(GateGroup.EVENTS));
+
+		costs.record(GateGroup.EVENTS, 1000);
+		assertEquals(1000, costs.getAverageMillis(GateGroup.EVENTS));
+
+		costs.record(GateGroup.EVENTS, 2000);
+		assertEquals(1200, costs.getAverageMillis(GateGroup.EVENTS));
+	}
+}
@@ -0,0 +1,365 @@
+package com.overops.plugins.jenkins.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+//OverOpsApiSimulator is an in-process stand-in for the OverOps REST API. It serves the
+//environments, deployments, applications, views, events and event volume graphs that the
+//plugin and report-service query, from a synthetic dataset of configurable size, with
+//configurable latency and injected errors. Paths it does not know are answered with 404
+//and counted, see getUnmatchedRequests.
+
+public class OverOpsApiSimulator implements AutoCloseable {
+
+	private static final String API_PREFIX = "/api/v1/";
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private final List<String> services = new CopyOnWriteArrayList<>();
+	private final List<String> deployments = new CopyOnWriteArrayList<>();
+	private final List<String> applications = new CopyOnWriteArrayList<>();
+
+	private volatile int eventCount;
+	private volatile long latencyMillis;
+	private volatile long latencyJitterMillis;
+	private volatile double errorRate;
+	private volatile int errorCode = 500;
+
+	// rendered once per dataset size, so large datasets do not make the simulator the bottleneck
+	private volatile String eventsBody;
+	private volatile String graphBody;
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger deploymentRequests = new AtomicInteger();
+	private final AtomicInteger injectedErrors = new AtomicInteger();
+	private final ConcurrentMap<String, AtomicInteger> unmatchedRequests = new ConcurrentHashMap<>();
+
+	public OverOpsApiSimulator() throws IOException {
+		executor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "OverOpsApiSimulator"));
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+
+		services.add("S1");
+		setEventCount(0);
+	}
+
+	public String getUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public void addService(String serviceId) {
+		services.add(serviceId);
+	}
+
+	public void addDeployment(String name) {
+		deployments.add(name);
+	}
+
+	public void addApplication(String name) {
+		applications.add(name);
+	}
+
+	/**
+	 * Sets the number of distinct events every view returns.
+	 */
+	public void setEventCount(int eventCount) {
+		this.eventCount = eventCount;
+		this.eventsBody = renderEvents(eventCount);
+		this.graphBody = renderGraph(eventCount);
+	}
+
+	/**
+	 * Delays every response by latencyMillis plus a random jitter of up to jitterMillis.
+	 */
+	public void setLatency(long latencyMillis, long jitterMillis) {
+		this.latencyMillis = latencyMillis;
+		this.latencyJitterMillis = jitterMillis;
+	}
+
+	/**
+	 * Fails the given fraction of requests, between 0 and 1, with the given HTTP status.
+	 */
+	public void setErrorRate(double errorRate, int errorCode) {
+		this.errorRate = errorRate;
+		this.errorCode = errorCode;
+	}
+
+	public int getEventCount() {
+		return eventCount;
+	}
+
+	public int getRequests() {
+		return requests.get();
+	}
+
+	public int getDeploymentRequests() {
+		return deploymentRequests.get();
+	}
+
+	public int getInjectedErrors() {
+		return injectedErrors.get();
+	}
+
+	public Map<String, AtomicInteger> getUnmatchedRequests() {
+		return unmatchedRequests;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+
+		try {
+			delay();
+
+			if ((errorRate > 0) && (ThreadLocalRandom.current().nextDouble() < errorRate)) {
+				injectedErrors.incrementAndGet();
+				respond(exchange, errorCode, "{\"message\":\"simulated failure\"}");
+				return;
+			}
+
+			String path = exchange.getRequestURI().getPath();
+			String body = path.startsWith(API_PREFIX) ? route(path.substring(API_PREFIX.length()).split("/"), exchange) : null;
+
+			if (body != null) {
+				respond(exchange, 200, body);
+			} else {
+				unmatchedRequests.computeIfAbsent(ApiCallMetrics.urlTemplate(path), key -> new AtomicInteger()).incrementAndGet();
+				respond(exchange, 404, "{}");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "{}");
+		}
+	}
+
+	// the response body for a path split into segments after /api/v1/, or null for unknown paths
+	private String route(String[] path, HttpExchange exchange) throws IOException {
+		if ((path.length == 1) && ("test".equals(path[0]))) {
+			return "{}";
+		}
+
+		if (!"services".equals(path[0])) {
+			return null;
+		}
+
+		if (path.length == 1) {
+			return renderServices();
+		}
+
+		if (path.length == 3) {
+			switch (path[2]) {
+				case "deployments":
+					deploymentRequests.incrementAndGet();
+					return renderNames("deployments", deployments);
+				case "applications":
+					return renderNames("applications", applications);
+				case "views":
+					return renderView(queryParam(exchange, "name"));
+				case "labels":
+					return "{\"labels\":[]}";
+				case "settings":
+					return "{}";
+				default:
+					return null;
+			}
+		}
+
+		if ((path.length == 4) && ("events".equals(path[2]))) {
+			return renderEvent(parseId(path[3]));
+		}
+
+		if ((path.length >= 5) && ("views".equals(path[2]))) {
+			String resource = String.join("/", Arrays.copyOfRange(path, 4, path.length));
+
+			switch (resource) {
+				case "events":
+					return eventsBody;
+				case "graph":
+				case "events/graph":
+					return graphBody;
+				default:
+					return null;
+			}
+		}
+
+		return null;
+	}
+
+	private void delay() throws InterruptedException {
+		long delay = latencyMillis;
+
+		if (latencyJitterMillis > 0) {
+			delay += ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1);
+		}
+
+		if (delay > 0) {
+			Thread.sleep(delay);
+		}
+	}
+
+	private String renderServices() {
+		StringBuilder body = new StringBuilder("{\"services\":[");
+
+		for (int i = 0; i < services.size(); i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+
+			body.append("{\"id\":\"").append(services.get(i)).append("\",\"name\":\"Environment ")
+				.append(services.get(i)).append("\",\"allowed_access\":true}");
+		}
+
+		return body.append("]}").toString();
+	}
+
+	private static String renderNames(String field, List<String> names) {
+		StringBuilder body = new StringBuilder("{\"").append(field).append("\":[");
+
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+
+			body.append("{\"name\":\"").append(names.get(i)).append("\"}");
+		}
+
+		return body.append("]}").toString();
+	}
+
+	private static String renderView(String name) {
+		String viewName = name != null ? name : "All Events";
+		return "{\"views\":[{\"id\":\"P" + (Math.abs(viewName.hashCode()) % 1000) + "\",\"name\":\"" + viewName +
+			"\",\"shared\":true}]}";
+	}
+
+	private static String renderEvents(int eventCount) {
+		StringBuilder body = new StringBuilder(eventCount * 400 + 16).append("{\"events\":[");
+
+		for (int i = 0; i < eventCount; i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+
+			appendEvent(body, i);
+		}
+
+		return body.append("]}").toString();
+	}
+
+	private String renderEvent(int id) {
+		if ((id < 0) || (id >= eventCount)) {
+			return null;
+		}
+
+		StringBuilder body = new StringBuilder(512);
+		appendEvent(body, id);
+
+		return body.toString();
+	}
+
+	private static void appendEvent(StringBuilder body, int id) {
+		String type = (id % 7 == 0) ? "Logged Error" : "Uncaught Exception";
+		String name = (id % 5 == 0) ? "IndexOutOfBoundsException" : "NullPointerException";
+		String className = "com.example.service.Handler" + (id % 500);
+
+		body.append("{\"id\":\"").append(id).append('"')
+			.append(",\"summary\":\"").append(name).append(" in ").append(className).append(".handle\"")
+			.append(",\"type\":\"").append(type).append('"')
+			.append(",\"name\":\"").append(name).append('"')
+			.append(",\"message\":\"simulated event ").append(id).append('"')
+			.append(",\"first_seen\":\"2019-01-01T00:00:00.000Z\"")
+			.append(",\"introduced_by\":\"v").append(id % 20).append('"')
+			.append(",\"labels\":[]")
+			.append(",\"similar_event_ids\":[]")
+			.append(",\"is_rethrow\":false")
+			.append(",\"error_location\":{\"prettified_name\":\"").append(className).append(".handle\"")
+			.append(",\"class_name\":\"").append(className).append("\",\"method_name\":\"handle\"}")
+			.append(",\"stats\":{\"hits\":").append(hits(id)).append(",\"invocations\":").append(hits(id) * 100L)
+			.append("}}");
+	}
+
+	private static String renderGraph(int eventCount) {
+		StringBuilder body = new StringBuilder(eventCount * 60 + 128)
+			.append("{\"graphs\":[{\"id\":\"P1\",\"type\":\"view\",\"points\":[{\"time\":\"2019-01-01T00:00:00.000Z\"")
+			.append(",\"contributors\":[");
+
+		for (int i = 0; i < eventCount; i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+
+			body.append("{\"id\":\"").append(i).append("\",\"stats\":{\"hits\":").append(hits(i))
+				.append(",\"invocations\":").append(hits(i) * 100L).append("}}");
+		}
+
+		return body.append("]}]}]}").toString();
+	}
+
+	private static long hits(int id) {
+		return 1 + (id * 31L) % 10000;
+	}
+
+	private static int parseId(String id) {
+		try {
+			return Integer.parseInt(id);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String queryParam(HttpExchange exchange, String name) throws IOException {
+		String query = exchange.getRequestURI().getRawQuery();
+
+		if (query == null) {
+			return null;
+		}
+
+		for (String param : query.split("&")) {
+			int eq = param.indexOf('=');
+
+			if ((eq > 0) && (name.equals(param.substring(0, eq)))) {
+				return URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8.name());
+			}
+		}
+
+		return null;
+	}
+
+	private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(code, bytes.length);
+
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,78 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.SortedMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.UnstableBuilder;
+
+import com.overops.report.service.model.HtmlParts;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.Run;
+
+public class OverOpsBuildActionTest {
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	@Test
+	public void migratesReportStoredInBuildXml() throws Exception {
+		FreeStyleProject project = j.createFreeStyleProject();
+		FreeStyleBuild build = j.buildAndAssertSuccess(project);
+
+		OverOpsBuildAction action = legacyAction("<p>legacy report</p>");
+		action.onLoad(build);
+
+		assertEquals("PASSED", action.getSummary().getStatus());
+		assertTrue(action.getSummary().getGates().isEmpty());
+		assertEquals("", action.getCss());
+
+		StringWriter html = new StringWriter();
+		action.writeHtml(html);
+
+		assertEquals("<p>legacy report</p>", html.toString());
+	}
+
+	@Test
+	public void backfillsTrendOfMigratedReports() throws Exception {
+		FreeStyleProject project = j.createFreeStyleProject();
+		FreeStyleBuild success = j.buildAndAssertSuccess(project);
+
+		project.getBuildersList().add(new UnstableBuilder());
+		FreeStyleBuild unstable = j.assertBuildStatus(Result.UNSTABLE, project.scheduleBuild2(0).get());
+
+		addLegacyAction(success);
+		addLegacyAction(unstable);
+
+		new OverOpsProjectAction(project).backfill();
+
+		SortedMap<Integer, TrendIndex.Record> records = TrendIndex.read(project);
+
+		assertEquals(2, records.size());
+		assertEquals("Passed", records.get(success.getNumber()).getStatus());
+		assertEquals("Failed", records.get(unstable.getNumber()).getStatus());
+	}
+
+	private static void addLegacyAction(Run<?, ?> run) throws Exception {
+		OverOpsBuildAction action = legacyAction("<p>report of " + run + "</p>");
+		action.onLoad(run);
+		run.addAction(action);
+	}
+
+	// an action as stored in build.xml by versions that kept the rendered report there
+	private static OverOpsBuildAction legacyAction(String html) {
+		String htmlParts = Run.XSTREAM2.toXML(new HtmlParts(html, "p {}"))
+			.replace(HtmlParts.class.getName(), "htmlParts");
+
+		return (OverOpsBuildAction) Run.XSTREAM2.fromXML("<" + OverOpsBuildAction.class.getName() + ">" + htmlParts +
+			"</" + OverOpsBuildAction.class.getName() + ">");
+	}
+}
@@ -0,0 +1,69 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.overops.plugins.jenkins.query.QualityGateEvaluator.GateGroup;
+import com.overops.report.service.model.QualityReport;
+import com.overops.report.service.model.QualityReport.ReportStatus;
+
+public class QualityGateEvaluatorTest {
+	private static final String API_HOST = "https://api.overops.test";
+	private static final String API_KEY = "key";
+
+	private ApiClientRegistry registry;
+	private ByteArrayOutputStream log;
+
+	@Before
+	public void setUp() {
+		registry = new ApiClientRegistry(DescriptorImpl.DEFAULT_MAX_REQUESTS_PER_CLIENT, DescriptorImpl.DEFAULT_CLIENT_IDLE_TIMEOUT,
+			new ApiCallMetrics());
+		log = new ByteArrayOutputStream();
+	}
+
+	@After
+	public void tearDown() {
+		registry.close();
+	}
+
+	@Test
+	public void failFastSkipsTheGroupsLeft() throws Exception {
+		QualityGateRequest request = new QualityGateRequest();
+		request.setServiceId("S1");
+		request.setApplicationName("app");
+		request.setDeploymentName("v1");
+		request.setNewEvents(true);
+		request.setActiveTimespan("1d");
+		request.setBaselineTimespan("7d");
+		request.setMarkUnstable(true);
+		request.setFailFast(true);
+
+		// the event gates, estimated to be the cheaper group, fail from the cache without a query
+		ReportCache cache = new ReportCache(10, 60);
+		QualityReport failed = new QualityReport();
+		failed.setStatusCode(ReportStatus.FAILED);
+		cache.get(QualityGateEvaluator.cacheKey(GateGroup.EVENTS, API_HOST, API_KEY, request), () -> failed);
+
+		QualityGateEvaluator evaluator = new QualityGateEvaluator(null, cache, registry, new ApiCallMetrics(),
+			RetryPolicy.NONE, QualityGateCheckpoint.NONE, null, new GateCosts());
+		QualityReport report = evaluator.evaluate(API_HOST, API_KEY, request, null, new PrintStream(log));
+
+		assertEquals(ReportStatus.FAILED, report.getStatusCode());
+		assertEquals(Collections.singletonList(GateGroup.REGRESSION), evaluator.getSkipped());
+		assertTrue(log.toString().contains("skipped"));
+
+		ReportSummary summary = QualityReports.summarize(report, evaluator.getTimings(), evaluator.getSkipped(), request);
+		ReportSummary.GateSummary regression = summary.getGate(QualityReports.REGRESSION_ERRORS);
+
+		assertTrue(regression.isSkipped());
+		assertTrue(regression.isPassed());
+	}
+}
@@ -0,0 +1,200 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.util.FormValidation;
+import hudson.util.Secret;
+import net.sf.json.JSONObject;
+
+//Load test of the quality gate against the API simulator. It only runs when the
+//overops.loadTest system property is set, e.g.
+//mvn test -Dtest=QualityGateLoadTest -Doverops.loadTest=true -Doverops.loadTest.jobs=50
+//Other settings: builds (per job), eventCount, latency, jitter (ms) and errorRate (0 to 1).
+
+public class QualityGateLoadTest {
+
+	private static final String DEPLOYMENT = "load";
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	private OverOpsApiSimulator api;
+
+	@Before
+	public void setUp() throws Exception {
+		assumeTrue(Boolean.getBoolean("overops.loadTest"));
+
+		api = new OverOpsApiSimulator();
+		api.addDeployment(DEPLOYMENT);
+		api.addApplication("load");
+		api.setEventCount(Integer.getInteger("overops.loadTest.eventCount", 1000));
+		api.setLatency(Long.getLong("overops.loadTest.latency", 20), Long.getLong("overops.loadTest.jitter", 20));
+		api.setErrorRate(Double.parseDouble(System.getProperty("overops.loadTest.errorRate", "0")), 500);
+
+		JSONObject settings = new JSONObject();
+		settings.put("overOpsAppURL", api.getUrl());
+		settings.put("overOpsURL", api.getUrl());
+		settings.put("overOpsSID", "S1");
+		settings.put("overOpsAPIKey", "load-test");
+		settings.put("reportCacheTtl", 0);
+
+		JSONObject form = new JSONObject();
+		form.put("QueryOverOps", settings);
+
+		j.jenkins.getDescriptorByType(DescriptorImpl.class).configure(null, form);
+	}
+
+	@After
+	public void tearDown() {
+		if (api != null) {
+			api.close();
+		}
+	}
+
+	@Test
+	public void concurrentJobs() throws Exception {
+		int jobs = Integer.getInteger("overops.loadTest.jobs", 20);
+		int builds = Integer.getInteger("overops.loadTest.builds", 5);
+
+		j.jenkins.setNumExecutors(jobs);
+
+		List<FreeStyleProject> projects = new ArrayList<>();
+
+		for (int i = 0; i < jobs; i++) {
+			QueryOverOps queryOverOps = new QueryOverOps();
+			queryOverOps.setApplicationName("load");
+			queryOverOps.setDeploymentName(DEPLOYMENT);
+			queryOverOps.setNewEvents(true);
+			queryOverOps.setResurfacedErrors(true);
+			queryOverOps.setMaxErrorVolume(100);
+			queryOverOps.setMaxUniqueErrors(10);
+			queryOverOps.setCriticalExceptionTypes("NullPointerException");
+			queryOverOps.setErrorSuccess(true);
+
+			FreeStyleProject project = j.createFreeStyleProject();
+			project.getPublishersList().add(queryOverOps);
+			projects.add(project);
+		}
+
+		long heapBefore = usedHeapAfterGc();
+		long start = System.nanoTime();
+
+		// one thread per job keeps its builds sequential while jobs run concurrently
+		ExecutorService clients = Executors.newFixedThreadPool(jobs);
+		List<Future<List<Long>>> results = new ArrayList<>();
+
+		try {
+			for (FreeStyleProject project : projects) {
+				results.add(clients.submit(() -> runBuilds(project, builds)));
+			}
+
+			List<Long> durations = new ArrayList<>();
+
+			for (Future<List<Long>> result : results) {
+				durations.addAll(result.get(30, TimeUnit.MINUTES));
+			}
+
+			long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			long heapGrowth = usedHeapAfterGc() - heapBefore;
+
+			assertEquals(jobs * builds, durations.size());
+
+			Collections.sort(durations);
+
+			System.out.println(String.format(Locale.ROOT,
+				"OverOps load test: %d jobs x %d builds, %d events, %.1f builds/s, step p50 %d ms, p99 %d ms, " +
+				"heap growth %d MB, %d API requests, %d injected errors, unmatched paths %s",
+				jobs, builds, api.getEventCount(), durations.size() * 1000d / Math.max(1, elapsedMillis),
+				percentile(durations, 0.50), percentile(durations, 0.99), heapGrowth / (1024 * 1024),
+				api.getRequests(), api.getInjectedErrors(), api.getUnmatchedRequests()));
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	@Test
+	public void concurrentTestConnections() throws Exception {
+		int clients = Integer.getInteger("overops.loadTest.jobs", 20);
+		int calls = Integer.getInteger("overops.loadTest.builds", 5);
+
+		DescriptorImpl descriptor = j.jenkins.getDescriptorByType(DescriptorImpl.class);
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		List<Callable<Long>> tasks = new ArrayList<>();
+
+		for (int i = 0; i < clients * calls; i++) {
+			tasks.add(() -> {
+				long callStart = System.nanoTime();
+				FormValidation validation = descriptor.doTestConnection(api.getUrl(), api.getUrl(), "S1",
+					Secret.fromString("load-test"));
+				assertNotNull(validation);
+				return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - callStart);
+			});
+		}
+
+		try {
+			long start = System.nanoTime();
+			List<Long> durations = new ArrayList<>();
+
+			for (Future<Long> result : pool.invokeAll(tasks)) {
+				durations.add(result.get());
+			}
+
+			long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+			Collections.sort(durations);
+
+			System.out.println(String.format(Locale.ROOT,
+				"OverOps test connection load test: %d calls, %.1f calls/s, p50 %d ms, p99 %d ms",
+				durations.size(), durations.size() * 1000d / Math.max(1, elapsedMillis),
+				percentile(durations, 0.50), percentile(durations, 0.99)));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// durations of the quality gate step, the only step of each build
+	private List<Long> runBuilds(FreeStyleProject project, int builds) throws Exception {
+		List<Long> durations = new ArrayList<>();
+
+		for (int i = 0; i < builds; i++) {
+			FreeStyleBuild build = j.assertBuildStatus(Result.SUCCESS, project.scheduleBuild2(0));
+			durations.add(build.getDuration());
+		}
+
+		return durations;
+	}
+
+	private static long percentile(List<Long> sorted, double quantile) {
+		int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+		return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+	}
+
+	private static long usedHeapAfterGc() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,46 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class QualityGateRequestTest {
+
+	@Test
+	public void parsesTargetsPerLineAndComma() {
+		List<QualityGateRequest.Target> targets = QualityGateRequest.parseTargets(
+			"orders:v7\n payments : v8 ,billing\r\n\n", "v1");
+
+		assertEquals(3, targets.size());
+		assertEquals("orders / v7", targets.get(0).toString());
+		assertEquals("payments", targets.get(1).getApplicationName());
+		assertEquals("v8", targets.get(1).getDeploymentName());
+		assertEquals("v1", targets.get(2).getDeploymentName());
+	}
+
+	@Test
+	public void splitsBatchIntoOneRequestPerTarget() {
+		QualityGateRequest request = new QualityGateRequest();
+		request.setServiceId("S1");
+		request.setNewEvents(true);
+		request.setMaxErrorVolume(5);
+
+		assertFalse(request.isBatch());
+		assertEquals(1, request.split().size());
+
+		request.setTargets(QualityGateRequest.parseTargets("orders:v7,payments:v8", null));
+		List<QualityGateRequest> requests = request.split();
+
+		assertTrue(request.isBatch());
+		assertEquals(2, requests.size());
+		assertEquals("payments", requests.get(1).getApplicationName());
+		assertEquals("v8", requests.get(1).getDeploymentName());
+		assertEquals("S1", requests.get(1).getServiceId());
+		assertEquals(5, requests.get(1).getMaxErrorVolume());
+		assertFalse(requests.get(1).isBatch());
+	}
+}
@@ -0,0 +1,125 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+import hudson.model.Result;
+import net.sf.json.JSONObject;
+
+public class QualityGateStepTest {
+	private static final String SCRIPT = "overOpsQualityGate(applicationName: 'app', deploymentName: 'v1')";
+
+	@Rule
+	public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+	// outlives the restarts of the controller
+	private OverOpsApiSimulator api;
+
+	@After
+	public void tearDown() {
+		if (api != null) {
+			api.close();
+		}
+	}
+
+	@Test
+	public void stoppedStepLeavesNoReport() {
+		story.addStep(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				configure(story.j);
+
+				WorkflowRun run = startWaitingBuild(story.j);
+				run.getExecutor().interrupt();
+
+				story.j.assertBuildStatus(Result.ABORTED, story.j.waitForCompletion(run));
+				awaitIdleWorkers(story.j);
+
+				assertTrue(run.getActions(OverOpsBuildAction.class).isEmpty());
+			}
+		});
+	}
+
+	@Test
+	public void resumedStepCompletesTheBuild() {
+		story.addStep(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				configure(story.j);
+				startWaitingBuild(story.j);
+			}
+		});
+
+		story.addStep(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				WorkflowRun run = story.j.jenkins.getItemByFullName("gate", WorkflowJob.class).getBuildByNumber(1);
+
+				// the resumed step polls again and finds the deployment and its events
+				api.setEventCount(3);
+				api.addDeployment("v1");
+				story.j.waitForCompletion(run);
+
+				assertTrue(run.getResult().isBetterOrEqualTo(Result.UNSTABLE));
+				assertEquals(1, run.getActions(OverOpsBuildAction.class).size());
+			}
+		});
+	}
+
+	private void configure(JenkinsRule j) throws Exception {
+		api = new OverOpsApiSimulator();
+		api.addApplication("app");
+
+		JSONObject settings = new JSONObject();
+		settings.put("overOpsAppURL", api.getUrl());
+		settings.put("overOpsURL", api.getUrl());
+		settings.put("overOpsSID", "S1");
+		settings.put("overOpsAPIKey", "step-test");
+		settings.put("readinessTimeout", 300);
+
+		JSONObject form = new JSONObject();
+		form.put("QueryOverOps", settings);
+
+		j.jenkins.getDescriptorByType(DescriptorImpl.class).configure(null, form);
+	}
+
+	// a build whose step polls for a deployment OverOps does not have yet
+	private WorkflowRun startWaitingBuild(JenkinsRule j) throws Exception {
+		WorkflowJob job = j.createProject(WorkflowJob.class, "gate");
+		job.setDefinition(new CpsFlowDefinition(SCRIPT, true));
+
+		WorkflowRun run = job.scheduleBuild2(0).waitForStart();
+		long deadline = System.currentTimeMillis() + 30000;
+
+		while ((api.getDeploymentRequests() == 0) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(50);
+		}
+
+		assertTrue(api.getDeploymentRequests() > 0);
+
+		return run;
+	}
+
+	private static void awaitIdleWorkers(JenkinsRule j) throws InterruptedException {
+		ThreadPoolExecutor workers = (ThreadPoolExecutor) j.jenkins.getDescriptorByType(DescriptorImpl.class).getGateWorkers();
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while ((workers.getActiveCount() > 0) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(50);
+		}
+
+		assertEquals(0, workers.getActiveCount());
+	}
+}
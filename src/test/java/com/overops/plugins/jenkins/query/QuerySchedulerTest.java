@@ -0,0 +1,89 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class QuerySchedulerTest {
+
+	@Test
+	public void servesJobsRoundRobin() throws Exception {
+		QueryScheduler scheduler = new QueryScheduler(1, 1);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		BlockingQueue<QueryScheduler.Permit> granted = new LinkedBlockingQueue<>();
+
+		QueryScheduler.Permit first = scheduler.acquire("a", "S1");
+
+		// job a queues two queries before job b queues one
+		for (String job : Arrays.asList("a", "a", "b")) {
+			int depth = scheduler.getQueueDepth();
+			queue(scheduler, job, "S1", order, granted);
+			awaitQueueDepth(scheduler, depth + 1);
+		}
+
+		first.close();
+		granted.poll(5, TimeUnit.SECONDS).close();
+		granted.poll(5, TimeUnit.SECONDS).close();
+		granted.poll(5, TimeUnit.SECONDS).close();
+
+		assertEquals(Arrays.asList("a", "b", "a"), order);
+		assertEquals(0, scheduler.getRunning());
+		assertEquals(4, scheduler.getAcquired());
+	}
+
+	@Test
+	public void capsQueriesPerEnvironment() throws Exception {
+		QueryScheduler scheduler = new QueryScheduler(3, 1);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		BlockingQueue<QueryScheduler.Permit> granted = new LinkedBlockingQueue<>();
+
+		QueryScheduler.Permit first = scheduler.acquire("a", "S1");
+
+		queue(scheduler, "b", "S1", order, granted);
+		awaitQueueDepth(scheduler, 1);
+		queue(scheduler, "c", "S2", order, granted);
+
+		// S2 has a free slot even though an S1 query is waiting ahead of it
+		granted.poll(5, TimeUnit.SECONDS).close();
+		assertEquals(Arrays.asList("c"), order);
+		assertEquals(1, scheduler.getQueueDepth());
+
+		first.close();
+		granted.poll(5, TimeUnit.SECONDS).close();
+		assertEquals(Arrays.asList("c", "b"), order);
+	}
+
+	private static void queue(QueryScheduler scheduler, String job, String serviceId, List<String> order,
+			BlockingQueue<QueryScheduler.Permit> granted) {
+		Thread thread = new Thread(() -> {
+			try {
+				QueryScheduler.Permit permit = scheduler.acquire(job, serviceId);
+				order.add(job);
+				granted.add(permit);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void awaitQueueDepth(QueryScheduler scheduler, int depth) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while ((scheduler.getQueueDepth() < depth) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(5);
+		}
+
+		assertEquals(depth, scheduler.getQueueDepth());
+	}
+}
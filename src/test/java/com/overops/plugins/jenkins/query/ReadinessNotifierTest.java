@@ -0,0 +1,185 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import net.sf.json.JSONObject;
+
+public class ReadinessNotifierTest {
+	private static final String TOKEN = "secret";
+
+	private OverOpsApiSimulator api;
+	private ApiClientRegistry registry;
+	private ReadinessNotifier notifier;
+	private HttpServer webhook;
+	private ExecutorService executor;
+	private ByteArrayOutputStream log;
+
+	@Before
+	public void setUp() throws Exception {
+		api = new OverOpsApiSimulator();
+		registry = new ApiClientRegistry(DescriptorImpl.DEFAULT_MAX_REQUESTS_PER_CLIENT, DescriptorImpl.DEFAULT_CLIENT_IDLE_TIMEOUT,
+			new ApiCallMetrics());
+		notifier = new ReadinessNotifier();
+		executor = Executors.newSingleThreadExecutor();
+		log = new ByteArrayOutputStream();
+
+		// stands in for the Jenkins root action, with the same authentication and handling
+		webhook = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		webhook.createContext("/notify", exchange -> {
+			String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+			OverOpsWebhookAction.Response response = OverOpsWebhookAction.notify(notifier, TOKEN,
+				exchange.getRequestHeaders().getFirst(OverOpsWebhookAction.TOKEN_HEADER), JSONObject.fromObject(body));
+			byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+
+			exchange.sendResponseHeaders(response.status, bytes.length);
+
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		});
+		webhook.start();
+	}
+
+	@After
+	public void tearDown() {
+		webhook.stop(0);
+		executor.shutdownNow();
+		registry.close();
+		api.close();
+	}
+
+	@Test
+	public void notificationWakesWaitingBuild() throws Exception {
+		DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 30000, 10000, 10000,
+			notifier);
+		Future<Boolean> ready = executor.submit(() -> probe.awaitReady("S1", "v1", new PrintStream(log)));
+
+		awaitWaiting(1);
+		long start = System.nanoTime();
+
+		assertEquals(202, post(TOKEN, "{\"serviceId\": \"S1\", \"deploymentName\": \"v1\"}"));
+		assertTrue(ready.get(5, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+
+		// at most the poll before the wait, none after the notification
+		assertTrue(api.getDeploymentRequests() <= 1);
+		assertTrue(log.toString().contains("1 notified"));
+		assertEquals(0, notifier.getWaiting());
+	}
+
+	@Test
+	public void matchesEnvironmentIdsCaseInsensitively() throws Exception {
+		try (ReadinessNotifier.Waiter waiter = notifier.register("S1", Collections.singleton("v1"))) {
+			assertEquals(202, post(TOKEN, "{\"serviceId\": \" s1 \", \"deploymentName\": \"v1\"}"));
+			assertEquals(Collections.singleton("v1"), waiter.await(1000));
+		}
+	}
+
+	@Test
+	public void rejectsInvalidToken() throws Exception {
+		DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 1000, 10, 50, notifier);
+		Future<Boolean> ready = executor.submit(() -> probe.awaitReady("S1", "v1", new PrintStream(log)));
+
+		awaitWaiting(1);
+
+		assertEquals(401, post("wrong", "{\"serviceId\": \"S1\", \"deploymentName\": \"v1\"}"));
+		assertEquals(401, post(null, "{\"serviceId\": \"S1\", \"deploymentName\": \"v1\"}"));
+		assertEquals(400, post(TOKEN, "{\"deploymentName\": \"v1\"}"));
+
+		assertEquals(Boolean.FALSE, ready.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void pollingRemainsTheFallback() throws Exception {
+		DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 10000, 10, 50, notifier);
+		Future<Boolean> ready = executor.submit(() -> probe.awaitReady("S1", "v2", new PrintStream(log)));
+
+		awaitWaiting(1);
+		api.addDeployment("v2");
+
+		assertTrue(ready.get(5, TimeUnit.SECONDS));
+		assertTrue(api.getDeploymentRequests() > 1);
+	}
+
+	@Test
+	public void earlierNotificationNeedsNoPoll() throws Exception {
+		assertEquals(202, post(TOKEN, "{\"serviceId\": \"S1\", \"deployments\": [\"orders-7\", \"payments-7\"]}"));
+
+		DeploymentReadinessProbe probe = new DeploymentReadinessProbe(registry, api.getUrl(), "key", 10000, 10, 50, notifier);
+		Set<String> ready = probe.awaitReady("S1", Arrays.asList("orders-7", "payments-7"), new PrintStream(log));
+
+		assertEquals(new HashSet<>(Arrays.asList("orders-7", "payments-7")), ready);
+		assertEquals(0, api.getDeploymentRequests());
+	}
+
+	@Test
+	public void environmentNotificationOnlyWakesTheEnvironment() throws Exception {
+		try (ReadinessNotifier.Waiter waiter = notifier.register("S1", Collections.singleton("v1"));
+				ReadinessNotifier.Waiter other = notifier.register("S2", Collections.singleton("v1"))) {
+			assertEquals(1, notifier.notifyReady("S1", null));
+
+			// woken without a ready deployment, so the probe polls
+			assertTrue(waiter.await(1000).isEmpty());
+			assertEquals(2, notifier.getWaiting());
+		}
+
+		assertEquals(0, notifier.getWaiting());
+	}
+
+	private void awaitWaiting(int builds) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while ((notifier.getWaiting() < builds) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(builds, notifier.getWaiting());
+	}
+
+	private int post(String token, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + webhook.getAddress().getPort() +
+			"/notify").openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/json");
+
+		if (token != null) {
+			connection.setRequestProperty(OverOpsWebhookAction.TOKEN_HEADER, token);
+		}
+
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		}
+
+		try {
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.overops.report.service.model.QualityGateTestResults;
+import com.overops.report.service.model.QualityReport;
+import com.overops.report.service.model.QualityReport.ReportStatus;
+
+public class RegressionBaselineTest {
+
+	private static final long START = 1_000 * RegressionBaseline.DAY;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// one hit and ten invocations of event "1" per hour
+	private final List<long[]> fetches = new ArrayList<>();
+	private final RegressionBaseline.SliceSource source = (from, to) -> {
+		fetches.add(new long[] { from, to });
+		long hours = (to - from) / RegressionBaseline.HOUR;
+		return Collections.singletonMap("1", new RegressionBaseline.EventVolume("Event 1", hours, hours * 10));
+	};
+
+	@Test
+	public void onlyFetchesHoursSinceLastUpdate() throws Exception {
+		File file = new File(folder.getRoot(), "baseline.bin");
+		long window = 3 * RegressionBaseline.DAY;
+		long now = START + 30 * 60 * 1000;
+
+		RegressionBaseline first = RegressionBaseline.update(file, source, now, window);
+
+		assertEquals(3, first.getFetchedSlices());
+		assertEquals(START, first.getEnd());
+		assertEquals(72, first.sum(START - window, START).get("1").getHits());
+
+		fetches.clear();
+
+		RegressionBaseline second = RegressionBaseline.update(file, source, now + 2 * RegressionBaseline.HOUR, window);
+
+		assertEquals(1, fetches.size());
+		assertEquals(START, fetches.get(0)[0]);
+		assertEquals(START + 2 * RegressionBaseline.HOUR, fetches.get(0)[1]);
+		assertEquals(74, second.sum(START - window, START + 2 * RegressionBaseline.HOUR).get("1").getHits());
+		assertEquals("Event 1", second.getName("1"));
+	}
+
+	@Test
+	public void compactsCompleteDaysAndEvictsOldSlices() throws Exception {
+		File file = new File(folder.getRoot(), "baseline.bin");
+		long window = RegressionBaseline.DAY;
+
+		for (int hour = 1; hour <= 24; hour++) {
+			RegressionBaseline.update(file, source, START + hour * RegressionBaseline.HOUR, window);
+		}
+
+		RegressionBaseline compacted = RegressionBaseline.update(file, source, START + RegressionBaseline.DAY, window);
+
+		assertEquals(1, compacted.getSliceCount());
+		assertEquals(24, compacted.sum(START, START + RegressionBaseline.DAY).get("1").getHits());
+
+		RegressionBaseline moved = RegressionBaseline.update(file, source, START + 3 * RegressionBaseline.DAY, window);
+
+		assertEquals(START + 3 * RegressionBaseline.DAY, moved.getEnd());
+		assertFalse(moved.sum(START, START + RegressionBaseline.DAY).containsKey("1"));
+	}
+
+	@Test
+	public void keepsHourlySlicesInTheActiveWindow() throws Exception {
+		File file = new File(folder.getRoot(), "baseline.bin");
+		long burstStart = START - 2 * RegressionBaseline.HOUR;
+
+		// one hit per hour, and a burst of 100 per hour from two hours before START on
+		RegressionBaseline.SliceSource burst = (from, to) -> {
+			long hits = 0;
+
+			for (long hour = from; hour < to; hour += RegressionBaseline.HOUR) {
+				hits += hour >= burstStart ? 100 : 1;
+			}
+
+			return Collections.singletonMap("1", new RegressionBaseline.EventVolume("Event 1", "Logged Error", hits,
+				(to - from) / RegressionBaseline.HOUR * 10));
+		};
+
+		long now = START + 30 * 60 * 1000;
+		RegressionBaseline first = RegressionBaseline.update(file, burst, now, 3 * RegressionBaseline.DAY,
+			6 * RegressionBaseline.HOUR);
+
+		assertEquals(204, first.sum(START - 6 * RegressionBaseline.HOUR, START).get("1").getHits());
+
+		RegressionBaseline second = RegressionBaseline.update(file, burst, now + RegressionBaseline.HOUR,
+			3 * RegressionBaseline.DAY, 6 * RegressionBaseline.HOUR);
+
+		assertEquals(303, second.sum(START - 5 * RegressionBaseline.HOUR, START + RegressionBaseline.HOUR).get("1").getHits());
+		assertEquals("Logged Error", second.getType("1"));
+	}
+
+	@Test
+	public void refetchesCompactedDaysTheActiveWindowReaches() throws Exception {
+		File file = new File(folder.getRoot(), "baseline.bin");
+
+		RegressionBaseline.update(file, source, START, 3 * RegressionBaseline.DAY);
+		fetches.clear();
+
+		RegressionBaseline hourly = RegressionBaseline.update(file, source, START, 3 * RegressionBaseline.DAY,
+			6 * RegressionBaseline.HOUR);
+
+		assertEquals(7, fetches.size());
+		assertEquals(START - RegressionBaseline.DAY, fetches.get(0)[0]);
+		assertEquals(72, hourly.sum(START - 3 * RegressionBaseline.DAY, START).get("1").getHits());
+	}
+
+	@Test
+	public void filtersRegressionEventsByType() {
+		EventMatcher matcher = EventMatcher.compile("\"type\":\"Timer\"", null);
+
+		assertTrue(matcher.isFiltered(RegressionGate.eventText("1", "Timer", "Timer in Scheduler.run")));
+		assertFalse(matcher.isFiltered(RegressionGate.eventText("2", "Logged Error", "Error in Scheduler.run")));
+	}
+
+	@Test
+	public void detectsSeasonalPeaks() {
+		Map<Long, Long> dailyHits = new TreeMap<>();
+		dailyHits.put(1L, 40L);
+
+		assertFalse(RegressionGate.isSeasonal(dailyHits, 100));
+
+		dailyHits.put(2L, 60L);
+		dailyHits.put(3L, 55L);
+
+		assertTrue(RegressionGate.isSeasonal(dailyHits, 100));
+
+		dailyHits.clear();
+		dailyHits.put(1L, 120L);
+
+		assertTrue(RegressionGate.isSeasonal(dailyHits, 100));
+	}
+
+	@Test
+	public void defaultThresholdsFailOnRegression() throws Exception {
+		// the error rate of event "1" triples in the last day
+		RegressionBaseline.SliceSource tripled = (from, to) -> {
+			long hits = 0;
+
+			for (long hour = from; hour < to; hour += RegressionBaseline.HOUR) {
+				hits += hour >= START - RegressionBaseline.DAY ? 3 : 1;
+			}
+
+			return Collections.singletonMap("1", new RegressionBaseline.EventVolume("Event 1", hits,
+				(to - from) / RegressionBaseline.HOUR * 10));
+		};
+
+		QualityGateRequest request = new QualityGateRequest();
+		request.setActiveTimespan("1d");
+		request.setBaselineTimespan("7d");
+
+		QualityReport report = new RegressionGate(request).evaluate(new File(folder.getRoot(), "baseline.bin"), tripled,
+			START, null);
+		QualityGateTestResults results = report.getRegressionErrorsTestResults();
+
+		assertEquals(ReportStatus.FAILED, report.getStatusCode());
+		assertFalse(results.isPassed());
+		assertEquals(1L, (long) results.getErrorCount());
+
+		// below the critical threshold the regression is listed but passes
+		request.setCriticalRegressionDelta(5);
+
+		report = new RegressionGate(request).evaluate(new File(folder.getRoot(), "baseline.bin"), tripled, START, null);
+
+		assertEquals(ReportStatus.PASSED, report.getStatusCode());
+		assertEquals(1L, (long) report.getRegressionErrorsTestResults().getErrorCount());
+	}
+
+	@Test
+	public void parsesTimespans() {
+		assertEquals(7 * RegressionBaseline.DAY, RegressionGate.parseTimespan("7d"));
+		assertEquals(12 * RegressionBaseline.HOUR, RegressionGate.parseTimespan("12h"));
+		assertEquals(30 * 60 * 1000L, RegressionGate.parseTimespan("30m"));
+		assertEquals(10080 * 60 * 1000L, RegressionGate.parseTimespan("10080"));
+	}
+}
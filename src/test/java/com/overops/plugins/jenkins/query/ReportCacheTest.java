@@ -0,0 +1,108 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.overops.report.service.model.QualityReport;
+
+public class ReportCacheTest {
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	public void identicalQueriesShareOneCall() throws Exception {
+		ReportCache cache = new ReportCache(10, 60);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+
+		try {
+			Future<QualityReport> first = executor.submit(() -> cache.get("k", () -> {
+				started.countDown();
+				release.await();
+				return load().call();
+			}));
+
+			started.await();
+			Future<QualityReport> second = executor.submit(() -> cache.get("k", load()));
+
+			// the second query is waiting for the first one's call
+			Thread.sleep(100);
+			release.countDown();
+
+			assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+			assertEquals(1, loads.get());
+			assertEquals(1, cache.getMisses());
+			assertEquals(1, cache.getHits());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void expiresAfterTtl() throws Exception {
+		ReportCache cache = new ReportCache(10, 1);
+
+		QualityReport first = cache.get("k", load());
+		assertSame(first, cache.get("k", load()));
+
+		Thread.sleep(1100);
+
+		cache.get("k", load());
+
+		assertEquals(2, loads.get());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception {
+		ReportCache cache = new ReportCache(2, 60);
+
+		QualityReport a = cache.get("a", load());
+		cache.get("b", load());
+
+		// a is now used more recently than b
+		cache.get("a", load());
+		cache.get("c", load());
+
+		assertEquals(2, cache.getSize());
+		assertSame(a, cache.get("a", load()));
+
+		cache.get("b", load());
+
+		assertEquals(4, loads.get());
+		assertEquals(2, cache.getEvictions());
+	}
+
+	@Test
+	public void disabledCacheAlwaysLoads() throws Exception {
+		ReportCache cache = new ReportCache(10, 0);
+
+		cache.get("k", load());
+		cache.get("k", load());
+
+		assertEquals(2, loads.get());
+		assertEquals(0, cache.getSize());
+	}
+
+	private Callable<QualityReport> load() {
+		return () -> {
+			loads.incrementAndGet();
+
+			QualityReport report = new QualityReport();
+			report.setStatusCode(QualityReport.ReportStatus.PASSED);
+
+			return report;
+		};
+	}
+}
@@ -0,0 +1,115 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.sf.json.JSONObject;
+
+public class ReportEventTableTest {
+
+	@Test
+	public void pagesFiltersAndSortsEvents() throws Exception {
+		File buildDir = Files.createTempDirectory("overops-report").toFile();
+
+		try {
+			assertNull(ReportEventTable.load(buildDir, null));
+
+			List<ReportEvent> newErrors = new ArrayList<>();
+
+			for (int i = 0; i < 60; i++) {
+				newErrors.add(new ReportEvent(String.valueOf(i), (i % 2 == 0 ? "NullPointerException" : "IOException") + " " + i, i));
+			}
+
+			Map<String, List<ReportEvent>> events = new LinkedHashMap<>();
+			events.put("New", newErrors);
+			events.put("Critical", Arrays.asList(new ReportEvent("100", "OutOfMemoryError", 5)));
+
+			ReportSummary summary = new ReportSummary("FAILED", Arrays.asList(
+				new ReportSummary.GateSummary("New", false, 60, "60 new errors", 10, 1770),
+				new ReportSummary.GateSummary("Critical", false, 1, "1 critical error", 10, 5)));
+
+			ReportJson.write(buildDir, null, summary, EventArchive.of(events));
+
+			ReportEventTable table = ReportEventTable.load(buildDir, null);
+
+			assertEquals(61, table.size());
+			assertEquals(Arrays.asList("New", "Critical"), table.getGates());
+
+			ReportEventTable.Page first = table.query(null, null, null, true, 0, 25);
+			assertEquals(61, first.getTotal());
+			assertEquals(25, first.getRows().size());
+			assertEquals(59, first.getRows().get(0).getVolume());
+
+			ReportEventTable.Page last = table.query("", "", "volume", true, 50, 25);
+			assertEquals(11, last.getRows().size());
+
+			ReportEventTable.Page filtered = table.query("New", "nullpointer", "name", false, 0, 1000);
+			assertEquals(30, filtered.getTotal());
+			assertEquals(30, filtered.getRows().size());
+			assertEquals("NullPointerException 0", filtered.getRows().get(0).getName());
+
+			assertEquals(1, table.query("Critical", null, "id", false, 0, 25).getTotal());
+			assertEquals(0, table.query(null, null, null, true, 1000, 25).getRows().size());
+
+			StringWriter json = new StringWriter();
+			table.query("Critical", null, null, true, 0, 25).write(json);
+			JSONObject page = JSONObject.fromObject(json.toString());
+
+			assertEquals(1, page.getInt("total"));
+			assertEquals("OutOfMemoryError", page.getJSONArray("rows").getJSONObject(0).getString("name"));
+		} finally {
+			new File(buildDir, ReportJson.JSON_FILE).delete();
+			buildDir.delete();
+		}
+	}
+
+	@Test
+	public void readsEveryEventOfJoinedArchives() throws Exception {
+		File buildDir = Files.createTempDirectory("overops-report").toFile();
+
+		try {
+			EventArchive.Builder first = new EventArchive.Builder().gate("New");
+
+			for (int i = 0; i < 5000; i++) {
+				first.add(new ReportEvent(String.valueOf(i), "Error " + i, i));
+			}
+
+			EventArchive second = new EventArchive.Builder()
+				.gate("New").add(new ReportEvent("a\"b", "Line\n\"quoted\" \\ \u00e9\u2028", 7))
+				.gate("Critical").add(new ReportEvent("c", "OutOfMemoryError", 1))
+				.build();
+
+			ReportSummary summary = new ReportSummary("FAILED", Arrays.asList(
+				new ReportSummary.GateSummary("New", false, 5001, "5001 new errors", 10, 0),
+				new ReportSummary.GateSummary("Critical", false, 1, "1 critical error", 10, 1)));
+
+			ReportJson.write(buildDir, "k", summary, EventArchive.join(Arrays.asList(first.build(), second)));
+
+			ReportEventTable table = ReportEventTable.load(buildDir, "k");
+
+			assertNull(ReportEventTable.load(buildDir, null));
+
+			assertEquals(5002, table.size());
+			assertEquals(Arrays.asList("New", "Critical"), table.getGates());
+			assertEquals(4999, table.query("New", null, null, true, 0, 25).getRows().get(0).getVolume());
+
+			ReportEventTable.Row escaped = table.query("New", "quoted", null, true, 0, 25).getRows().get(0);
+			assertEquals("a\"b", escaped.getId());
+			assertEquals("Line\n\"quoted\" \\ \u00e9\u2028", escaped.getName());
+		} finally {
+			ReportFiles.file(buildDir, ReportJson.JSON_FILE, "k").delete();
+			buildDir.delete();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.overops.report.service.model.QualityReport;
+import com.overops.report.service.model.QualityReportExceptionDetails;
+
+public class RetryPolicyTest {
+
+	@Test
+	public void classifiesTransientFailures() {
+		assertTrue(RetryPolicy.isTransient(new RuntimeException(new SocketTimeoutException("Read timed out"))));
+		assertTrue(RetryPolicy.isTransient("Unexpected response code 503"));
+		assertTrue(RetryPolicy.isTransient("HTTP 429 Too Many Requests"));
+		assertFalse(RetryPolicy.isTransient("Unexpected response code 401"));
+		assertFalse(RetryPolicy.isTransient(new IllegalArgumentException("Missing environment Id")));
+	}
+
+	@Test
+	public void retriesTransientReportsUntilGenerated() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		QualityReport generated = new QualityReport();
+
+		QualityReport report = new RetryPolicy(2, 1).call(() ->
+			calls.incrementAndGet() < 3 ? failed("Unexpected response code 502") : generated, "report", null);
+
+		assertSame(generated, report);
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void doesNotRetryPermanentFailures() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+
+		try {
+			new RetryPolicy(2, 1).call(() -> {
+				calls.incrementAndGet();
+				throw new IllegalArgumentException("Missing api key");
+			}, "report", null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(1, calls.get());
+		}
+
+		QualityReport report = new RetryPolicy(2, 1).call(() -> failed("Unexpected response code 502"), "report", null);
+		assertEquals("Unexpected response code 502", report.getExceptionDetails().getExceptionMessage());
+	}
+
+	private static QualityReport failed(String message) {
+		QualityReportExceptionDetails details = new QualityReportExceptionDetails();
+		details.setExceptionMessage(message);
+
+		QualityReport report = new QualityReport();
+		report.setExceptionDetails(details);
+
+		return report;
+	}
+}
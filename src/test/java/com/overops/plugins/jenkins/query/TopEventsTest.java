@@ -0,0 +1,52 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.overops.report.service.model.QualityGateEvent;
+
+public class TopEventsTest {
+
+	@Test
+	public void keepsHighestVolumeEventsAndCountsAll() {
+		TopEvents topEvents = new TopEvents(3);
+
+		for (int i = 0; i < 10000; i++) {
+			topEvents.offer(event(i, (i * 7919L) % 10007));
+		}
+
+		List<ReportEvent> events = topEvents.toList();
+
+		assertEquals(3, events.size());
+		assertEquals(10006, events.get(0).getVolume());
+		assertEquals(10005, events.get(1).getVolume());
+		assertEquals(10004, events.get(2).getVolume());
+		assertEquals(10000, topEvents.getCount());
+	}
+
+	@Test
+	public void breaksTiesById() {
+		TopEvents topEvents = new TopEvents(2);
+
+		topEvents.offer(event(3, 5));
+		topEvents.offer(event(1, 5));
+		topEvents.offer(event(2, 5));
+
+		List<ReportEvent> events = topEvents.toList();
+
+		assertEquals("1", events.get(0).getId());
+		assertEquals("2", events.get(1).getId());
+		assertEquals(15, topEvents.getVolume());
+	}
+
+	private static QualityGateEvent event(int id, long hits) {
+		QualityGateEvent event = new QualityGateEvent();
+		event.setEventId(String.valueOf(id));
+		event.setEventSummary("event " + id);
+		event.setHits(String.valueOf(hits));
+		return event;
+	}
+}
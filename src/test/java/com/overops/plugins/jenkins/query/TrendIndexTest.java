@@ -0,0 +1,80 @@
+package com.overops.plugins.jenkins.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.SortedMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrendIndexTest {
+
+	private File dir;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("overops-trend").toFile();
+		file = new File(dir, TrendIndex.INDEX_FILE);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".tmp").delete();
+		dir.delete();
+	}
+
+	@Test
+	public void keepsTheLastRecordOfEachBuild() throws Exception {
+		TrendIndex.append(file, record(1, 3));
+		TrendIndex.append(file, record(2, 5));
+		TrendIndex.append(file, record(1, 4));
+
+		SortedMap<Integer, TrendIndex.Record> records = TrendIndex.read(file);
+
+		assertEquals(Arrays.asList(1, 2), Arrays.asList(records.keySet().toArray()));
+		assertEquals(4, records.get(1).getNewErrors());
+		assertEquals("Failed", records.get(2).getStatus());
+	}
+
+	@Test
+	public void appendsAfterARecordCutShort() throws Exception {
+		TrendIndex.append(file, record(1, 3));
+		TrendIndex.append(file, record(2, 5));
+
+		// a crash while appending the record of build 2
+		try (RandomAccessFile cut = new RandomAccessFile(file, "rw")) {
+			cut.setLength(cut.length() - 7);
+		}
+
+		TrendIndex.append(file, record(3, 6));
+
+		SortedMap<Integer, TrendIndex.Record> records = TrendIndex.read(file);
+
+		assertEquals(Arrays.asList(1, 3), Arrays.asList(records.keySet().toArray()));
+		assertEquals(6, records.get(3).getNewErrors());
+		assertEquals(4 + 2 * TrendIndex.Record.SIZE, file.length());
+	}
+
+	@Test
+	public void rewritesWithoutDeletedBuilds() throws Exception {
+		TrendIndex.append(file, record(1, 3));
+		TrendIndex.append(file, record(2, 5));
+		TrendIndex.append(file, record(3, 6));
+
+		TrendIndex.retain(file, number -> number != 2);
+
+		assertEquals(Arrays.asList(1, 3), Arrays.asList(TrendIndex.read(file).keySet().toArray()));
+	}
+
+	private static TrendIndex.Record record(int buildNumber, int newErrors) {
+		return new TrendIndex.Record(buildNumber, 1000L * buildNumber, TrendIndex.STATUS_FAILED, newErrors, 0, 0, 0, 0,
+			10L * newErrors);
+	}
+}